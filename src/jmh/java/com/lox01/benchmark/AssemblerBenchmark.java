@@ -0,0 +1,68 @@
+package com.lox01.benchmark;
+
+import com.loxassembler.LoxAssembler;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Source lines assembled per second, with the lexer and with the regular
+ * expressions parser only. Lines are 15 chars long on average, so 70k lines
+ * per second is about 1MB/s of source
+ *
+ * @author Dmitry
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    private static final int BLOCKS = 100;
+    private static final int LINES = BLOCKS * 10;
+
+    @Param({"true", "false"})
+    private boolean lexer;
+
+    private LoxAssembler assembler;
+    private String source;
+
+    @Setup
+    public void setup() {
+        assembler = new LoxAssembler();
+        assembler.setLexerEnabled(lexer);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < BLOCKS; i++) {
+            builder.append("label").append(i).append(":\n");
+            builder.append("mov r1, 0x").append(Integer.toHexString(i * 0x1234)).append("\n");
+            builder.append("mov r2, r1 //copy\n");
+            builder.append("add r1, r2\n");
+            builder.append("mov32 r3, r4:[r1*4+").append(i * 4).append("]\n");
+            builder.append("mov32 rg:[r2*2+16], r3\n");
+            builder.append("mov8 r3, [r1]\n");
+            builder.append("cmp r1, r3\n");
+            builder.append("jnz label").append(i).append("\n");
+            builder.append("jmp label").append((i + 1) % BLOCKS).append("\n");
+        }
+        source = builder.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public byte[] assemble() throws IOException {
+        return assembler.assemble(source);
+    }
+}
@@ -0,0 +1,110 @@
+package com.lox01.benchmark;
+
+import com.lox01.Computer;
+import com.lox01.modules.ram.RamModule;
+import com.loxassembler.LoxAssembler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Guest programs used by benchmarks. All of them are endless loops, the
+ * benchmarks run them with instructions budget.
+ *
+ * @author Dmitry
+ */
+public class BenchmarkPrograms {
+
+    public static final int CODE_ADDRESS = 0x1000;
+    public static final int RAM_KB_SIZE = 64;
+
+    /**
+     * Register to register ALU operations and conditional jump
+     */
+    public static byte[] aluLoop() throws IOException {
+        return new LoxAssembler().assemble(""
+                + "mov r1, 0x12345678\n"
+                + "mov r2, 3\n"
+                + "mov r3, 0x0F0F0F0F\n"
+                + "mov r4, 1\n"
+                + "loop:\n"
+                + "xor r1, r3\n"
+                + "rol r1, r2\n"
+                + "add r3, r1\n"
+                + "and r1, r3\n"
+                + "or r1, r4\n"
+                + "shr r3, r4\n"
+                + "mul r4, r2\n"
+                + "cmp r1, r3\n"
+                + "jnz loop\n"
+                + "jmp loop\n");
+    }
+
+    /**
+     * Copies 64 bytes between data pages with base + index * 4 + offset
+     * addressing
+     */
+    public static byte[] memoryCopy() throws IOException {
+        StringBuilder source = new StringBuilder();
+        source.append("mov r1, 4\n");
+        source.append("mov r4, 0x3000\n");
+        source.append("mov rg, 0x5000\n");
+        source.append("loop:\n");
+        for (int offset = 0; offset < 64; offset += 4) {
+            source.append("mov32 r3, r4:[r1*4+").append(offset).append("]\n");
+            source.append("mov32 rg:[r1*4+").append(offset).append("], r3\n");
+        }
+        source.append("jmp loop\n");
+        return new LoxAssembler().assemble(source.toString());
+    }
+
+    /**
+     * Recursion 32 calls deep with push/pop of the argument.<br>
+     * Call, ret, push and pop have different opcodes in the assembler and the
+     * processor, so this program is encoded for the processor by hand
+     */
+    public static byte[] recursion() {
+        ByteBuffer code = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        code.put((byte) 60).put((byte) 5).putInt(0x8000);      //0x1000 mov sp, 0x8000
+        code.put((byte) 60).put((byte) 0).putInt(-1);          //0x1006 main: mov r1, -1
+        code.put((byte) 60).put((byte) 1).putInt(1);           //0x100C mov r2, 1
+        code.put((byte) 47).putInt(0x101C - 0x1017);           //0x1012 call f
+        code.put((byte) 2).putInt(0x1006 - 0x101C);            //0x1017 jmp main
+        code.put((byte) 33).put((byte) (0 | 1 << 3));          //0x101C f: shr r1, r2
+        code.put((byte) 3).putShort((short) (0x102A - 0x1021));//0x101E jz return
+        code.put((byte) 50).put((byte) 0);                     //0x1021 push r1
+        code.put((byte) 47).putInt(0x101C - 0x1028);           //0x1023 call f
+        code.put((byte) 51).put((byte) 0);                     //0x1028 pop r1
+        code.put((byte) 49);                                   //0x102A return: ret
+        byte[] result = new byte[code.position()];
+        code.flip();
+        code.get(result);
+        return result;
+    }
+
+    public static byte[] program(String name) throws IOException {
+        switch (name) {
+            case "aluLoop":
+                return aluLoop();
+            case "memoryCopy":
+                return memoryCopy();
+            case "recursion":
+                return recursion();
+            default:
+                throw new IllegalArgumentException("Unknown program [" + name + "]");
+        }
+    }
+
+    /**
+     * @return computer with the program loaded to RAM at
+     * {@link #CODE_ADDRESS}, ready to execute
+     */
+    public static Computer createComputer(byte[] code) {
+        Computer computer = new Computer();
+        RamModule ram = new RamModule(RAM_KB_SIZE);
+        System.arraycopy(code, 0, ram.bank, 0, code.length);
+        computer.getController().addMemoryMapping(ram, CODE_ADDRESS, RAM_KB_SIZE * 1024, 0);
+        computer.getProcessor().reset();
+        return computer;
+    }
+}
@@ -0,0 +1,78 @@
+package com.lox01.benchmark;
+
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.ram.RamModule;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of 32 bit reads and writes through memory controller at random
+ * addresses. Mappings smaller than a page share pages, and are found by scan
+ * of the mappings list.
+ *
+ * @author Dmitry
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryControllerBenchmark {
+
+    private static final int ADDRESSES = 4096;
+    private static final int FIRST_ADDRESS = 0x10000;
+
+    @Param({"1", "64", "1024"})
+    public int mappingsCount;
+
+    @Param({"4096", "256"})
+    public int mappingSize;
+
+    private MemoryController controller;
+    private int[] addresses;
+
+    @Setup
+    public void setup() {
+        controller = new MemoryController();
+        for (int i = 0; i < mappingsCount; i++) {
+            controller.addMemoryMapping(new RamModule((mappingSize + 1023) / 1024), FIRST_ADDRESS + i * mappingSize, mappingSize, 0);
+        }
+
+        Random random = new Random(1);
+        addresses = new int[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = FIRST_ADDRESS + (random.nextInt(mappingsCount * mappingSize / 4) * 4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public int read32() {
+        int sum = 0;
+        for (int address : addresses) {
+            sum += controller.getMem32(address);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void write32() {
+        for (int address : addresses) {
+            controller.setMem32(address, address);
+        }
+    }
+}
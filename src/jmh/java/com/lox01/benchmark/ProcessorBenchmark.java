@@ -0,0 +1,54 @@
+package com.lox01.benchmark;
+
+import com.lox01.Computer;
+import com.lox01.processor.ExitReason;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Instructions per second of the interpreter and of the JIT tier
+ *
+ * @author Dmitry
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    private static final int INSTRUCTIONS = 100_000;
+
+    @Param({"aluLoop", "memoryCopy", "recursion"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean jit;
+
+    private Computer computer;
+
+    @Setup
+    public void setup() throws IOException {
+        computer = BenchmarkPrograms.createComputer(BenchmarkPrograms.program(program));
+        computer.getProcessor().setJitEnabled(jit);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public ExitReason execute() {
+        return computer.execute(INSTRUCTIONS);
+    }
+}
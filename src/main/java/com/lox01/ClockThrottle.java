@@ -0,0 +1,119 @@
+package com.lox01;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the processor to a clock frequency. Guest time is the number of
+ * executed cycles divided by the frequency, and the guest is allowed to run
+ * until it gets ahead of the wall clock by {@value #MIN_SLEEP_NANOS}ns, so it
+ * sleeps at most once per millisecond instead of after every instruction.
+ * Guest that falls behind, because the host is busy, catches up at most
+ * {@value #MAX_LAG_NANOS}ns and does not run in long bursts.<br>
+ * Throttle is used by the thread that executes the computer. Wall clock and
+ * sleeping are taken from {@link Clock}, so tests may replace them.
+ *
+ * @author Dmitry
+ */
+public class ClockThrottle {
+
+    private static final long MIN_SLEEP_NANOS = 1_000_000;
+    private static final long MAX_LAG_NANOS = 100_000_000;
+
+    /**
+     * System.nanoTime and TimeUnit sleep
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    };
+
+    private final long frequency;
+    private final Clock clock;
+    private final long startCycles;
+    private long startNanos;
+
+    /**
+     * @param frequency cycles per second
+     * @param cycles current cycles count of the processor
+     */
+    public ClockThrottle(long frequency, long cycles) {
+        this(frequency, cycles, SYSTEM_CLOCK);
+    }
+
+    /**
+     * @param frequency cycles per second
+     * @param cycles current cycles count of the processor
+     * @param clock source of the wall clock and sleeping
+     */
+    public ClockThrottle(long frequency, long cycles, Clock clock) {
+        if (frequency <= 0) {
+            throw new IllegalArgumentException("Frequency should be positive, but was " + frequency);
+        }
+        this.frequency = frequency;
+        this.clock = clock;
+        this.startCycles = cycles;
+        this.startNanos = clock.nanoTime();
+    }
+
+    public long getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * @return nanoseconds the guest with the cycles count is ahead of the wall
+     * clock, negative if it is behind
+     */
+    public long getAheadNanos(long cycles) {
+        long now = clock.nanoTime();
+        long guestNanos = (long) ((cycles - startCycles) * 1e9 / frequency);
+        long ahead = guestNanos - (now - startNanos);
+        if (ahead < -MAX_LAG_NANOS) {
+            //forgets the time the guest could not catch up
+            startNanos = now - guestNanos - MAX_LAG_NANOS;
+            ahead = -MAX_LAG_NANOS;
+        }
+        return ahead;
+    }
+
+    /**
+     * @return cycles the guest may execute now before it should sleep, 0 if
+     * it should sleep now
+     */
+    public long getAllowedCycles(long cycles) {
+        long ahead = getAheadNanos(cycles);
+        if (ahead >= MIN_SLEEP_NANOS) {
+            return 0;
+        }
+        return Math.max(1, (long) ((MIN_SLEEP_NANOS - ahead) * (frequency / 1e9)));
+    }
+
+    /**
+     * Sleeps if the guest is ahead of the wall clock at least by the minimal
+     * sleep. Interrupted sleep returns early and keeps the interrupted status
+     * of the thread
+     */
+    public void pace(long cycles) {
+        long ahead = getAheadNanos(cycles);
+        if (ahead >= MIN_SLEEP_NANOS) {
+            try {
+                clock.sleep(ahead);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public interface Clock {
+
+        long nanoTime();
+
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
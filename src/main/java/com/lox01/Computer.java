@@ -1,9 +1,19 @@
 package com.lox01;
 
+import com.lox01.interrupt.InterruptController;
+import com.lox01.memmanager.MemMapping;
 import com.lox01.memmanager.MemoryController;
 import com.lox01.module.AbstractModule;
 import com.lox01.module.ModulesController;
+import com.lox01.modules.ram.PagedRamModule;
+import com.lox01.processor.ExitReason;
 import com.lox01.processor.LoxProcessor;
+import com.lox01.replay.ExecutionRecorder;
+import com.lox01.replay.ExecutionReplayer;
+import com.lox01.snapshot.ComputerSnapshot;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
 
 /**
  * @author Dmitry
@@ -12,13 +22,245 @@ public class Computer {
 
     private LoxProcessor processor;
     private MemoryController controller;
+    private InterruptController interruptController;
     private ModulesController modulesController;
+    private ExecutionRecorder recorder;
+    private ExecutionReplayer replayer;
+    private boolean executing;
+    private ClockThrottle throttle;
 
     public Computer() {
         controller = new MemoryController();
+        interruptController = new InterruptController();
         modulesController = new ModulesController(this);
         processor = new LoxProcessor();
         processor.setMemoryController(controller);
+        processor.setInterruptController(interruptController);
+    }
+
+    /**
+     * Runs the processor for at most maxInstructions instructions, so one
+     * host thread can run several computers in turns. The processor is
+     * stopped at cycles of requested module ticks, and ticks are executed
+     * between instructions. During replay the processor is stopped at
+     * recorded interrupts too, and the replay ends at the end of the log.<br>
+     * Computer with {@link #setClockFrequency(long)} sleeps whenever it gets
+     * ahead of the clock, and returns early if the thread is interrupted
+     */
+    public ExitReason execute(long maxInstructions) {
+        if (throttle == null) {
+            return execute(maxInstructions, Long.MAX_VALUE);
+        }
+
+        boolean replaying = replayer != null;
+        long executed = 0;
+        while (true) {
+            long allowedCycles = throttle.getAllowedCycles(processor.getCyclesCount());
+            if (allowedCycles == 0) {
+                throttle.pace(processor.getCyclesCount());
+                if (Thread.currentThread().isInterrupted()) {
+                    return ExitReason.BudgetExhausted;
+                }
+                continue;
+            }
+            long start = processor.getInstructionsCount();
+            ExitReason reason = execute(maxInstructions - executed, allowedCycles);
+            executed += processor.getInstructionsCount() - start;
+            if (reason != ExitReason.BudgetExhausted || executed >= maxInstructions || replaying && replayer == null) {
+                return reason;
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #execute(long)}, but stops after maxCycles cycles and
+     * never sleeps, the clock frequency is ignored. Used by callers that pace
+     * the computer themselves
+     */
+    public ExitReason execute(long maxInstructions, long maxCycles) {
+        executing = true;
+        try {
+            long executed = 0;
+            long cycles = 0;
+            while (true) {
+                long untilTick = modulesController.getCyclesUntilNextTick();
+                if (untilTick == 0) {
+                    modulesController.executeTicks();
+                    continue;
+                }
+
+                long budget = maxInstructions - executed;
+                if (replayer != null) {
+                    budget = Math.min(budget, replayer.prepareExecution());
+                }
+                long startInstructions = processor.getInstructionsCount();
+                long startCycles = processor.getCyclesCount();
+                ExitReason reason = processor.execute(budget, Math.min(maxCycles - cycles, untilTick));
+                executed += processor.getInstructionsCount() - startInstructions;
+                cycles += processor.getCyclesCount() - startCycles;
+                modulesController.executeTicks();
+                if (replayer != null && replayer.isFinished()) {
+                    stopReplay();
+                    return reason;
+                }
+                if (reason != ExitReason.BudgetExhausted || executed >= maxInstructions || cycles >= maxCycles) {
+                    return reason;
+                }
+            }
+        } finally {
+            executing = false;
+        }
+    }
+
+    /**
+     * Paces {@link #execute(long)} to the frequency in cycles per second, see
+     * {@link LoxProcessor#setCycleCosts(com.lox01.processor.CycleCosts)}, or
+     * lets it run at host speed with 0
+     */
+    public void setClockFrequency(long frequency) {
+        if (frequency < 0) {
+            throw new IllegalArgumentException("Frequency should not be negative, but was " + frequency);
+        }
+        setClockThrottle(frequency == 0 ? null : new ClockThrottle(frequency, processor.getCyclesCount()));
+    }
+
+    /**
+     * Same as {@link #setClockFrequency(long)}, but with the throttle created
+     * by the caller, for example with its own clock
+     *
+     * @param throttle throttle created for the current cycles count of the
+     * processor, or null to run at host speed
+     */
+    public void setClockThrottle(ClockThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return cycles per second, or 0 if the computer is not throttled
+     */
+    public long getClockFrequency() {
+        return throttle == null ? 0 : throttle.getFrequency();
+    }
+
+    /**
+     * @return throttle of the clock frequency, or null
+     */
+    public ClockThrottle getClockThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @return true while {@link #execute(long)} runs
+     */
+    public boolean isExecuting() {
+        return executing;
+    }
+
+    /**
+     * Starts to log device reads and interrupts, so the execution from the
+     * current state can be repeated by {@link #startReplay(InputStream)} on a
+     * computer in the same state, for example restored from snapshot taken
+     * right before this call
+     */
+    public ExecutionRecorder startRecording(OutputStream output) {
+        if (recorder != null || replayer != null) {
+            throw new IllegalStateException("Computer is already recorded or replayed");
+        }
+        recorder = new ExecutionRecorder(this, output);
+        controller.setDeviceReadInterceptor(recorder);
+        interruptController.setAcknowledgeListener(recorder);
+        return recorder;
+    }
+
+    /**
+     * Writes the end of the log at the current instruction and flushes the
+     * stream, the stream is not closed
+     */
+    public void stopRecording() {
+        if (recorder == null) {
+            throw new IllegalStateException("Computer is not recorded");
+        }
+        controller.setDeviceReadInterceptor(null);
+        interruptController.setAcknowledgeListener(null);
+        recorder.finish();
+        recorder = null;
+    }
+
+    /**
+     * Starts to repeat the recorded execution. Pending interrupts are
+     * dropped, and until the end of the log the computer takes only recorded
+     * interrupts and device values. After the end it continues normal
+     * execution, but devices may be in other state than in the record,
+     * because they were not read during replay
+     *
+     * @throws IllegalArgumentException if the log does not start at the
+     * current instruction
+     */
+    public ExecutionReplayer startReplay(InputStream input) {
+        if (recorder != null || replayer != null) {
+            throw new IllegalStateException("Computer is already recorded or replayed");
+        }
+        replayer = new ExecutionReplayer(this, input);
+        interruptController.reset();
+        interruptController.setRaisesBlocked(true);
+        controller.setDeviceReadInterceptor(replayer);
+        interruptController.setAcknowledgeListener(replayer);
+        return replayer;
+    }
+
+    public boolean isReplaying() {
+        return replayer != null;
+    }
+
+    private void stopReplay() {
+        controller.setDeviceReadInterceptor(null);
+        interruptController.setAcknowledgeListener(null);
+        interruptController.setRaisesBlocked(false);
+        replayer = null;
+    }
+
+    /**
+     * Resets the processor, drops pending interrupts and resets all modules
+     */
+    public void reset() {
+        interruptController.reset();
+        modulesController.reset();
+        processor.reset();
+    }
+
+    /**
+     * Creates a computer with the same modules and state, that continues
+     * independently. Modules decide how their state is shared:
+     * {@link PagedRamModule} shares memory pages copy on write, so forking a
+     * warm computer costs a copy of page tables. Should be called from the
+     * computer thread while it is not executed.
+     *
+     * @throws UnsupportedOperationException if some module cannot be forked,
+     * or memory is mapped by {@link MemoryController#addMemoryMapping} for a
+     * module that is not inserted to the computer
+     */
+    public Computer fork() {
+        List<AbstractModule> modules = modulesController.getModules();
+        for (MemMapping mapping : controller.getMappings()) {
+            if (!modules.contains(mapping.getModule())) {
+                throw new UnsupportedOperationException("Mapping [" + Integer.toHexString(mapping.getStartAddress())
+                        + " length " + mapping.getLength() + "] does not belong to inserted module and cannot be forked");
+            }
+        }
+
+        Computer child = new Computer();
+        child.processor.setJitEnabled(processor.isJitEnabled());
+        child.processor.setCycleCosts(processor.getCycleCosts());
+        for (AbstractModule module : modules) {
+            child.modulesController.insertForkedModule(module.fork());
+        }
+        ComputerSnapshot.copyState(interruptController::saveState, child.interruptController::loadState);
+        ComputerSnapshot.copyState(processor::saveState, child.processor::loadState);
+        modulesController.copyTickRequests(child.modulesController);
+        //pages of this computer may became shared
+        processor.resetMemoryWindows();
+        child.setClockFrequency(getClockFrequency());
+        return child;
     }
 
     public void insertModule(AbstractModule module){
@@ -29,6 +271,10 @@ public class Computer {
         return controller;
     }
 
+    public InterruptController getInterruptController() {
+        return interruptController;
+    }
+
     public ModulesController getModulesController() {
         return modulesController;
     }
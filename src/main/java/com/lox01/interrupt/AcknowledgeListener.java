@@ -0,0 +1,12 @@
+package com.lox01.interrupt;
+
+/**
+ * Receives interrupts taken by the processor, see
+ * {@link InterruptController#setAcknowledgeListener(AcknowledgeListener)}
+ *
+ * @author Dmitry
+ */
+public interface AcknowledgeListener {
+
+    public void interruptAcknowledged(int interruptNumber);
+}
@@ -0,0 +1,328 @@
+package com.lox01.interrupt;
+
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects interrupt requests of modules and selects the one the processor
+ * should handle.<br>
+ * Every interrupt number has a priority level, level 0 is the highest, inside
+ * one level lower number wins. Requests are kept in lock free pending bitmaps,
+ * one per level, so requests of different devices do not overwrite each
+ * other. Masked interrupts stay pending until they are unmasked.<br>
+ * {@link #raise(int)}, {@link #mask(int)} and {@link #unmask(int)} may be
+ * called from any thread, {@link #acknowledge()} is called by the processor
+ * thread only.
+ *
+ * @author Dmitry
+ */
+public class InterruptController {
+
+    public static final int INTERRUPTS_COUNT = 256;
+    public static final int PRIORITY_LEVELS = 4;
+    private static final int WORDS_PER_LEVEL = INTERRUPTS_COUNT / 64;
+
+    private final AtomicLongArray pending = new AtomicLongArray(PRIORITY_LEVELS * WORDS_PER_LEVEL);
+    private final AtomicLongArray masked = new AtomicLongArray(WORDS_PER_LEVEL);
+    private final byte[] priorities = new byte[INTERRUPTS_COUNT];
+    //bit per level that may have pending interrupts, so a check without pending interrupts is one read
+    private final AtomicInteger pendingLevels = new AtomicInteger();
+    //changes on every request, unmask and requestCheck, the processor reads it between slices
+    private final AtomicInteger requestsCount = new AtomicInteger();
+    private volatile int vectorTableAddress;
+    private volatile boolean raisesBlocked;
+    private AcknowledgeListener acknowledgeListener;
+
+    /**
+     * Requests the interrupt, repeated requests before acknowledge are merged.
+     * Ignored while raises are blocked
+     */
+    public void raise(int interruptNumber) {
+        if (!raisesBlocked) {
+            forceRaise(interruptNumber);
+        }
+    }
+
+    /**
+     * Requests the interrupt even if raises are blocked
+     */
+    public void forceRaise(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        int level = priorities[interruptNumber];
+        setBit(pending, level * WORDS_PER_LEVEL + (interruptNumber >>> 6), interruptNumber);
+        setBit(pendingLevels, level);
+        requestsCount.incrementAndGet();
+    }
+
+    /**
+     * Withdraws not yet acknowledged request
+     */
+    public void cancel(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        clearBit(pending, priorities[interruptNumber] * WORDS_PER_LEVEL + (interruptNumber >>> 6), interruptNumber);
+    }
+
+    public boolean isPending(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        long word = pending.get(priorities[interruptNumber] * WORDS_PER_LEVEL + (interruptNumber >>> 6));
+        return (word & (1L << interruptNumber)) != 0;
+    }
+
+    public void mask(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        setBit(masked, interruptNumber >>> 6, interruptNumber);
+    }
+
+    public void unmask(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        clearBit(masked, interruptNumber >>> 6, interruptNumber);
+        //pending request may become deliverable
+        setBit(pendingLevels, priorities[interruptNumber]);
+        requestsCount.incrementAndGet();
+    }
+
+    public boolean isMasked(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        return (masked.get(interruptNumber >>> 6) & (1L << interruptNumber)) != 0;
+    }
+
+    /**
+     * Moves the interrupt to another priority level, pending request moves
+     * with it
+     */
+    public synchronized void setPriority(int interruptNumber, int level) {
+        checkInterruptNumber(interruptNumber);
+        if (level < 0 || level >= PRIORITY_LEVELS) {
+            throw new IllegalArgumentException("Priority level should be in range [0.." + (PRIORITY_LEVELS - 1) + "], but was " + level);
+        }
+        int oldLevel = priorities[interruptNumber];
+        priorities[interruptNumber] = (byte) level;
+        if (clearBit(pending, oldLevel * WORDS_PER_LEVEL + (interruptNumber >>> 6), interruptNumber)) {
+            forceRaise(interruptNumber);
+        }
+    }
+
+    public int getPriority(int interruptNumber) {
+        checkInterruptNumber(interruptNumber);
+        return priorities[interruptNumber];
+    }
+
+    /**
+     * @return address of the table of 32 bit handler addresses, indexed by
+     * interrupt number
+     */
+    public int getVectorTableAddress() {
+        return vectorTableAddress;
+    }
+
+    public void setVectorTableAddress(int vectorTableAddress) {
+        this.vectorTableAddress = vectorTableAddress;
+    }
+
+    public boolean isRaisesBlocked() {
+        return raisesBlocked;
+    }
+
+    /**
+     * While raises are blocked requests of modules and other threads are
+     * dropped, and only {@link #forceRaise(int)} requests interrupts. Replay
+     * of recorded execution uses it to deliver recorded interrupts only
+     */
+    public void setRaisesBlocked(boolean raisesBlocked) {
+        this.raisesBlocked = raisesBlocked;
+    }
+
+    /**
+     * Sets the listener that is called by the processor thread for every
+     * acknowledged interrupt, or null
+     */
+    public void setAcknowledgeListener(AcknowledgeListener acknowledgeListener) {
+        this.acknowledgeListener = acknowledgeListener;
+    }
+
+    /**
+     * @return true if some interrupt may be pending. One volatile read, the
+     * processor calls it between instructions slices
+     */
+    public boolean hasPendingInterrupts() {
+        return pendingLevels.get() != 0;
+    }
+
+    /**
+     * @return counter of requests, unmasks and {@link #requestCheck()} calls.
+     * When it changes, the processor checks halt and deliverable interrupts.
+     * One volatile read, the only one the processor does between slices of
+     * instructions while nothing changes
+     */
+    public int getRequestsCount() {
+        return requestsCount.get();
+    }
+
+    /**
+     * Changes the requests counter without an interrupt request, used when
+     * the processor is halted or enables interrupts
+     */
+    public void requestCheck() {
+        requestsCount.incrementAndGet();
+    }
+
+    /**
+     * @return true if there is pending not masked interrupt
+     */
+    public boolean hasDeliverableInterrupt() {
+        int levels = pendingLevels.get();
+        while (levels != 0) {
+            int level = Integer.numberOfTrailingZeros(levels);
+            levels &= levels - 1;
+            for (int i = 0; i < WORDS_PER_LEVEL; i++) {
+                if ((pending.get(level * WORDS_PER_LEVEL + i) & ~masked.get(i)) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes pending not masked interrupt with the highest priority
+     *
+     * @return interrupt number, or -1 if there is no deliverable interrupt
+     */
+    public int acknowledge() {
+        int levels = pendingLevels.get();
+        while (levels != 0) {
+            int level = Integer.numberOfTrailingZeros(levels);
+            levels &= levels - 1;
+            //summary bit is cleared before the scan, so concurrent raise sets it again
+            clearBit(pendingLevels, level);
+            int interruptNumber = takeInterrupt(level);
+            if (hasPendingBits(level)) {
+                setBit(pendingLevels, level);
+            }
+            if (interruptNumber != -1) {
+                if (acknowledgeListener != null) {
+                    acknowledgeListener.interruptAcknowledged(interruptNumber);
+                }
+                return interruptNumber;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops all pending requests, masks and priorities stay
+     */
+    public void reset() {
+        for (int i = 0; i < pending.length(); i++) {
+            pending.set(i, 0);
+        }
+        pendingLevels.set(0);
+    }
+
+    /**
+     * Writes pending requests, masks, priorities and vector table address
+     */
+    public void saveState(SnapshotOutput output) throws IOException {
+        for (int i = 0; i < pending.length(); i++) {
+            output.writeLong(pending.get(i));
+        }
+        for (int i = 0; i < masked.length(); i++) {
+            output.writeLong(masked.get(i));
+        }
+        output.writeBytes(priorities);
+        output.writeInt(vectorTableAddress);
+    }
+
+    public synchronized void loadState(SnapshotInput input) {
+        for (int i = 0; i < pending.length(); i++) {
+            pending.set(i, input.readLong());
+        }
+        for (int i = 0; i < masked.length(); i++) {
+            masked.set(i, input.readLong());
+        }
+        input.readBytes(priorities);
+        vectorTableAddress = input.readInt();
+        int levels = 0;
+        for (int level = 0; level < PRIORITY_LEVELS; level++) {
+            if (hasPendingBits(level)) {
+                levels |= 1 << level;
+            }
+        }
+        pendingLevels.set(levels);
+    }
+
+    private int takeInterrupt(int level) {
+        for (int i = 0; i < WORDS_PER_LEVEL; i++) {
+            int index = level * WORDS_PER_LEVEL + i;
+            while (true) {
+                long word = pending.get(index);
+                long deliverable = word & ~masked.get(i);
+                if (deliverable == 0) {
+                    break;
+                }
+                long bit = Long.lowestOneBit(deliverable);
+                if (pending.compareAndSet(index, word, word & ~bit)) {
+                    return i * 64 + Long.numberOfTrailingZeros(bit);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean hasPendingBits(int level) {
+        for (int i = 0; i < WORDS_PER_LEVEL; i++) {
+            if (pending.get(level * WORDS_PER_LEVEL + i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void setBit(AtomicLongArray array, int index, int bitNumber) {
+        long bit = 1L << bitNumber;
+        long word;
+        do {
+            word = array.get(index);
+        } while ((word & bit) == 0 && !array.compareAndSet(index, word, word | bit));
+    }
+
+    /**
+     * @return true if the bit was set
+     */
+    private static boolean clearBit(AtomicLongArray array, int index, int bitNumber) {
+        long bit = 1L << bitNumber;
+        long word;
+        do {
+            word = array.get(index);
+            if ((word & bit) == 0) {
+                return false;
+            }
+        } while (!array.compareAndSet(index, word, word & ~bit));
+        return true;
+    }
+
+    private static void setBit(AtomicInteger value, int bitNumber) {
+        int bit = 1 << bitNumber;
+        int word;
+        do {
+            word = value.get();
+        } while ((word & bit) == 0 && !value.compareAndSet(word, word | bit));
+    }
+
+    private static void clearBit(AtomicInteger value, int bitNumber) {
+        int bit = 1 << bitNumber;
+        int word;
+        do {
+            word = value.get();
+        } while ((word & bit) != 0 && !value.compareAndSet(word, word & ~bit));
+    }
+
+    private static void checkInterruptNumber(int interruptNumber) {
+        if (interruptNumber < 0 || interruptNumber >= INTERRUPTS_COUNT) {
+            throw new IllegalArgumentException("Interrupt number should be in range [0.." + (INTERRUPTS_COUNT - 1) + "], but was " + interruptNumber);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.lox01.memmanager;
+
+/**
+ * Serves reads of memory mapped devices, the mappings that have no memory
+ * buffer for the address, see
+ * {@link MemoryController#setDeviceReadInterceptor(DeviceReadInterceptor)}
+ *
+ * @author Dmitry
+ */
+public interface DeviceReadInterceptor {
+
+    /**
+     * @param size access size in bytes: 1, 2 or 4
+     * @return value in the form module getMem methods return it. Use
+     * {@link MemMapping#read(int, int)} to read the device
+     */
+    public int read(MemMapping mapping, int localAddress, int size);
+}
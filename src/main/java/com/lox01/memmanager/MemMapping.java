@@ -1,6 +1,8 @@
 package com.lox01.memmanager;
 
 import com.lox01.module.AbstractModule;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * @author Dmitry
@@ -12,6 +14,8 @@ public class MemMapping {
     private int length;
     private int endAddress;
     private AbstractModule module;
+    private ByteBuffer memoryBuffer;
+    private ByteBuffer writableMemoryBuffer;
 
     public MemMapping(int id, int startAddress, int length, AbstractModule module) {
         this.id = id;
@@ -19,6 +23,13 @@ public class MemMapping {
         this.length = length;
         this.module = module;
         this.endAddress = startAddress + length;
+        if (module != null) {
+            ByteBuffer buffer = module.getMemoryBuffer(id);
+            if (buffer != null && buffer.capacity() >= length) {
+                memoryBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                writableMemoryBuffer = memoryBuffer.isReadOnly() ? null : memoryBuffer;
+            }
+        }
     }
 
     public int getId() {
@@ -33,6 +44,9 @@ public class MemMapping {
         return length;
     }
 
+    /**
+     * Exclusive end of the mapping
+     */
     public int getEndAddress() {
         return endAddress;
     }
@@ -41,4 +55,86 @@ public class MemMapping {
         return module;
     }
 
+    /**
+     * @return little endian view of module memory, or null if every access
+     * should go through the module methods
+     */
+    public ByteBuffer getMemoryBuffer() {
+        return memoryBuffer;
+    }
+
+    /**
+     * @return same as {@link #getMemoryBuffer()}, but null for read only
+     * memory, so writes are passed to the module
+     */
+    public ByteBuffer getWritableMemoryBuffer() {
+        return writableMemoryBuffer;
+    }
+
+    /**
+     * @return buffer with direct access to the address: memory buffer of the
+     * mapping, or buffer of the page if the module stores memory by pages.
+     * Index 0 of the buffer is at {@link #getBufferStart(int)}. Null if the
+     * access should go through the module methods
+     */
+    public ByteBuffer getBuffer(int address, boolean writable) {
+        if (memoryBuffer != null) {
+            return writable ? writableMemoryBuffer : memoryBuffer;
+        }
+        if (module == null) {
+            return null;
+        }
+
+        ByteBuffer page = module.getPageBuffer(id, toLocalAddress(address));
+        return page == null || (writable && page.isReadOnly()) ? null : page;
+    }
+
+    /**
+     * @return guest address of index 0 of {@link #getBuffer(int, boolean)}
+     */
+    public int getBufferStart(int address) {
+        if (memoryBuffer != null) {
+            return startAddress;
+        }
+        return startAddress + (toLocalAddress(address) & ~(MemoryController.PAGE_SIZE - 1));
+    }
+
+    /**
+     * @return exclusive guest address of the end of
+     * {@link #getBuffer(int, boolean)}
+     */
+    public int getBufferEnd(int address) {
+        if (memoryBuffer != null) {
+            return endAddress;
+        }
+        return Math.min(getBufferStart(address) + MemoryController.PAGE_SIZE, endAddress);
+    }
+
+    /**
+     * Reads the module through its getMem method of the access size
+     *
+     * @param size access size in bytes: 1, 2 or 4
+     */
+    public int read(int localAddress, int size) {
+        switch (size) {
+            case 1:
+                return module.getMem8(id, localAddress);
+            case 2:
+                return module.getMem16(id, localAddress);
+            case 4:
+                return module.getMem32(id, localAddress);
+            default:
+                throw new IllegalArgumentException("Access size should be 1, 2 or 4, but was " + size);
+        }
+    }
+
+    public boolean contains(int address) {
+        int localAddress = address - startAddress;
+        return localAddress >= 0 && localAddress < length;
+    }
+
+    public int toLocalAddress(int address) {
+        return address - startAddress;
+    }
+
 }
@@ -1,65 +1,463 @@
 package com.lox01.memmanager;
 
 import com.lox01.module.AbstractModule;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Decodes 31 bit guest addresses to module mappings.<br>
+ * Address space is split to 4kb pages, and every page points to the mapping
+ * that covers it. Pages are stored in two level table (512 directory entries
+ * by 1024 pages), so second level tables are allocated only for the parts of
+ * address space that are really mapped.<br>
+ * If module exposes its memory buffer, access goes directly to the buffer and
+ * module methods are called only for memory mapped devices.
+ *
  * @author Dmitry
  */
 public class MemoryController {
 
+    public static final int FINAL_ADDRESS = 0x7FFFFFFF;
+    public static final int PAGE_BITS = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int TABLE_BITS = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int DIRECTORY_SHIFT = PAGE_BITS + TABLE_BITS;
+    private static final int DIRECTORY_SIZE = (FINAL_ADDRESS >>> DIRECTORY_SHIFT) + 1;
+
+    //marks pages that are covered by more than one mapping, such pages are resolved by scanning of mappings list
+    private static final MemMapping SHARED_PAGE = new MemMapping(-1, 0, 0, null);
+
     private List<MemMapping> mappings = new ArrayList<>();
+    private MemMapping[][] pageDirectory = new MemMapping[DIRECTORY_SIZE][];
+    //bitmap of watched pages, organized in the same two levels as page table
+    private long[][] watchedPages = new long[DIRECTORY_SIZE][];
+    private int watchedPagesCount;
+    private PageWriteListener pageWriteListener;
+    private DeviceReadInterceptor deviceReadInterceptor;
 
     public boolean addMemoryMapping(AbstractModule module, int start, int length, int id) {
+        if (start < 0 || length <= 0 || ((long) start + length) > ((long) FINAL_ADDRESS + 1)) {
+            throw new IllegalArgumentException("Mapping [" + Integer.toHexString(start) + " length " + length + "] is out of address space");
+        }
+
         if (checkIfMappingIntersects(start, length)) {
             return false;
         }
 
         MemMapping memoryMapping = new MemMapping(id, start, length, module);
         mappings.add(memoryMapping);
+        rebuildPageTable();
+        notifyWrite(start, length);
         return true;
     }
 
+    /**
+     * Removes all mappings of the module
+     */
+    public void removeMemoryMappings(AbstractModule module) {
+        List<MemMapping> removed = new ArrayList<>();
+        for (MemMapping mapping : mappings) {
+            if (mapping.getModule() == module) {
+                removed.add(mapping);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        mappings.removeAll(removed);
+        rebuildPageTable();
+        for (MemMapping mapping : removed) {
+            notifyWrite(mapping.getStartAddress(), mapping.getLength());
+        }
+    }
+
+    public List<MemMapping> getMappings() {
+        return mappings;
+    }
+
     private boolean checkIfMappingIntersects(int start, int length) {
-        int end = start + length;
+        long end = (long) start + length;
         for (int i = 0; i < mappings.size(); i++) {
             MemMapping existingMapping = mappings.get(i);
-            if (testIntervalsIntersections(start, end, existingMapping.getStartAddress(), existingMapping.getEndAddress())) {
+            long existingEnd = (long) existingMapping.getStartAddress() + existingMapping.getLength();
+            if (testIntervalsIntersections(start, end, existingMapping.getStartAddress(), existingEnd)) {
                 return true;
             }
         }
         return false;
     }
 
+    private void rebuildPageTable() {
+        pageDirectory = new MemMapping[DIRECTORY_SIZE][];
+        for (MemMapping mapping : mappings) {
+            int firstPage = mapping.getStartAddress() >>> PAGE_BITS;
+            int lastPage = (mapping.getEndAddress() - 1) >>> PAGE_BITS;
+            for (int page = firstPage; page <= lastPage; page++) {
+                MemMapping[] table = pageDirectory[page >>> TABLE_BITS];
+                if (table == null) {
+                    table = new MemMapping[TABLE_SIZE];
+                    pageDirectory[page >>> TABLE_BITS] = table;
+                }
+
+                int pageIndex = page & (TABLE_SIZE - 1);
+                table[pageIndex] = table[pageIndex] == null ? mapping : SHARED_PAGE;
+            }
+        }
+    }
+
+    public void setPageWriteListener(PageWriteListener pageWriteListener) {
+        this.pageWriteListener = pageWriteListener;
+    }
+
+    /**
+     * Sets the interceptor that serves reads of memory mapped devices instead
+     * of the modules, or null. Reads of memory buffers and memory pages of
+     * modules are not intercepted
+     */
+    public void setDeviceReadInterceptor(DeviceReadInterceptor deviceReadInterceptor) {
+        this.deviceReadInterceptor = deviceReadInterceptor;
+    }
+
+    /**
+     * After this call every write to the page will be reported to page write
+     * listener. Used to invalidate decoded instructions.
+     */
+    public void watchPage(int page) {
+        long[] table = watchedPages[page >>> TABLE_BITS];
+        if (table == null) {
+            table = new long[TABLE_SIZE / 64];
+            watchedPages[page >>> TABLE_BITS] = table;
+        }
+
+        int pageIndex = page & (TABLE_SIZE - 1);
+        long mask = 1L << pageIndex;
+        if ((table[pageIndex >>> 6] & mask) == 0) {
+            table[pageIndex >>> 6] |= mask;
+            watchedPagesCount++;
+        }
+    }
+
+    public void unwatchPage(int page) {
+        long[] table = watchedPages[page >>> TABLE_BITS];
+        if (table == null) {
+            return;
+        }
+
+        int pageIndex = page & (TABLE_SIZE - 1);
+        long mask = 1L << pageIndex;
+        if ((table[pageIndex >>> 6] & mask) != 0) {
+            table[pageIndex >>> 6] &= ~mask;
+            watchedPagesCount--;
+        }
+    }
+
+    public boolean isPageWatched(int page) {
+        long[] table = watchedPages[page >>> TABLE_BITS];
+        if (table == null) {
+            return false;
+        }
+
+        int pageIndex = page & (TABLE_SIZE - 1);
+        return (table[pageIndex >>> 6] & (1L << pageIndex)) != 0;
+    }
+
+    /**
+     * Should be called by everybody who modifies guest memory bypassing
+     * setMem methods (direct buffer writes, bulk copies), so decoded
+     * instructions from the modified pages are dropped
+     */
+    public void notifyWrite(int address, int length) {
+        if (watchedPagesCount == 0 || length <= 0) {
+            return;
+        }
+
+        int page = (address & FINAL_ADDRESS) >>> PAGE_BITS;
+        int lastPage = ((address + length - 1) & FINAL_ADDRESS) >>> PAGE_BITS;
+        while (true) {
+            if (isPageWatched(page) && pageWriteListener != null) {
+                pageWriteListener.pageWritten(page);
+            }
+            if (page == lastPage) {
+                break;
+            }
+            page = (page + 1) & (FINAL_ADDRESS >>> PAGE_BITS);
+        }
+    }
+
+    /**
+     * @return mapping that contains the address, or null if address is not
+     * mapped to any module
+     */
+    public MemMapping findMapping(int address) {
+        address &= FINAL_ADDRESS;
+        MemMapping[] table = pageDirectory[address >>> DIRECTORY_SHIFT];
+        if (table == null) {
+            return null;
+        }
+
+        MemMapping mapping = table[(address >>> PAGE_BITS) & (TABLE_SIZE - 1)];
+        if (mapping == SHARED_PAGE) {
+            return findMappingInSharedPage(address);
+        }
+
+        if (mapping != null && mapping.contains(address)) {
+            return mapping;
+        }
+
+        return null;
+    }
+
+    private MemMapping findMappingInSharedPage(int address) {
+        for (int i = 0; i < mappings.size(); i++) {
+            MemMapping mapping = mappings.get(i);
+            if (mapping.contains(address)) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
     public int getMem8(int address) {
-        return 0;
+        MemMapping mapping = findMapping(address);
+        if (mapping == null) {
+            return 0;
+        }
+
+        int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+        ByteBuffer buffer = mapping.getMemoryBuffer();
+        if (buffer != null) {
+            return buffer.get(localAddress);
+        }
+
+        return readModule(mapping, address, localAddress, 1);
     }
 
     public int getMem16(int address) {
-        return 0;
+        MemMapping mapping = findMapping(address);
+        if (mapping != null) {
+            int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+            if (localAddress <= mapping.getLength() - 2) {
+                ByteBuffer buffer = mapping.getMemoryBuffer();
+                if (buffer != null) {
+                    return buffer.getShort(localAddress);
+                }
+                return readModule(mapping, address, localAddress, 2);
+            }
+        }
+
+        //access crosses mapping boundary
+        return (short) ((getMem8(address) & 0xFF) | (getMem8(address + 1) & 0xFF) << 8);
     }
 
     public int getMem32(int address) {
-        return 0;
+        MemMapping mapping = findMapping(address);
+        if (mapping != null) {
+            int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+            if (localAddress <= mapping.getLength() - 4) {
+                ByteBuffer buffer = mapping.getMemoryBuffer();
+                if (buffer != null) {
+                    return buffer.getInt(localAddress);
+                }
+                return readModule(mapping, address, localAddress, 4);
+            }
+        }
+
+        //access crosses mapping boundary
+        return (getMem8(address) & 0xFF)
+                | (getMem8(address + 1) & 0xFF) << 8
+                | (getMem8(address + 2) & 0xFF) << 16
+                | (getMem8(address + 3) & 0xFF) << 24;
     }
 
     public void setMem32(int address, int value) {
+        notifyWrite(address, 4);
+        MemMapping mapping = findMapping(address);
+        if (mapping != null) {
+            int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+            if (localAddress <= mapping.getLength() - 4) {
+                ByteBuffer buffer = mapping.getWritableMemoryBuffer();
+                if (buffer != null) {
+                    buffer.putInt(localAddress, value);
+                } else {
+                    mapping.getModule().setMem32(mapping.getId(), localAddress, value);
+                }
+                return;
+            }
+        }
 
+        setMem8(address, value);
+        setMem8(address + 1, value >> 8);
+        setMem8(address + 2, value >> 16);
+        setMem8(address + 3, value >> 24);
     }
 
     public void setMem16(int address, int value) {
+        notifyWrite(address, 2);
+        MemMapping mapping = findMapping(address);
+        if (mapping != null) {
+            int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+            if (localAddress <= mapping.getLength() - 2) {
+                ByteBuffer buffer = mapping.getWritableMemoryBuffer();
+                if (buffer != null) {
+                    buffer.putShort(localAddress, (short) value);
+                } else {
+                    mapping.getModule().setMem16(mapping.getId(), localAddress, value);
+                }
+                return;
+            }
+        }
 
+        setMem8(address, value);
+        setMem8(address + 1, value >> 8);
     }
 
     public void setMem8(int address, int value) {
+        notifyWrite(address, 1);
+        MemMapping mapping = findMapping(address);
+        if (mapping == null) {
+            return;
+        }
+
+        int localAddress = mapping.toLocalAddress(address & FINAL_ADDRESS);
+        ByteBuffer buffer = mapping.getWritableMemoryBuffer();
+        if (buffer != null) {
+            buffer.put(localAddress, (byte) value);
+        } else {
+            mapping.getModule().setMem8(mapping.getId(), localAddress, value);
+        }
+    }
+
+    /**
+     * Copies block of guest memory. Parts where both sides expose memory
+     * buffers are copied in bulk (by System.arraycopy for heap buffers), parts
+     * where only the source does are passed to
+     * {@link AbstractModule#write(int, int, ByteBuffer)} of the destination,
+     * other parts byte by byte through module methods. Unmapped source reads as 0,
+     * writes to unmapped destination are dropped. Overlapping blocks are
+     * copied correctly only if they are in the same heap buffer.
+     */
+    public void copy(int source, int destination, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+
+        notifyWrite(destination, length);
+        while (length > 0) {
+            source &= FINAL_ADDRESS;
+            destination &= FINAL_ADDRESS;
+            MemMapping sourceMapping = findMapping(source);
+            MemMapping destinationMapping = findMapping(destination);
+            ByteBuffer sourceBuffer = sourceMapping == null ? null : sourceMapping.getBuffer(source, false);
+            ByteBuffer destinationBuffer = destinationMapping == null ? null : destinationMapping.getBuffer(destination, true);
+            int chunk = 1;
+            if (sourceBuffer != null && destinationBuffer != null) {
+                int sourceStart = sourceMapping.getBufferStart(source);
+                int destinationStart = destinationMapping.getBufferStart(destination);
+                chunk = Math.min(length, Math.min(sourceMapping.getBufferEnd(source) - source, destinationMapping.getBufferEnd(destination) - destination));
+                copyBuffer(sourceBuffer, source - sourceStart, destinationBuffer, destination - destinationStart, chunk);
+            } else if (sourceBuffer != null && destinationMapping != null) {
+                int sourceStart = sourceMapping.getBufferStart(source);
+                chunk = Math.min(length, Math.min(sourceMapping.getBufferEnd(source) - source, destinationMapping.getBufferEnd(destination) - destination));
+                ByteBuffer sourceSlice = sourceBuffer.duplicate();
+                sourceSlice.limit(source - sourceStart + chunk);
+                sourceSlice.position(source - sourceStart);
+                destinationMapping.getModule().write(destinationMapping.getId(), destinationMapping.toLocalAddress(destination), sourceSlice);
+            } else {
+                setMem8(destination, getMem8(source));
+            }
+
+            source += chunk;
+            destination += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Writes remaining bytes of host buffer to guest memory, parts that are
+     * backed by memory buffers are written in bulk, other mapped parts are
+     * passed to {@link AbstractModule#write(int, int, ByteBuffer)}. Position
+     * of the source is moved to its limit
+     */
+    public void write(int address, ByteBuffer source) {
+        notifyWrite(address, source.remaining());
+        while (source.hasRemaining()) {
+            address &= FINAL_ADDRESS;
+            MemMapping mapping = findMapping(address);
+            ByteBuffer buffer = mapping == null ? null : mapping.getBuffer(address, true);
+            int chunk = 1;
+            if (buffer != null) {
+                chunk = Math.min(source.remaining(), mapping.getBufferEnd(address) - address);
+                ByteBuffer sourceSlice = source.duplicate();
+                sourceSlice.limit(source.position() + chunk);
+                ByteBuffer destinationSlice = buffer.duplicate();
+                destinationSlice.position(address - mapping.getBufferStart(address));
+                destinationSlice.put(sourceSlice);
+                source.position(source.position() + chunk);
+            } else if (mapping != null) {
+                chunk = Math.min(source.remaining(), mapping.getBufferEnd(address) - address);
+                ByteBuffer sourceSlice = source.duplicate();
+                sourceSlice.limit(source.position() + chunk);
+                mapping.getModule().write(mapping.getId(), mapping.toLocalAddress(address), sourceSlice);
+                source.position(source.position() + chunk);
+            } else {
+                source.get();
+            }
+            address += chunk;
+        }
+    }
+
+    /**
+     * Fills remaining bytes of host buffer from guest memory, parts that are
+     * backed by memory buffers are read in bulk. Position of the destination
+     * is moved to its limit
+     */
+    public void read(int address, ByteBuffer destination) {
+        while (destination.hasRemaining()) {
+            address &= FINAL_ADDRESS;
+            MemMapping mapping = findMapping(address);
+            ByteBuffer buffer = mapping == null ? null : mapping.getBuffer(address, false);
+            int chunk = 1;
+            if (buffer != null) {
+                chunk = Math.min(destination.remaining(), mapping.getBufferEnd(address) - address);
+                int position = address - mapping.getBufferStart(address);
+                ByteBuffer sourceSlice = buffer.duplicate();
+                sourceSlice.limit(position + chunk);
+                sourceSlice.position(position);
+                destination.put(sourceSlice);
+            } else {
+                destination.put((byte) getMem8(address));
+            }
+            address += chunk;
+        }
+    }
+
+    private int readModule(MemMapping mapping, int address, int localAddress, int size) {
+        DeviceReadInterceptor interceptor = deviceReadInterceptor;
+        if (interceptor == null || mapping.getBuffer(address & FINAL_ADDRESS, false) != null) {
+            return mapping.read(localAddress, size);
+        }
+        return interceptor.read(mapping, localAddress, size);
+    }
+
+    private static void copyBuffer(ByteBuffer source, int sourcePosition, ByteBuffer destination, int destinationPosition, int length) {
+        if (source.hasArray() && destination.hasArray()) {
+            System.arraycopy(source.array(), source.arrayOffset() + sourcePosition,
+                    destination.array(), destination.arrayOffset() + destinationPosition, length);
+            return;
+        }
 
+        ByteBuffer sourceSlice = source.duplicate();
+        sourceSlice.limit(sourcePosition + length);
+        sourceSlice.position(sourcePosition);
+        ByteBuffer destinationSlice = destination.duplicate();
+        destinationSlice.position(destinationPosition);
+        destinationSlice.put(sourceSlice);
     }
 
-    private boolean testIntervalsIntersections(int x1, int x2, int y1, int y2) {
-        return (x1 >= y1 && x1 <= y2)
-                || (x2 >= y1 && x2 <= y2)
-                || (y1 >= x1 && y1 <= x2)
-                || (y2 >= x1 && y2 <= x2);
+    private boolean testIntervalsIntersections(long x1, long x2, long y1, long y2) {
+        return x1 < y2 && y1 < x2;
     }
 }
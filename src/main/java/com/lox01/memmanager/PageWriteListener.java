@@ -0,0 +1,12 @@
+package com.lox01.memmanager;
+
+/**
+ * Receives notifications about writes to the pages that were registered with
+ * {@link MemoryController#watchPage(int)}
+ *
+ * @author Dmitry
+ */
+public interface PageWriteListener {
+
+    public void pageWritten(int page);
+}
@@ -1,17 +1,176 @@
 package com.lox01.module;
 
+import com.lox01.Computer;
+import com.lox01.interrupt.InterruptController;
 import com.lox01.memmanager.MemoryController;
+import com.lox01.snapshot.ComputerSnapshot;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
+ * Base class of everything that is inserted to the computer.<br>
+ * Lifecycle: mappings declared by {@link #addMapping(int, int, int)} are
+ * registered in the memory controller when the module is inserted, then
+ * {@link #init(MemoryController)} and {@link #reset()} are called.
+ * {@link #reset()} is called again on every reset of the computer, and
+ * {@link #tick(long)} is called after the number of processor cycles
+ * requested by {@link #requestTick(long)}.
+ *
  * @author Dmitry
  */
 public abstract class AbstractModule {
 
     private MemoryController memoryManager;
+    private Computer computer;
+    private final List<Mapping> mappings = new ArrayList<>();
 
     public void init(MemoryController memoryManager) {
     }
 
+    /**
+     * Returns the module to power on state
+     */
+    public void reset() {
+    }
+
+    /**
+     * Called by the computer thread when requested number of cycles passed
+     *
+     * @param cycle current cycle of the processor
+     */
+    public void tick(long cycle) {
+    }
+
+    /**
+     * Writes state of the module to the snapshot. Stateless modules do not
+     * override it
+     */
+    public void saveState(SnapshotOutput output) throws IOException {
+    }
+
+    /**
+     * Reads state written by {@link #saveState(SnapshotOutput)}. Called
+     * instead of {@link #reset()} when the computer is restored from snapshot
+     */
+    public void loadState(SnapshotInput input) {
+    }
+
+    /**
+     * Declares mapping of the module to the address space, should be called
+     * before the module is inserted
+     */
+    protected void addMapping(int id, int address, int length) {
+        if (computer != null) {
+            throw new IllegalStateException("Mappings should be declared before the module is inserted");
+        }
+        mappings.add(new Mapping(id, address, length));
+    }
+
+    List<Mapping> getMappings() {
+        return Collections.unmodifiableList(mappings);
+    }
+
+    void attach(Computer computer) {
+        if (this.computer != null) {
+            throw new IllegalStateException("Module is already inserted");
+        }
+        this.computer = computer;
+        this.memoryManager = computer.getController();
+    }
+
+    void detach() {
+        computer = null;
+        memoryManager = null;
+    }
+
+    /**
+     * @return computer the module is inserted to, or null
+     */
+    protected Computer getComputer() {
+        return computer;
+    }
+
+    /**
+     * Asks for one call of {@link #tick(long)} after the number of cycles.
+     * Periodic devices request the next tick from tick method. Must be called
+     * from the computer thread. Processor cycles are updated when
+     * {@link Computer#execute(long)} stops the processor, so requests from
+     * memory access callbacks are counted from the last stop
+     */
+    protected void requestTick(long cycles) {
+        if (computer == null) {
+            throw new IllegalStateException("Module is not inserted");
+        }
+        computer.getModulesController().requestTick(this, cycles);
+    }
+
+    protected void raiseInterrupt(int interruptNumber) {
+        InterruptController interruptController = computer.getInterruptController();
+        interruptController.raise(interruptNumber);
+    }
+
+    /**
+     * Modules that are backed by plain memory (RAM, ROM) can expose the memory
+     * here, then the memory controller and processor read and write it
+     * directly instead of calling getMem/setMem methods. Absolute position 0 of
+     * the buffer should correspond to local address 0 of the mapping.<br>
+     * Memory mapped devices that should react on every access must return null.
+     */
+    public ByteBuffer getMemoryBuffer(int id) {
+        return null;
+    }
+
+    /**
+     * Modules that store memory by pages return here buffer of the 4kb page
+     * that contains the local address, when {@link #getMemoryBuffer(int)}
+     * returns null. Index 0 of the buffer corresponds to the start of the
+     * page. Writes to read only page buffer go through setMem methods, so the
+     * module may copy shared page first.
+     */
+    public ByteBuffer getPageBuffer(int id, int address) {
+        return null;
+    }
+
+    /**
+     * Creates the module for a computer forked by {@link Computer#fork()},
+     * with the same configuration and state. Module is inserted to the forked
+     * computer without reset.
+     *
+     * @throws UnsupportedOperationException if the module cannot be forked
+     */
+    public AbstractModule fork() {
+        throw new UnsupportedOperationException("Module " + getClass().getName() + " cannot be forked");
+    }
+
+    /**
+     * Copies state of the source to the target through
+     * {@link #saveState(SnapshotOutput)} and {@link #loadState(SnapshotInput)}
+     *
+     * @return target
+     */
+    protected static <T extends AbstractModule> T copyState(AbstractModule source, T target) {
+        ComputerSnapshot.copyState(source::saveState, target::loadState);
+        return target;
+    }
+
+    /**
+     * Writes remaining bytes of the source from the local address, used by
+     * bulk transfers of the memory controller when the mapping has no
+     * writable buffer. Calls setMem8 for every byte, devices may override it
+     * to handle the block at once. Position of the source is moved to its
+     * limit
+     */
+    public void write(int id, int address, ByteBuffer source) {
+        while (source.hasRemaining()) {
+            setMem8(id, address++, source.get());
+        }
+    }
+
     public abstract int getMem8(int id, int address);
 
     public abstract int getMem16(int id, int address);
@@ -24,4 +183,16 @@ public abstract class AbstractModule {
 
     public abstract void setMem32(int id, int address, int value);
 
+    static class Mapping {
+
+        final int id;
+        final int address;
+        final int length;
+
+        Mapping(int id, int address, int length) {
+            this.id = id;
+            this.address = address;
+            this.length = length;
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package com.lox01.module;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Device controlled through a window of 32 bit registers. Subclasses define
+ * callbacks of every register instead of decoding addresses in
+ * getMem/setMem.<br>
+ * 8 and 16 bit reads return part of the register. 8 and 16 bit writes read
+ * the register, replace the part and write it back, so registers with side
+ * effects on read should be accessed by 32 bit instructions. Undefined
+ * registers read as 0 and ignore writes.
+ *
+ * @author Dmitry
+ */
+public abstract class MmioDevice extends AbstractModule {
+
+    private final int address;
+    private final IntSupplier[] readers;
+    private final IntConsumer[] writers;
+
+    /**
+     * @param address address of register 0 in the address space
+     */
+    protected MmioDevice(int address, int registersCount) {
+        this.address = address;
+        readers = new IntSupplier[registersCount];
+        writers = new IntConsumer[registersCount];
+        addMapping(0, address, registersCount * 4);
+    }
+
+    /**
+     * @param reader callback of reads, null if register is write only
+     * @param writer callback of writes, null if register is read only
+     */
+    protected void defineRegister(int index, IntSupplier reader, IntConsumer writer) {
+        readers[index] = reader;
+        writers[index] = writer;
+    }
+
+    /**
+     * @return address of register 0
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    public int getRegistersCount() {
+        return readers.length;
+    }
+
+    public int readRegister(int index) {
+        IntSupplier reader = readers[index];
+        return reader == null ? 0 : reader.getAsInt();
+    }
+
+    public void writeRegister(int index, int value) {
+        IntConsumer writer = writers[index];
+        if (writer != null) {
+            writer.accept(value);
+        }
+    }
+
+    @Override
+    public int getMem8(int id, int address) {
+        return (byte) (readRegister(address >>> 2) >> ((address & 0b11) * 8));
+    }
+
+    @Override
+    public int getMem16(int id, int address) {
+        if ((address & 0b11) == 3) {
+            return (short) ((getMem8(id, address) & 0xFF) | (getMem8(id, address + 1) << 8));
+        }
+        return (short) (readRegister(address >>> 2) >> ((address & 0b11) * 8));
+    }
+
+    @Override
+    public int getMem32(int id, int address) {
+        if ((address & 0b11) != 0) {
+            return (getMem16(id, address) & 0xFFFF) | (getMem16(id, address + 2) << 16);
+        }
+        return readRegister(address >>> 2);
+    }
+
+    @Override
+    public void setMem8(int id, int address, int value) {
+        writePart(address, value, 0xFF);
+    }
+
+    @Override
+    public void setMem16(int id, int address, int value) {
+        if ((address & 0b11) == 3) {
+            setMem8(id, address, value);
+            setMem8(id, address + 1, value >> 8);
+            return;
+        }
+        writePart(address, value, 0xFFFF);
+    }
+
+    @Override
+    public void setMem32(int id, int address, int value) {
+        if ((address & 0b11) != 0) {
+            setMem16(id, address, value);
+            setMem16(id, address + 2, value >> 16);
+            return;
+        }
+        writeRegister(address >>> 2, value);
+    }
+
+    private void writePart(int address, int value, int mask) {
+        int index = address >>> 2;
+        if (writers[index] == null) {
+            return;
+        }
+        int shift = (address & 0b11) * 8;
+        int register = readRegister(index);
+        writeRegister(index, (register & ~(mask << shift)) | ((value & mask) << shift));
+    }
+}
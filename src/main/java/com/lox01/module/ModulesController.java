@@ -1,22 +1,189 @@
 package com.lox01.module;
 
 import com.lox01.Computer;
+import com.lox01.memmanager.MemoryController;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
+ * Inserts modules to the computer, and calls their ticks. Ticks are counted in
+ * processor cycles, the computer runs the processor up to the next requested
+ * tick, so devices do not poll and the instructions loop does not check them.
+ *
  * @author Dmitry
  */
 public class ModulesController {
 
     private List<AbstractModule> modules = new ArrayList<>();
     private Computer computer;
+    private PriorityQueue<TickRequest> tickRequests = new PriorityQueue<>();
+    private long tickRequestsCounter;
 
     public ModulesController(Computer computer) {
         this.computer = computer;
     }
 
     public void insertModule(AbstractModule module) {
+        insertForkedModule(module);
+        module.reset();
+    }
+
+    /**
+     * Inserts module created by {@link AbstractModule#fork()}. Module is not
+     * reset, so it keeps the state of the original
+     *
+     * @throws IllegalStateException if a mapping of the module intersects
+     * already mapped memory, the module is not inserted then
+     */
+    public void insertForkedModule(AbstractModule module) {
+        module.attach(computer);
+        MemoryController controller = computer.getController();
+        for (AbstractModule.Mapping mapping : module.getMappings()) {
+            if (!controller.addMemoryMapping(module, mapping.address, mapping.length, mapping.id)) {
+                controller.removeMemoryMappings(module);
+                module.detach();
+                throw new IllegalStateException("Mapping of module " + module.getClass().getName() + " ["
+                        + Integer.toHexString(mapping.address) + " length " + mapping.length + "] intersects mapped memory");
+            }
+        }
         modules.add(module);
+        module.init(computer.getController());
+    }
+
+    /**
+     * Requests the same ticks for the modules of forked computer, modules are
+     * matched by their order
+     */
+    public void copyTickRequests(ModulesController target) {
+        List<TickRequest> requests = new ArrayList<>(tickRequests);
+        Collections.sort(requests);
+        long cycle = getCycle();
+        for (TickRequest request : requests) {
+            AbstractModule module = target.modules.get(modules.indexOf(request.module));
+            target.tickRequests.add(new TickRequest(target.getCycle() + Math.max(0, request.cycle - cycle), target.tickRequestsCounter++, module));
+        }
+    }
+
+    public List<AbstractModule> getModules() {
+        return modules;
+    }
+
+    /**
+     * Resets all modules, requested ticks are dropped
+     */
+    public void reset() {
+        tickRequests.clear();
+        for (AbstractModule module : modules) {
+            module.reset();
+        }
+    }
+
+    void requestTick(AbstractModule module, long cycles) {
+        if (cycles <= 0) {
+            throw new IllegalArgumentException("Tick should be requested at least 1 cycle ahead, but was " + cycles);
+        }
+        tickRequests.add(new TickRequest(getCycle() + cycles, tickRequestsCounter++, module));
+    }
+
+    /**
+     * @return cycles until the next requested tick, 0 if some tick is due, or
+     * Long.MAX_VALUE if there are no requests
+     */
+    public long getCyclesUntilNextTick() {
+        TickRequest next = tickRequests.peek();
+        if (next == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, next.cycle - getCycle());
+    }
+
+    /**
+     * Calls ticks that are due, in order of requested cycles
+     */
+    public void executeTicks() {
+        long cycle = getCycle();
+        TickRequest next;
+        while ((next = tickRequests.peek()) != null && next.cycle <= cycle) {
+            tickRequests.poll();
+            next.module.tick(cycle);
+        }
+    }
+
+    /**
+     * Writes state of every module and requested ticks. Ticks are saved
+     * relative to the current cycle
+     */
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writeInt(modules.size());
+        for (AbstractModule module : modules) {
+            output.writeString(module.getClass().getName());
+            module.saveState(output);
+        }
+
+        List<TickRequest> requests = new ArrayList<>(tickRequests);
+        Collections.sort(requests);
+        output.writeInt(requests.size());
+        long cycle = getCycle();
+        for (TickRequest request : requests) {
+            output.writeInt(modules.indexOf(request.module));
+            output.writeLong(Math.max(0, request.cycle - cycle));
+        }
+    }
+
+    /**
+     * Reads state written by {@link #saveState(SnapshotOutput)}, the computer
+     * should have the same modules inserted in the same order. The processor
+     * state should be loaded before
+     */
+    public void loadState(SnapshotInput input) {
+        int count = input.readInt();
+        if (count != modules.size()) {
+            throw new IllegalArgumentException("Snapshot has " + count + " modules, but computer has " + modules.size());
+        }
+        for (AbstractModule module : modules) {
+            String className = input.readString();
+            if (!className.equals(module.getClass().getName())) {
+                throw new IllegalArgumentException("Snapshot has module " + className + " in place of " + module.getClass().getName());
+            }
+            module.loadState(input);
+        }
+
+        tickRequests.clear();
+        int requestsCount = input.readInt();
+        long cycle = getCycle();
+        for (int i = 0; i < requestsCount; i++) {
+            AbstractModule module = modules.get(input.readInt());
+            tickRequests.add(new TickRequest(cycle + input.readLong(), tickRequestsCounter++, module));
+        }
+    }
+
+    private long getCycle() {
+        return computer.getProcessor().getCyclesCount();
+    }
+
+    private static class TickRequest implements Comparable<TickRequest> {
+
+        private final long cycle;
+        private final long order;
+        private final AbstractModule module;
+
+        public TickRequest(long cycle, long order, AbstractModule module) {
+            this.cycle = cycle;
+            this.order = order;
+            this.module = module;
+        }
+
+        @Override
+        public int compareTo(TickRequest other) {
+            if (cycle != other.cycle) {
+                return Long.compare(cycle, other.cycle);
+            }
+            return Long.compare(order, other.order);
+        }
     }
 }
@@ -0,0 +1,158 @@
+package com.lox01.modules.dma;
+
+import com.lox01.module.MmioDevice;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+
+/**
+ * Copies blocks of memory without the processor. Guest writes source,
+ * destination and length, then starts the transfer by the control register.
+ * The transfer takes {@link #getTransferCycles(int)} cycles, memory is copied
+ * when it completes, then busy bit is cleared and optional interrupt is
+ * raised.<br>
+ * Registers:<br>
+ * 0 - source address<br>
+ * 1 - destination address<br>
+ * 2 - length in bytes<br>
+ * 3 - control: bit 0 - write 1 to start, reads 1 while busy; bit 1 - raise
+ * interrupt on completion<br>
+ * 4 - interrupt number
+ *
+ * @author Dmitry
+ */
+public class DmaController extends MmioDevice {
+
+    public static final int REGISTER_SOURCE = 0;
+    public static final int REGISTER_DESTINATION = 1;
+    public static final int REGISTER_LENGTH = 2;
+    public static final int REGISTER_CONTROL = 3;
+    public static final int REGISTER_INTERRUPT = 4;
+
+    public static final int CONTROL_START = 0b01;
+    public static final int CONTROL_INTERRUPT = 0b10;
+
+    public static final int SETUP_CYCLES = 8;
+    public static final int BYTES_PER_CYCLE = 16;
+
+    private int source;
+    private int destination;
+    private int length;
+    private boolean interruptEnabled;
+    private int interruptNumber;
+    private boolean busy;
+    //values latched when transfer starts, so guest may prepare the next one
+    private int transferSource;
+    private int transferDestination;
+    private int transferLength;
+    private long transfersCount;
+    private long bytesCount;
+
+    public DmaController(int address) {
+        super(address, 5);
+        defineRegister(REGISTER_SOURCE, () -> source, value -> source = value);
+        defineRegister(REGISTER_DESTINATION, () -> destination, value -> destination = value);
+        defineRegister(REGISTER_LENGTH, () -> length, value -> length = value);
+        defineRegister(REGISTER_CONTROL, this::readControl, this::writeControl);
+        defineRegister(REGISTER_INTERRUPT, () -> interruptNumber, value -> interruptNumber = value & 0xFF);
+    }
+
+    @Override
+    public void reset() {
+        source = 0;
+        destination = 0;
+        length = 0;
+        interruptEnabled = false;
+        interruptNumber = 0;
+        busy = false;
+    }
+
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writeInt(source);
+        output.writeInt(destination);
+        output.writeInt(length);
+        output.writeBoolean(interruptEnabled);
+        output.writeInt(interruptNumber);
+        output.writeBoolean(busy);
+        output.writeInt(transferSource);
+        output.writeInt(transferDestination);
+        output.writeInt(transferLength);
+        output.writeLong(transfersCount);
+        output.writeLong(bytesCount);
+    }
+
+    @Override
+    public void loadState(SnapshotInput input) {
+        source = input.readInt();
+        destination = input.readInt();
+        length = input.readInt();
+        interruptEnabled = input.readBoolean();
+        interruptNumber = input.readInt();
+        busy = input.readBoolean();
+        transferSource = input.readInt();
+        transferDestination = input.readInt();
+        transferLength = input.readInt();
+        transfersCount = input.readLong();
+        bytesCount = input.readLong();
+    }
+
+    @Override
+    public DmaController fork() {
+        return copyState(this, new DmaController(getAddress()));
+    }
+
+    private int readControl() {
+        return (busy ? CONTROL_START : 0) | (interruptEnabled ? CONTROL_INTERRUPT : 0);
+    }
+
+    private void writeControl(int value) {
+        interruptEnabled = (value & CONTROL_INTERRUPT) != 0;
+        if ((value & CONTROL_START) == 0 || busy) {
+            return;
+        }
+
+        transferSource = source;
+        transferDestination = destination;
+        transferLength = length;
+        busy = true;
+        requestTick(getTransferCycles(transferLength));
+    }
+
+    @Override
+    public void tick(long cycle) {
+        if (!busy) {
+            return;
+        }
+
+        if (transferLength > 0) {
+            getComputer().getController().copy(transferSource, transferDestination, transferLength);
+            bytesCount += transferLength;
+        }
+        transfersCount++;
+        busy = false;
+        if (interruptEnabled) {
+            raiseInterrupt(interruptNumber);
+        }
+    }
+
+    /**
+     * @return cycles charged for the transfer, negative length is treated as
+     * empty transfer
+     */
+    public static long getTransferCycles(int length) {
+        return SETUP_CYCLES + (Math.max(0, length) + BYTES_PER_CYCLE - 1) / BYTES_PER_CYCLE;
+    }
+
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public long getTransfersCount() {
+        return transfersCount;
+    }
+
+    public long getBytesCount() {
+        return bytesCount;
+    }
+}
@@ -0,0 +1,76 @@
+package com.lox01.modules.ram;
+
+import com.lox01.module.AbstractModule;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RAM that is stored in a ByteBuffer. Buffer can be heap array, direct
+ * memory, or file mapped to memory. Words are stored in little endian order.
+ * 8 and 16 bit reads return sign extended values.
+ *
+ * @author Dmitry
+ */
+public abstract class BufferRamModule extends AbstractModule {
+
+    protected ByteBuffer memory;
+
+    protected BufferRamModule(ByteBuffer memory) {
+        this.memory = memory.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getSize() {
+        return memory.capacity();
+    }
+
+    @Override
+    public ByteBuffer getMemoryBuffer(int id) {
+        return memory;
+    }
+
+    /**
+     * Writes non zero pages of the memory
+     */
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writeMemory(memory);
+    }
+
+    @Override
+    public void loadState(SnapshotInput input) {
+        input.readMemory(memory);
+    }
+
+    @Override
+    public int getMem8(int id, int address) {
+        return memory.get(address);
+    }
+
+    @Override
+    public int getMem16(int id, int address) {
+        return memory.getShort(address);
+    }
+
+    @Override
+    public int getMem32(int id, int address) {
+        return memory.getInt(address);
+    }
+
+    @Override
+    public void setMem8(int id, int address, int value) {
+        memory.put(address, (byte) value);
+    }
+
+    @Override
+    public void setMem16(int id, int address, int value) {
+        memory.putShort(address, (short) value);
+    }
+
+    @Override
+    public void setMem32(int id, int address, int value) {
+        memory.putInt(address, value);
+    }
+}
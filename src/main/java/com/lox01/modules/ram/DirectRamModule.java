@@ -0,0 +1,16 @@
+package com.lox01.modules.ram;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RAM allocated outside of java heap, so big guest memory does not increase
+ * GC pauses
+ *
+ * @author Dmitry
+ */
+public class DirectRamModule extends BufferRamModule {
+
+    public DirectRamModule(int kbSize) {
+        super(ByteBuffer.allocateDirect(kbSize * 1024));
+    }
+}
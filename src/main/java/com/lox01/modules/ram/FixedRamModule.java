@@ -1,23 +1,29 @@
 package com.lox01.modules.ram;
 
-import com.lox01.memmanager.MemoryController;
-
 /**
+ * RAM that is mapped to the fixed address when it is inserted
+ *
  * @author Dmitry
  */
 public class FixedRamModule extends RamModule {
 
-    private int position;
+    private final int position;
 
     public FixedRamModule(int kbSize, int position) {
         super(kbSize);
         this.position = position;
+        addMapping(0, position, bank.length);
     }
 
+    /**
+     * Forked module is a full copy of the bank, {@link PagedRamModule} shares
+     * pages instead
+     */
     @Override
-    public void init(MemoryController memoryManager) {
-        super.init(memoryManager);
-        memoryManager.addMemoryMapping(this, position, bank.length, 0);
+    public FixedRamModule fork() {
+        FixedRamModule module = new FixedRamModule(bank.length / 1024, position);
+        System.arraycopy(bank, 0, module.bank, 0, bank.length);
+        return module;
     }
 
 }
@@ -0,0 +1,62 @@
+package com.lox01.modules.ram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RAM backed by file mapped to memory. File is created or extended if it is
+ * smaller than requested size.<br>
+ * In persistent mode guest writes go to the file, so RAM image survives
+ * between runs. In private mode file is used as initial image only, and
+ * writes stay in the process (copy on write pages of the operating system),
+ * so several computers can start from one image.
+ *
+ * @author Dmitry
+ */
+public class MappedRamModule extends BufferRamModule implements Closeable {
+
+    private FileChannel channel;
+    private boolean persistent;
+
+    public MappedRamModule(Path file, int kbSize, boolean persistent) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), kbSize, persistent);
+    }
+
+    private MappedRamModule(FileChannel channel, int kbSize, boolean persistent) throws IOException {
+        super(map(channel, kbSize, persistent));
+        this.channel = channel;
+        this.persistent = persistent;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, int kbSize, boolean persistent) throws IOException {
+        try {
+            return channel.map(persistent ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.PRIVATE, 0, kbSize * 1024L);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Writes modified pages to the file. Does nothing in private mode.
+     */
+    public void flush() {
+        if (persistent) {
+            ((MappedByteBuffer) memory).force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
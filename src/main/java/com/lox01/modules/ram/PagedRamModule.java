@@ -0,0 +1,159 @@
+package com.lox01.modules.ram;
+
+import com.lox01.memmanager.MemoryController;
+import com.lox01.module.AbstractModule;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * RAM stored by 4kb pages, that are shared copy on write between forked
+ * computers. Fork marks all pages of the module as shared and gives the copy
+ * of the page table to the new module, so it costs 4 bytes per page. The
+ * first write to shared page copies it.<br>
+ * Shared pages are exposed as read only page buffers, so the processor reads
+ * them directly and writes go to setMem methods. Pages that were never
+ * written are not allocated. Shared pages are never modified, so forked
+ * computers may run in different threads.
+ *
+ * @author Dmitry
+ */
+public class PagedRamModule extends AbstractModule {
+
+    private static final int PAGE_BITS = MemoryController.PAGE_BITS;
+    private static final int PAGE_SIZE = MemoryController.PAGE_SIZE;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final ByteBuffer ZERO_PAGE = ByteBuffer.allocate(PAGE_SIZE).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+    private final int position;
+    private final int size;
+    //null - zero page, read only buffer - page shared with other modules
+    private ByteBuffer[] pages;
+
+    public PagedRamModule(int kbSize, int position) {
+        this(kbSize * 1024, position, new ByteBuffer[(kbSize * 1024 + PAGE_SIZE - 1) / PAGE_SIZE]);
+    }
+
+    private PagedRamModule(int size, int position, ByteBuffer[] pages) {
+        this.size = size;
+        this.position = position;
+        this.pages = pages;
+        addMapping(0, position, size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return number of pages owned by this module, that are not shared and
+     * not zero
+     */
+    public int getPrivatePagesCount() {
+        int count = 0;
+        for (ByteBuffer page : pages) {
+            if (page != null && !page.isReadOnly()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Shares all pages with the new module. Should be called when neither
+     * module is executed
+     */
+    @Override
+    public PagedRamModule fork() {
+        for (int i = 0; i < pages.length; i++) {
+            ByteBuffer page = pages[i];
+            if (page != null && !page.isReadOnly()) {
+                pages[i] = page.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return new PagedRamModule(size, position, pages.clone());
+    }
+
+    @Override
+    public ByteBuffer getPageBuffer(int id, int address) {
+        ByteBuffer page = pages[address >>> PAGE_BITS];
+        return page == null ? ZERO_PAGE : page;
+    }
+
+    private ByteBuffer writablePage(int pageIndex) {
+        ByteBuffer page = pages[pageIndex];
+        if (page != null && !page.isReadOnly()) {
+            return page;
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (page != null) {
+            ByteBuffer source = page.duplicate();
+            source.clear();
+            copy.put(source);
+        }
+        pages[pageIndex] = copy;
+        return copy;
+    }
+
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writePages(pages, size);
+    }
+
+    @Override
+    public void loadState(SnapshotInput input) {
+        pages = input.readPages(size);
+    }
+
+    @Override
+    public int getMem8(int id, int address) {
+        ByteBuffer page = pages[address >>> PAGE_BITS];
+        return page == null ? 0 : page.get(address & PAGE_MASK);
+    }
+
+    @Override
+    public int getMem16(int id, int address) {
+        if ((address & PAGE_MASK) > PAGE_SIZE - 2) {
+            return (short) ((getMem8(id, address) & 0xFF) | getMem8(id, address + 1) << 8);
+        }
+        ByteBuffer page = pages[address >>> PAGE_BITS];
+        return page == null ? 0 : page.getShort(address & PAGE_MASK);
+    }
+
+    @Override
+    public int getMem32(int id, int address) {
+        if ((address & PAGE_MASK) > PAGE_SIZE - 4) {
+            return (getMem16(id, address) & 0xFFFF) | getMem16(id, address + 2) << 16;
+        }
+        ByteBuffer page = pages[address >>> PAGE_BITS];
+        return page == null ? 0 : page.getInt(address & PAGE_MASK);
+    }
+
+    @Override
+    public void setMem8(int id, int address, int value) {
+        writablePage(address >>> PAGE_BITS).put(address & PAGE_MASK, (byte) value);
+    }
+
+    @Override
+    public void setMem16(int id, int address, int value) {
+        if ((address & PAGE_MASK) > PAGE_SIZE - 2) {
+            setMem8(id, address, value);
+            setMem8(id, address + 1, value >> 8);
+            return;
+        }
+        writablePage(address >>> PAGE_BITS).putShort(address & PAGE_MASK, (short) value);
+    }
+
+    @Override
+    public void setMem32(int id, int address, int value) {
+        if ((address & PAGE_MASK) > PAGE_SIZE - 4) {
+            setMem16(id, address, value);
+            setMem16(id, address + 2, value >> 16);
+            return;
+        }
+        writablePage(address >>> PAGE_BITS).putInt(address & PAGE_MASK, value);
+    }
+}
@@ -0,0 +1,244 @@
+package com.lox01.modules.storage;
+
+import com.lox01.module.MmioDevice;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk controller that transfers sectors between {@link DiskImage} and guest
+ * memory.<br>
+ * Command is executed asynchronously: disk image is accessed by an I/O
+ * thread while the guest continues, and the command completes after
+ * {@link #getCommandCycles(int)} cycles. The completion waits for the I/O
+ * thread if it is late, so the guest always sees the same timing. Data of
+ * write commands is taken from guest memory when the command starts, data of
+ * read commands is written to guest memory when it completes.<br>
+ * Registers:<br>
+ * 0 - first sector<br>
+ * 1 - guest memory address<br>
+ * 2 - sectors count, at most {@link #MAX_SECTORS}, larger commands fail<br>
+ * 3 - command: 1 - read, 2 - write, 3 - flush; bit 8 - raise interrupt on
+ * completion. Reads the last command<br>
+ * 4 - status: bit 0 - busy, bit 1 - last command failed<br>
+ * 5 - interrupt number<br>
+ * 6 - disk size in sectors, read only
+ *
+ * @author Dmitry
+ */
+public class BlockDevice extends MmioDevice {
+
+    public static final int REGISTER_SECTOR = 0;
+    public static final int REGISTER_ADDRESS = 1;
+    public static final int REGISTER_COUNT = 2;
+    public static final int REGISTER_COMMAND = 3;
+    public static final int REGISTER_STATUS = 4;
+    public static final int REGISTER_INTERRUPT = 5;
+    public static final int REGISTER_SECTORS = 6;
+
+    public static final int COMMAND_READ = 1;
+    public static final int COMMAND_WRITE = 2;
+    public static final int COMMAND_FLUSH = 3;
+    public static final int COMMAND_INTERRUPT = 0x100;
+
+    public static final int STATUS_BUSY = 0b01;
+    public static final int STATUS_ERROR = 0b10;
+
+    //sectors of one command, bounds the buffer the guest can make the device allocate
+    public static final int MAX_SECTORS = 2048;
+
+    public static final int SETUP_CYCLES = 200;
+    public static final int CYCLES_PER_SECTOR = 32;
+
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "block-device-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DiskImage disk;
+    private int sector;
+    private int address;
+    private int count;
+    private int command;
+    private int status;
+    private int interruptNumber;
+    //command in progress
+    private CompletableFuture<Void> pendingIo;
+    private ByteBuffer pendingBuffer;
+    private int pendingAddress;
+
+    public BlockDevice(int address, DiskImage disk) {
+        super(address, 7);
+        this.disk = disk;
+        defineRegister(REGISTER_SECTOR, () -> sector, value -> sector = value);
+        defineRegister(REGISTER_ADDRESS, () -> this.address, value -> this.address = value);
+        defineRegister(REGISTER_COUNT, () -> count, value -> count = value);
+        defineRegister(REGISTER_COMMAND, () -> command, this::startCommand);
+        defineRegister(REGISTER_STATUS, () -> status, null);
+        defineRegister(REGISTER_INTERRUPT, () -> interruptNumber, value -> interruptNumber = value & 0xFF);
+        defineRegister(REGISTER_SECTORS, disk::getSectorsCount, null);
+    }
+
+    public DiskImage getDisk() {
+        return disk;
+    }
+
+    @Override
+    public void reset() {
+        waitPendingIo();
+        pendingIo = null;
+        pendingBuffer = null;
+        sector = 0;
+        address = 0;
+        count = 0;
+        command = 0;
+        status = 0;
+        interruptNumber = 0;
+    }
+
+    /**
+     * Forked device works with its own overlay of the same base image
+     */
+    @Override
+    public BlockDevice fork() {
+        return copyState(this, new BlockDevice(getAddress(), disk.fork()));
+    }
+
+    /**
+     * Waits for the command in progress, so its result is saved with the
+     * disk overlay and read data
+     */
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        boolean success = waitPendingIo();
+        output.writeInt(sector);
+        output.writeInt(address);
+        output.writeInt(count);
+        output.writeInt(command);
+        output.writeInt(status);
+        output.writeInt(interruptNumber);
+        output.writeBoolean(pendingIo != null);
+        output.writeBoolean(success);
+        output.writeInt(pendingAddress);
+        output.writeInt(pendingBuffer == null ? -1 : pendingBuffer.capacity());
+        if (pendingBuffer != null) {
+            output.writeBytes(pendingBuffer.array());
+        }
+        disk.saveOverlay(output);
+    }
+
+    @Override
+    public void loadState(SnapshotInput input) {
+        waitPendingIo();
+        sector = input.readInt();
+        address = input.readInt();
+        count = input.readInt();
+        command = input.readInt();
+        status = input.readInt();
+        interruptNumber = input.readInt();
+        boolean pending = input.readBoolean();
+        boolean success = input.readBoolean();
+        pendingAddress = input.readInt();
+        int bufferLength = input.readInt();
+        pendingBuffer = null;
+        if (bufferLength >= 0) {
+            pendingBuffer = ByteBuffer.allocate(bufferLength);
+            input.readBytes(pendingBuffer.array());
+            pendingBuffer.position(bufferLength);
+        }
+        disk.loadOverlay(input);
+
+        //finished I/O is restored as completed future, failed one fails again at completion
+        pendingIo = null;
+        if (pending) {
+            pendingIo = new CompletableFuture<>();
+            if (success) {
+                pendingIo.complete(null);
+            } else {
+                pendingIo.completeExceptionally(new IllegalStateException("Disk I/O failed before snapshot"));
+            }
+        }
+    }
+
+    /**
+     * @return cycles from the start of the command to its completion
+     */
+    public static long getCommandCycles(int sectorsCount) {
+        return SETUP_CYCLES + (long) Math.max(0, sectorsCount) * CYCLES_PER_SECTOR;
+    }
+
+    private void startCommand(int value) {
+        if ((status & STATUS_BUSY) != 0) {
+            return;
+        }
+
+        command = value;
+        int operation = value & 0xFF;
+        boolean validRange = count > 0 && count <= MAX_SECTORS && sector >= 0 && (long) sector + count <= disk.getSectorsCount();
+        boolean valid = operation == COMMAND_FLUSH
+                || (operation == COMMAND_READ && validRange)
+                || (operation == COMMAND_WRITE && validRange && !disk.isReadOnly());
+        if (!valid) {
+            complete(false);
+            return;
+        }
+
+        int firstSector = sector;
+        if (operation == COMMAND_READ) {
+            ByteBuffer buffer = ByteBuffer.allocate(count * DiskImage.SECTOR_SIZE);
+            pendingBuffer = buffer;
+            pendingAddress = address;
+            pendingIo = CompletableFuture.runAsync(() -> disk.read(firstSector, buffer), IO_EXECUTOR);
+        } else if (operation == COMMAND_WRITE) {
+            ByteBuffer buffer = ByteBuffer.allocate(count * DiskImage.SECTOR_SIZE);
+            getComputer().getController().read(address, buffer);
+            buffer.flip();
+            pendingIo = CompletableFuture.runAsync(() -> disk.write(firstSector, buffer), IO_EXECUTOR);
+        } else {
+            pendingIo = CompletableFuture.runAsync(disk::flush, IO_EXECUTOR);
+        }
+        status = STATUS_BUSY;
+        requestTick(getCommandCycles(operation == COMMAND_FLUSH ? 0 : count));
+    }
+
+    @Override
+    public void tick(long cycle) {
+        if (pendingIo == null) {
+            return;
+        }
+
+        boolean success = waitPendingIo();
+        if (success && pendingBuffer != null) {
+            pendingBuffer.flip();
+            getComputer().getController().write(pendingAddress, pendingBuffer);
+        }
+        pendingIo = null;
+        pendingBuffer = null;
+        complete(success);
+    }
+
+    private boolean waitPendingIo() {
+        if (pendingIo == null) {
+            return true;
+        }
+        try {
+            pendingIo.join();
+            return true;
+        } catch (CompletionException ex) {
+            return false;
+        }
+    }
+
+    private void complete(boolean success) {
+        status = success ? 0 : STATUS_ERROR;
+        if ((command & COMMAND_INTERRUPT) != 0) {
+            raiseInterrupt(interruptNumber);
+        }
+    }
+}
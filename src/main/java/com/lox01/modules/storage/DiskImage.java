@@ -0,0 +1,227 @@
+package com.lox01.modules.storage;
+
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk of 512 byte sectors. Base image is a file mapped to memory, or a heap
+ * buffer. Overlay created by {@link #createOverlay()} keeps modified sectors
+ * in its own map and reads other sectors from the parent image, so many
+ * computers can share one read only base image and see only their own
+ * writes.<br>
+ * Reads of a base image are thread safe. Writes to one image should not be
+ * concurrent with other accesses to the same sectors.
+ *
+ * @author Dmitry
+ */
+public class DiskImage {
+
+    public static final int SECTOR_SIZE = 512;
+
+    private final ByteBuffer data;
+    private final DiskImage parent;
+    private final Map<Integer, byte[]> modifiedSectors;
+    private final int sectorsCount;
+    private final boolean readOnly;
+
+    private DiskImage(ByteBuffer data, DiskImage parent, int sectorsCount, boolean readOnly) {
+        this.data = data;
+        this.parent = parent;
+        this.modifiedSectors = parent == null ? null : new ConcurrentHashMap<>();
+        this.sectorsCount = sectorsCount;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Maps the image file to memory. Size of the image is the file size
+     * rounded down to sectors
+     *
+     * @param writable if true, writes go to the file, otherwise the image is
+     * read only and should be used through overlays
+     */
+    public static DiskImage open(Path file, boolean writable) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            long sectors = channel.size() / SECTOR_SIZE;
+            if (sectors * SECTOR_SIZE > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Disk image " + file + " is larger than 2gb");
+            }
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, sectors * SECTOR_SIZE);
+            //mapping stays valid after the channel is closed
+            return new DiskImage(buffer, null, (int) sectors, !writable);
+        }
+    }
+
+    /**
+     * Creates empty writable image in java heap
+     */
+    public static DiskImage create(int sectorsCount) {
+        if (sectorsCount < 0 || (long) sectorsCount * SECTOR_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Wrong sectors count " + sectorsCount);
+        }
+        return new DiskImage(ByteBuffer.allocate(sectorsCount * SECTOR_SIZE), null, sectorsCount, false);
+    }
+
+    /**
+     * @return writable copy on write image on top of this one
+     */
+    public DiskImage createOverlay() {
+        return new DiskImage(null, this, sectorsCount, false);
+    }
+
+    /**
+     * @return image for a forked computer. Read only base image is shared,
+     * overlay gets an empty sibling overlay that is filled by
+     * {@link #loadOverlay(SnapshotInput)}
+     * @throws IllegalStateException for writable base image, because writes
+     * of one computer would be visible to the other
+     */
+    public DiskImage fork() {
+        if (parent != null) {
+            return parent.createOverlay();
+        }
+        if (!readOnly) {
+            throw new IllegalStateException("Writable disk image cannot be forked, use an overlay");
+        }
+        return this;
+    }
+
+    public int getSectorsCount() {
+        return sectorsCount;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean isOverlay() {
+        return parent != null;
+    }
+
+    /**
+     * @return number of sectors stored in this overlay
+     */
+    public int getModifiedSectorsCount() {
+        return modifiedSectors == null ? 0 : modifiedSectors.size();
+    }
+
+    /**
+     * Reads sectors starting from the sector to remaining bytes of the
+     * destination. Remaining bytes should be multiple of sector size
+     */
+    public void read(int sector, ByteBuffer destination) {
+        int count = checkRange(sector, destination.remaining());
+        for (int i = 0; i < count; i++) {
+            readSector(sector + i, destination);
+        }
+    }
+
+    /**
+     * Writes remaining bytes of the source to sectors starting from the
+     * sector. Remaining bytes should be multiple of sector size
+     */
+    public void write(int sector, ByteBuffer source) {
+        if (readOnly) {
+            throw new IllegalStateException("Disk image is read only");
+        }
+
+        int count = checkRange(sector, source.remaining());
+        for (int i = 0; i < count; i++) {
+            if (parent != null) {
+                byte[] sectorData = new byte[SECTOR_SIZE];
+                source.get(sectorData);
+                modifiedSectors.put(sector + i, sectorData);
+            } else {
+                ByteBuffer sourceSlice = source.duplicate();
+                sourceSlice.limit(source.position() + SECTOR_SIZE);
+                ByteBuffer destination = data.duplicate();
+                destination.position((sector + i) * SECTOR_SIZE);
+                destination.put(sourceSlice);
+                source.position(source.position() + SECTOR_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Writes sectors modified in this overlay. Base images are files, their
+     * content is not saved
+     */
+    public void saveOverlay(SnapshotOutput output) throws IOException {
+        if (parent == null) {
+            output.writeInt(0);
+            return;
+        }
+        output.writeInt(modifiedSectors.size());
+        for (Map.Entry<Integer, byte[]> sector : modifiedSectors.entrySet()) {
+            output.writeInt(sector.getKey());
+            output.writeBytes(sector.getValue());
+        }
+    }
+
+    /**
+     * Replaces sectors of this overlay by sectors written by
+     * {@link #saveOverlay(SnapshotOutput)}
+     */
+    public void loadOverlay(SnapshotInput input) {
+        int count = input.readInt();
+        if (parent == null) {
+            if (count != 0) {
+                throw new IllegalArgumentException("Snapshot has overlay sectors, but disk image is not an overlay");
+            }
+            return;
+        }
+        modifiedSectors.clear();
+        for (int i = 0; i < count; i++) {
+            int sector = input.readInt();
+            byte[] sectorData = new byte[SECTOR_SIZE];
+            input.readBytes(sectorData);
+            modifiedSectors.put(sector, sectorData);
+        }
+    }
+
+    /**
+     * Writes modified pages of the mapped file to the disk
+     */
+    public void flush() {
+        if (data instanceof MappedByteBuffer && !readOnly) {
+            ((MappedByteBuffer) data).force();
+        }
+    }
+
+    private void readSector(int sector, ByteBuffer destination) {
+        if (parent != null) {
+            byte[] sectorData = modifiedSectors.get(sector);
+            if (sectorData != null) {
+                destination.put(sectorData);
+            } else {
+                parent.readSector(sector, destination);
+            }
+            return;
+        }
+
+        ByteBuffer source = data.duplicate();
+        source.limit((sector + 1) * SECTOR_SIZE);
+        source.position(sector * SECTOR_SIZE);
+        destination.put(source);
+    }
+
+    private int checkRange(int sector, int length) {
+        if (length % SECTOR_SIZE != 0) {
+            throw new IllegalArgumentException("Length " + length + " is not multiple of sector size");
+        }
+        int count = length / SECTOR_SIZE;
+        if (sector < 0 || (long) sector + count > sectorsCount) {
+            throw new IllegalArgumentException("Sectors [" + sector + ", " + ((long) sector + count) + ") are out of disk of " + sectorsCount + " sectors");
+        }
+        return count;
+    }
+}
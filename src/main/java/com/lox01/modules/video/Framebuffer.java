@@ -0,0 +1,194 @@
+package com.lox01.modules.video;
+
+import com.lox01.module.AbstractModule;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Video memory of width x height pixels, 4 bytes per pixel in 0xAARRGGBB
+ * little endian words, lines are stored one after another.<br>
+ * Guest reads go directly to the buffer, because the mapping is exposed as
+ * read only buffer. Writes are passed to the module, and mark changed
+ * scanlines as dirty, so the host renderer copies only them. Renderer may
+ * work in other thread: it takes dirty lines before copying, and a line that
+ * is written during copying becomes dirty again.
+ *
+ * @author Dmitry
+ */
+public class Framebuffer extends AbstractModule {
+
+    public static final int BYTES_PER_PIXEL = 4;
+
+    private final int address;
+    private final int width;
+    private final int height;
+    private final int lineBytes;
+    private final ByteBuffer memory;
+    private final AtomicLongArray dirtyLines;
+
+    public Framebuffer(int address, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Wrong framebuffer size " + width + "x" + height);
+        }
+        this.address = address;
+        this.width = width;
+        this.height = height;
+        this.lineBytes = width * BYTES_PER_PIXEL;
+        this.memory = ByteBuffer.allocate(lineBytes * height).order(ByteOrder.LITTLE_ENDIAN);
+        this.dirtyLines = new AtomicLongArray((height + 63) / 64);
+        addMapping(0, address, memory.capacity());
+    }
+
+    /**
+     * Clears the screen, the whole frame becomes dirty
+     */
+    @Override
+    public void reset() {
+        Arrays.fill(memory.array(), (byte) 0);
+        markDirty(0, height - 1);
+    }
+
+    @Override
+    public void saveState(SnapshotOutput output) throws IOException {
+        output.writeMemory(memory);
+    }
+
+    /**
+     * Restores the pixels, the whole frame becomes dirty
+     */
+    @Override
+    public void loadState(SnapshotInput input) {
+        input.readMemory(memory);
+        markDirty(0, height - 1);
+    }
+
+    @Override
+    public Framebuffer fork() {
+        return copyState(this, new Framebuffer(address, width, height));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return read only little endian view of the pixels, it is not a copy,
+     * so it always shows the current frame
+     */
+    public ByteBuffer getPixels() {
+        return memory.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public ByteBuffer getMemoryBuffer(int id) {
+        return getPixels();
+    }
+
+    /**
+     * Marks the lines from first to last (inclusive) as dirty
+     */
+    public void markDirty(int firstLine, int lastLine) {
+        for (int line = firstLine; line <= lastLine; line++) {
+            long mask = 1L << line;
+            int word = line >>> 6;
+            //reading first avoids contended atomic update when the line is already dirty
+            if ((dirtyLines.get(word) & mask) == 0) {
+                dirtyLines.getAndAccumulate(word, mask, (value, bit) -> value | bit);
+            }
+        }
+    }
+
+    public boolean hasDirtyLines() {
+        for (int i = 0; i < dirtyLines.length(); i++) {
+            if (dirtyLines.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears dirty marks and reports every line that was dirty
+     *
+     * @return number of dirty lines
+     */
+    public int takeDirtyLines(DirtyLineConsumer consumer) {
+        int count = 0;
+        for (int i = 0; i < dirtyLines.length(); i++) {
+            if (dirtyLines.get(i) == 0) {
+                continue;
+            }
+
+            long lines = dirtyLines.getAndSet(i, 0);
+            while (lines != 0) {
+                int line = i * 64 + Long.numberOfTrailingZeros(lines);
+                lines &= lines - 1;
+                consumer.lineChanged(line);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getMem8(int id, int address) {
+        return memory.get(address);
+    }
+
+    @Override
+    public int getMem16(int id, int address) {
+        return memory.getShort(address);
+    }
+
+    @Override
+    public int getMem32(int id, int address) {
+        return memory.getInt(address);
+    }
+
+    @Override
+    public void setMem8(int id, int address, int value) {
+        memory.put(address, (byte) value);
+        markDirty(address / lineBytes, address / lineBytes);
+    }
+
+    @Override
+    public void setMem16(int id, int address, int value) {
+        memory.putShort(address, (short) value);
+        markDirty(address / lineBytes, (address + 1) / lineBytes);
+    }
+
+    @Override
+    public void setMem32(int id, int address, int value) {
+        memory.putInt(address, value);
+        markDirty(address / lineBytes, (address + 3) / lineBytes);
+    }
+
+    /**
+     * Copies the block and marks its lines dirty once
+     */
+    @Override
+    public void write(int id, int address, ByteBuffer source) {
+        int length = source.remaining();
+        if (length == 0) {
+            return;
+        }
+        ByteBuffer destination = memory.duplicate();
+        destination.position(address);
+        destination.put(source);
+        markDirty(address / lineBytes, (address + length - 1) / lineBytes);
+    }
+
+    public interface DirtyLineConsumer {
+
+        void lineChanged(int line);
+    }
+}
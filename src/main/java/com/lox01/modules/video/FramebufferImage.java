@@ -0,0 +1,57 @@
+package com.lox01.modules.video;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import javax.imageio.ImageIO;
+
+/**
+ * Host copy of the framebuffer as an AWT image. {@link #update()} copies only
+ * the dirty lines, so it can be called on every frame of a renderer. Works in
+ * headless mode.
+ *
+ * @author Dmitry
+ */
+public class FramebufferImage {
+
+    private final Framebuffer framebuffer;
+    private final BufferedImage image;
+    private final int[] imagePixels;
+    private final IntBuffer framebufferPixels;
+
+    public FramebufferImage(Framebuffer framebuffer) {
+        this.framebuffer = framebuffer;
+        this.image = new BufferedImage(framebuffer.getWidth(), framebuffer.getHeight(), BufferedImage.TYPE_INT_RGB);
+        this.imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.framebufferPixels = framebuffer.getPixels().asIntBuffer();
+    }
+
+    /**
+     * Copies the lines changed since the previous update
+     *
+     * @return number of copied lines
+     */
+    public int update() {
+        int width = framebuffer.getWidth();
+        return framebuffer.takeDirtyLines(line -> {
+            framebufferPixels.position(line * width);
+            framebufferPixels.get(imagePixels, line * width, width);
+        });
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Updates the image and saves it as PNG file
+     */
+    public void writePng(File file) throws IOException {
+        update();
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("PNG writer is not available");
+        }
+    }
+}
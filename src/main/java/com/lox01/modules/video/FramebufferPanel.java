@@ -0,0 +1,54 @@
+package com.lox01.modules.video;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Swing component that shows the framebuffer. Timer updates the image from
+ * the event dispatch thread and repaints the component only when some lines
+ * were changed.
+ *
+ * @author Dmitry
+ */
+public class FramebufferPanel extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FramebufferImage image;
+    private final int scale;
+    private final Timer timer;
+
+    public FramebufferPanel(Framebuffer framebuffer, int scale, int framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Wrong frames per second " + framesPerSecond);
+        }
+        this.image = new FramebufferImage(framebuffer);
+        this.scale = scale;
+        this.timer = new Timer(Math.max(1, 1000 / framesPerSecond), event -> {
+            if (image.update() > 0) {
+                repaint();
+            }
+        });
+        setPreferredSize(new Dimension(framebuffer.getWidth() * scale, framebuffer.getHeight() * scale));
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        image.update();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.drawImage(image.getImage(), 0, 0, image.getImage().getWidth() * scale, image.getImage().getHeight() * scale, null);
+    }
+}
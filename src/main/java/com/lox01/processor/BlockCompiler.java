@@ -0,0 +1,329 @@
+package com.lox01.processor;
+
+import com.lox01.memmanager.MemoryController;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * Translates basic block of guest code to JVM class. Block is a straight line
+ * of register, ALU and memory instructions that ends with jump, conditional
+ * jump, or with the first instruction that block cannot contain (calls, stack
+ * operations, interrupts). Such instruction is left for the interpreter.<br>
+ * Every guest instruction becomes either direct operations on register array,
+ * or call of small final method of {@link CompiledBlock}, so JVM JIT inlines
+ * the whole block to one method and optimizes across guest instructions.
+ *
+ * @author Dmitry
+ */
+class BlockCompiler {
+
+    static final int MAX_BLOCK_INSTRUCTIONS = 64;
+
+    private static final int PC = 6;
+    private static final String BLOCK_CLASS = "com/lox01/processor/CompiledBlock";
+    private static final String PROCESSOR_CLASS = "com/lox01/processor/LoxProcessor";
+    private static final String[] ALU_METHODS = new String[]{
+        "add", "addc", "sub", "subc", "cmp", "mul", "mulu", "div", "divu", "rem", "and", "or", "xor",
+        "shr", "sar", "shl", "rol", "ror", "addf", "subf", "cmpf", "mulf", "divf"
+    };
+
+    //jvm opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int IALOAD = 0x2E;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int ASTORE_1 = 0x4C;
+    private static final int IASTORE = 0x4F;
+    private static final int IADD = 0x60;
+    private static final int IMUL = 0x68;
+    private static final int IAND = 0x7E;
+    private static final int IFEQ = 0x99;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int GETFIELD = 0xB4;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+
+    private int blocksCounter;
+
+    /**
+     * @return compiled block, or null if the first instruction at startPc
+     * cannot be compiled
+     */
+    CompiledBlock compile(LoxProcessor processor, int startPc) {
+        ClassFileWriter classWriter = new ClassFileWriter();
+        Code code = new Code(classWriter);
+        code.op(ALOAD_0);
+        code.op(GETFIELD);
+        code.u2(classWriter.fieldRef(BLOCK_CLASS, "registers", "[I"));
+        code.op(ASTORE_1);
+
+        int pc = startPc;
+        int instructionsCount = 0;
+        int cyclesCount = 0;
+        int[] instructionEndPcs = new int[MAX_BLOCK_INSTRUCTIONS];
+        int[] instructionEndCycles = new int[MAX_BLOCK_INSTRUCTIONS];
+        boolean finished = false;
+        while (!finished && instructionsCount < MAX_BLOCK_INSTRUCTIONS) {
+            int info = processor.getDecodedInfo(pc);
+            int immediate = processor.getDecodedImmediate(pc);
+            int opcode = info & 0xFF;
+            int reg1 = (info >> 8) & 0b111;
+            int reg2 = (info >> 11) & 0b111;
+            int indexReg = (info >> 14) & 0b11;
+            int nextPc = (pc + (info >>> 16)) & MemoryController.FINAL_ADDRESS;
+            if (!isSupported(opcode)) {
+                break;
+            }
+
+            //instructions that read or write PC see address of the next instruction, and end the block
+            boolean usesPc = LoxProcessor.hasRegistersByte(opcode) && opcode != 43 && opcode != 44 && (reg1 == PC || reg2 == PC);
+            if (usesPc) {
+                code.setRegister(PC, nextPc);
+            }
+
+            if (opcode == 1) {//jmp reg
+                code.loadRegister(reg1);
+                code.op(IRETURN);
+                finished = true;
+            } else if (opcode == 2) {//jmp offset32
+                code.returnPc(nextPc + immediate);
+                finished = true;
+            } else if (opcode >= 3 && opcode <= 14) {//conditional jumps
+                code.op(ALOAD_0);
+                code.pushInt(opcode);
+                code.invoke("condition", "(I)Z");
+                int branch = code.branch(IFEQ);
+                code.returnPc(nextPc + immediate);
+                code.patchBranch(branch);
+                code.returnPc(nextPc);
+                finished = true;
+            } else if (opcode >= 20 && opcode <= 42) {
+                code.op(ALOAD_0);
+                code.pushInt(reg1);
+                code.pushInt(reg2);
+                code.invoke(ALU_METHODS[opcode - 20], "(II)V");
+            } else if (opcode == 43 || opcode == 44) {//clearf, setf
+                code.op(ALOAD_0);
+                code.pushInt(reg1);
+                code.pushInt(opcode == 44 ? 1 : 0);
+                code.invoke("setFlag", "(II)V");
+            } else if (opcode == 45) {
+                code.op(ALOAD_0);
+                code.pushInt(reg1);
+                code.invoke("not", "(I)V");
+            } else if (opcode == 60) {//mov reg, imm
+                code.setRegister(reg1, immediate);
+            } else if (opcode == 61) {//mov reg, reg
+                code.op(ALOAD_1);
+                code.pushInt(reg1);
+                code.loadRegister(reg2);
+                code.op(IASTORE);
+            } else if (opcode >= 62 && opcode <= 97) {
+                compileMemoryAccess(code, opcode, reg1, reg2, indexReg, immediate, nextPc);
+            }
+            //nop (54) produces no code
+
+            cyclesCount += processor.getCycleCost(opcode);
+            instructionEndPcs[instructionsCount] = nextPc;
+            instructionEndCycles[instructionsCount] = cyclesCount;
+            instructionsCount++;
+            if (usesPc && !finished) {
+                code.loadRegister(PC);
+                code.op(IRETURN);
+                finished = true;
+            }
+            pc = nextPc;
+        }
+
+        if (instructionsCount == 0) {
+            return null;
+        }
+
+        if (!finished) {
+            code.returnPc(pc);
+        }
+
+        return defineBlock(processor, classWriter, code, startPc, Arrays.copyOf(instructionEndPcs, instructionsCount),
+                Arrays.copyOf(instructionEndCycles, instructionsCount));
+    }
+
+    private void compileMemoryAccess(Code code, int opcode, int reg1, int baseReg, int indexReg, int offset, int nextPc) {
+        int group = (opcode - 62) / 12;
+        int form = (opcode - 62) % 12;
+        boolean store = form >= 6;
+        boolean hasOffset = (form % 6) >= 3;
+        int scale = 1 << (form % 3);
+        String width = group == 0 ? "8" : (group == 1 ? "16" : "32");
+
+        //address = base + index * scale + offset
+        code.loadRegister(baseReg);
+        code.loadRegister(indexReg);
+        if (scale != 1) {
+            code.pushInt(scale);
+            code.op(IMUL);
+        }
+        code.op(IADD);
+        if (hasOffset) {
+            code.pushInt(offset);
+            code.op(IADD);
+        }
+        code.pushInt(MemoryController.FINAL_ADDRESS);
+        code.op(IAND);
+        code.op(ISTORE_2);
+
+        if (store) {
+            code.op(ALOAD_0);
+            code.op(ILOAD_2);
+            code.loadRegister(reg1);
+            code.invoke("store" + width, "(II)Z");
+            int branch = code.branch(IFEQ);
+            code.returnPc(nextPc);
+            code.patchBranch(branch);
+        } else {
+            code.op(ALOAD_1);
+            code.pushInt(reg1);
+            code.op(ALOAD_0);
+            code.op(ILOAD_2);
+            code.invoke("load" + width, "(I)I");
+            code.op(IASTORE);
+        }
+    }
+
+    static boolean isSupported(int opcode) {
+        return (opcode >= 1 && opcode <= 14)
+                || (opcode >= 20 && opcode <= 45)
+                || opcode == 54
+                || (opcode >= 60 && opcode <= 97);
+    }
+
+    private CompiledBlock defineBlock(LoxProcessor processor, ClassFileWriter classWriter, Code code, int startPc, int[] instructionEndPcs, int[] instructionEndCycles) {
+        String className = "com/lox01/processor/generated/Block_" + Integer.toHexString(startPc) + "_" + (blocksCounter++);
+        byte[] constructor = new Code(classWriter)
+                .op(ALOAD_0)
+                .op(ALOAD_1)
+                .op(INVOKESPECIAL)
+                .u2(classWriter.methodRef(BLOCK_CLASS, "<init>", "(L" + PROCESSOR_CLASS + ";)V"))
+                .op(RETURN)
+                .toByteArray();
+        classWriter.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "(L" + PROCESSOR_CLASS + ";)V", 2, 2, constructor);
+        classWriter.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", "()I", 8, 3, code.toByteArray());
+        byte[] classBytes = classWriter.toByteArray(className, BLOCK_CLASS);
+
+        //every block has own class loader, so class is unloaded when block is dropped
+        BlockClassLoader classLoader = new BlockClassLoader(CompiledBlock.class.getClassLoader());
+        try {
+            Class<?> blockClass = classLoader.define(className.replace('/', '.'), classBytes);
+            CompiledBlock block = (CompiledBlock) blockClass.getConstructor(LoxProcessor.class).newInstance(processor);
+            block.init(startPc, instructionEndPcs, instructionEndCycles);
+            return block;
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+            throw new IllegalStateException("Cannot instantiate compiled block at [" + Integer.toHexString(startPc) + "]", ex);
+        }
+    }
+
+    private static class BlockClassLoader extends ClassLoader {
+
+        public BlockClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classBytes) {
+            return defineClass(name, classBytes, 0, classBytes.length);
+        }
+    }
+
+    /**
+     * Bytecode of one method
+     */
+    private static class Code {
+
+        private final ClassFileWriter classWriter;
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        public Code(ClassFileWriter classWriter) {
+            this.classWriter = classWriter;
+        }
+
+        Code op(int opcode) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) opcode;
+            return this;
+        }
+
+        Code u2(int value) {
+            op(value >> 8);
+            return op(value);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                op(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(classWriter.integer(value));
+            }
+        }
+
+        void loadRegister(int register) {
+            op(ALOAD_1);
+            pushInt(register);
+            op(IALOAD);
+        }
+
+        void setRegister(int register, int value) {
+            op(ALOAD_1);
+            pushInt(register);
+            pushInt(value);
+            op(IASTORE);
+        }
+
+        void returnPc(int pc) {
+            pushInt(pc);
+            op(IRETURN);
+        }
+
+        void invoke(String method, String descriptor) {
+            op(INVOKEVIRTUAL);
+            u2(classWriter.methodRef(BLOCK_CLASS, method, descriptor));
+        }
+
+        /**
+         * @return position of the branch instruction for
+         * {@link #patchBranch(int)}
+         */
+        int branch(int opcode) {
+            int position = size;
+            op(opcode);
+            u2(0);
+            return position;
+        }
+
+        /**
+         * Makes the branch jump to the current position
+         */
+        void patchBranch(int branchPosition) {
+            int offset = size - branchPosition;
+            bytes[branchPosition + 1] = (byte) (offset >> 8);
+            bytes[branchPosition + 2] = (byte) offset;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
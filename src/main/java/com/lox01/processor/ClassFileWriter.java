@@ -0,0 +1,155 @@
+package com.lox01.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of JVM class files, supports only what is needed by
+ * {@link BlockCompiler}: constant pool, methods with Code attribute, no
+ * fields and no interfaces.<br>
+ * Classes are written with version 49 (Java 5), so code with branches does
+ * not need StackMapTable and is verified by type inference verifier.
+ *
+ * @author Dmitry
+ */
+class ClassFileWriter {
+
+    private static final int CLASS_VERSION = 49;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_SUPER = 0x0020;
+
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+    private List<byte[]> methods = new ArrayList<>();
+
+    int utf8(String value) {
+        Integer index = poolIndexes.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return register("U" + value);
+    }
+
+    int integer(int value) {
+        Integer index = poolIndexes.get("I" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return register("I" + value);
+    }
+
+    int classRef(String internalName) {
+        return reference("C" + internalName, CONSTANT_CLASS, utf8(internalName), -1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return reference("F" + owner + "." + name + descriptor, CONSTANT_FIELDREF, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return reference("M" + owner + "." + name + descriptor, CONSTANT_METHODREF, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference("N" + name + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    }
+
+    private int reference(String key, int tag, int firstIndex, int secondIndex) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(firstIndex);
+            if (secondIndex != -1) {
+                pool.writeShort(secondIndex);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        return register(key);
+    }
+
+    private int register(String key) {
+        int index = poolCount++;
+        poolIndexes.put(key, index);
+        return index;
+    }
+
+    void addMethod(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code) {
+        try {
+            ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+            DataOutputStream method = new DataOutputStream(methodBytes);
+            method.writeShort(access);
+            method.writeShort(utf8(name));
+            method.writeShort(utf8(descriptor));
+            method.writeShort(1);
+            method.writeShort(utf8("Code"));
+            method.writeInt(12 + code.length);
+            method.writeShort(maxStack);
+            method.writeShort(maxLocals);
+            method.writeInt(code.length);
+            method.write(code);
+            method.writeShort(0);//exception table
+            method.writeShort(0);//attributes
+            methods.add(methodBytes.toByteArray());
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    byte[] toByteArray(String className, String superClassName) {
+        int thisClassIndex = classRef(className);
+        int superClassIndex = classRef(superClassName);
+        try {
+            ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(classBytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClassIndex);
+            out.writeShort(superClassIndex);
+            out.writeShort(0);//interfaces
+            out.writeShort(0);//fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);//attributes
+            return classBytes.toByteArray();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.lox01.processor;
+
+/**
+ * Base class of basic blocks translated to JVM bytecode by
+ * {@link BlockCompiler}.<br>
+ * Generated classes are defined by their own class loaders, so they cannot
+ * reach package private members of the processor. All state except the
+ * register file is accessed through protected methods of this class, and the
+ * instructions semantic stays in the processor.
+ *
+ * @author Dmitry
+ */
+public abstract class CompiledBlock {
+
+    protected final LoxProcessor processor;
+    protected final int[] registers;
+    private int startPc;
+    private int[] instructionEndPcs;
+    private int[] instructionEndCycles;
+    private boolean invalidated;
+
+    protected CompiledBlock(LoxProcessor processor) {
+        this.processor = processor;
+        this.registers = processor.getRegisters();
+    }
+
+    /**
+     * @return address of the instruction that should be executed after the
+     * block
+     */
+    public abstract int execute();
+
+    /**
+     * @param instructionEndPcs address after every instruction of the block
+     * @param instructionEndCycles cycles taken by the block up to the end of
+     * every instruction
+     */
+    void init(int startPc, int[] instructionEndPcs, int[] instructionEndCycles) {
+        this.startPc = startPc;
+        this.instructionEndPcs = instructionEndPcs;
+        this.instructionEndCycles = instructionEndCycles;
+    }
+
+    int getStartPc() {
+        return startPc;
+    }
+
+    /**
+     * @return address after the last instruction of the block
+     */
+    int getEndPc() {
+        return instructionEndPcs[instructionEndPcs.length - 1];
+    }
+
+    int getInstructionsCount() {
+        return instructionEndPcs.length;
+    }
+
+    int getCyclesCount() {
+        return instructionEndCycles[instructionEndCycles.length - 1];
+    }
+
+    /**
+     * @param pc address returned by {@link #execute()}
+     * @return number of executed instructions, less than
+     * {@link #getInstructionsCount()} if the block modified own code and
+     * returned after the write
+     */
+    int getExecutedInstructionsCount(int pc) {
+        if (invalidated) {
+            for (int i = 0; i < instructionEndPcs.length - 1; i++) {
+                if (instructionEndPcs[i] == pc) {
+                    return i + 1;
+                }
+            }
+        }
+        return instructionEndPcs.length;
+    }
+
+    /**
+     * @return cycles taken by the first instructions of the block
+     */
+    int getCyclesCount(int instructions) {
+        return instructionEndCycles[instructions - 1];
+    }
+
+    void invalidate() {
+        invalidated = true;
+    }
+
+    boolean isInvalidated() {
+        return invalidated;
+    }
+
+    protected final void add(int reg1, int reg2) {
+        processor.add(reg1, reg2);
+    }
+
+    protected final void addc(int reg1, int reg2) {
+        processor.addc(reg1, reg2);
+    }
+
+    protected final void sub(int reg1, int reg2) {
+        processor.sub(reg1, reg2);
+    }
+
+    protected final void subc(int reg1, int reg2) {
+        processor.subc(reg1, reg2);
+    }
+
+    protected final void cmp(int reg1, int reg2) {
+        processor.cmp(reg1, reg2);
+    }
+
+    protected final void mul(int reg1, int reg2) {
+        processor.mul(reg1, reg2);
+    }
+
+    protected final void mulu(int reg1, int reg2) {
+        processor.mulu(reg1, reg2);
+    }
+
+    protected final void div(int reg1, int reg2) {
+        processor.div(reg1, reg2);
+    }
+
+    protected final void divu(int reg1, int reg2) {
+        processor.divu(reg1, reg2);
+    }
+
+    protected final void rem(int reg1, int reg2) {
+        processor.rem(reg1, reg2);
+    }
+
+    protected final void and(int reg1, int reg2) {
+        processor.and(reg1, reg2);
+    }
+
+    protected final void or(int reg1, int reg2) {
+        processor.or(reg1, reg2);
+    }
+
+    protected final void xor(int reg1, int reg2) {
+        processor.xor(reg1, reg2);
+    }
+
+    protected final void shr(int reg1, int reg2) {
+        processor.shr(reg1, reg2);
+    }
+
+    protected final void sar(int reg1, int reg2) {
+        processor.sar(reg1, reg2);
+    }
+
+    protected final void shl(int reg1, int reg2) {
+        processor.shl(reg1, reg2);
+    }
+
+    protected final void rol(int reg1, int reg2) {
+        processor.rol(reg1, reg2);
+    }
+
+    protected final void ror(int reg1, int reg2) {
+        processor.ror(reg1, reg2);
+    }
+
+    protected final void addf(int reg1, int reg2) {
+        processor.addf(reg1, reg2);
+    }
+
+    protected final void subf(int reg1, int reg2) {
+        processor.subf(reg1, reg2);
+    }
+
+    protected final void cmpf(int reg1, int reg2) {
+        processor.cmpf(reg1, reg2);
+    }
+
+    protected final void mulf(int reg1, int reg2) {
+        processor.mulf(reg1, reg2);
+    }
+
+    protected final void divf(int reg1, int reg2) {
+        processor.divf(reg1, reg2);
+    }
+
+    protected final void not(int reg1) {
+        processor.not(reg1);
+    }
+
+    protected final void setFlag(int flagIndex, int value) {
+        processor.setFlagValue(flagIndex, value);
+    }
+
+    protected final boolean condition(int opcode) {
+        return processor.isConditionMet(opcode);
+    }
+
+    protected final int load8(int address) {
+        return processor.load8(address);
+    }
+
+    protected final int load16(int address) {
+        return processor.load16(address);
+    }
+
+    protected final int load32(int address) {
+        return processor.load32(address);
+    }
+
+    /**
+     * @return true if the write modified code of this block, then the block
+     * should return and let interpreter continue
+     */
+    protected final boolean store8(int address, int value) {
+        processor.store8(address, value);
+        return invalidated;
+    }
+
+    protected final boolean store16(int address, int value) {
+        processor.store16(address, value);
+        return invalidated;
+    }
+
+    protected final boolean store32(int address, int value) {
+        processor.store32(address, value);
+        return invalidated;
+    }
+}
@@ -0,0 +1,72 @@
+package com.lox01.processor;
+
+import java.util.Arrays;
+
+/**
+ * Number of processor cycles every opcode takes, see
+ * {@link LoxProcessor#setCycleCosts(CycleCosts)}. New table charges 1 cycle
+ * for every opcode, so cycles are equal to instructions.
+ * {@link #createWeighted()} makes a table where multiplication, division and
+ * float operations are more expensive, and memory operations are charged by
+ * access width.
+ *
+ * @author Dmitry
+ */
+public class CycleCosts {
+
+    private final int[] cycles = new int[256];
+
+    public CycleCosts() {
+        Arrays.fill(cycles, 1);
+    }
+
+    CycleCosts(int[] cycles) {
+        System.arraycopy(cycles, 0, this.cycles, 0, this.cycles.length);
+    }
+
+    /**
+     * Table with costs that resemble a simple in-order processor: 1 cycle for
+     * ALU and jumps, 3 for multiplication, 20 for division, and 1 cycle plus 1
+     * per started 2 bytes for memory accesses, including stack operations
+     */
+    public static CycleCosts createWeighted() {
+        return new CycleCosts()
+                .setCosts(25, 26, 3)//mul, mulu
+                .setCosts(27, 29, 20)//div, divu, rem
+                .setCosts(38, 40, 4)//addf, subf, cmpf
+                .setCosts(41, 41, 5)//mulf
+                .setCosts(42, 42, 20)//divf
+                .setCosts(46, 51, 3)//call, ret, push, pop of 32 bit values
+                .setCosts(52, 53, 2)//pushf, popf
+                .setCosts(55, 55, 5)//int
+                .setCosts(57, 57, 5)//iret
+                .setCosts(62, 85, 2)//8 and 16 bit loads and stores
+                .setCosts(86, 97, 3);//32 bit loads and stores
+    }
+
+    /**
+     * @param cycles cost of the opcodes, at least 1
+     * @return this table
+     */
+    public CycleCosts setCosts(int firstOpcode, int lastOpcode, int cycles) {
+        if (cycles < 1) {
+            throw new IllegalArgumentException("Opcode should take at least 1 cycle, but was " + cycles);
+        }
+        for (int opcode = firstOpcode; opcode <= lastOpcode; opcode++) {
+            this.cycles[opcode] = cycles;
+        }
+        return this;
+    }
+
+    public CycleCosts setCost(int opcode, int cycles) {
+        return setCosts(opcode, opcode, cycles);
+    }
+
+    public int getCost(int opcode) {
+        return cycles[opcode];
+    }
+
+    int[] toArray() {
+        return cycles.clone();
+    }
+}
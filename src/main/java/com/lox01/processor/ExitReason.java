@@ -0,0 +1,26 @@
+package com.lox01.processor;
+
+/**
+ * Reason why {@link LoxProcessor#execute(long)} returned
+ *
+ * @author Dmitry
+ */
+public enum ExitReason {
+    /**
+     * Requested number of instructions is executed
+     */
+    BudgetExhausted,
+    /**
+     * brk instruction is executed, PC points to the next instruction
+     */
+    Breakpoint,
+    /**
+     * Processor is stopped by {@link LoxProcessor#stop()}
+     */
+    Halted,
+    /**
+     * Interrupt that is not masked is pending while interrupts are enabled, it
+     * is delivered by the next call of execute
+     */
+    InterruptPending
+}
@@ -1,6 +1,14 @@
 package com.lox01.processor;
 
+import com.lox01.interrupt.InterruptController;
+import com.lox01.memmanager.MemMapping;
 import com.lox01.memmanager.MemoryController;
+import com.lox01.snapshot.SnapshotInput;
+import com.lox01.snapshot.SnapshotOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * @author Dmitry
@@ -26,410 +34,407 @@ public class LoxProcessor {
     int negativeFlag = 0;   //bit 3
     int interruptEnableFlag = 0;  //bit 4
 
-    private int interruptRequest = 0;
-    private boolean run;
+    //lazy flags. ALU operations only record kind of the operation, operands and result,
+    //Z, C, O and N are computed when jump, pushf or getFlagByte() reads them
+    private static final int FLAGS_READY = 0;       //flags are in the fields above
+    private static final int FLAGS_ARITHMETIC = 1;  //N, Z from result, C and O from operands and result
+    private static final int FLAGS_LOGIC = 2;       //N, Z from result, C = O = 0
+    private static final int FLAGS_SHIFT = 3;       //N, Z from result, C is bit lazyY of lazyX, O = 0
+    private int lazyFlagsKind = FLAGS_READY;
+    private long lazyResult;
+    private int lazyX;
+    private int lazyY;
 
-    private int internalRegister1;
-    private int internalRegister2;
-    private int internalIndexRegister;
+    private InterruptController interruptController = new InterruptController();
+    private volatile boolean halted;
+    private boolean breakpointReached;
+    private long instructionsCount;
+    private long cyclesCount;
+    private int[] cycleCosts = new CycleCosts().toArray();
 
+    //instructions executed between checks of the interrupt requests counter,
+    //bounds latency of halt and interrupt requests
+    private static final int SLICE_INSTRUCTIONS = 1024;
+
+    //decoded instructions cache. Direct mapped by PC, one entry holds opcode,
+    //register byte and length packed in decodedInfo, and immediate/offset operand
+    private static final int DECODE_CACHE_SIZE = 4096;
+    private static final int DECODE_CACHE_MASK = DECODE_CACHE_SIZE - 1;
+    private int[] decodedPc = new int[DECODE_CACHE_SIZE];
+    private int[] decodedInfo = new int[DECODE_CACHE_SIZE];
+    private int[] decodedImmediate = new int[DECODE_CACHE_SIZE];
+    //cache slots that hold code from each watched page, so a write drops only them
+    private HashMap<Integer, PageSlots> pageSlots = new HashMap<>();
+
+    //operands layout of opcodes
+    private static final boolean[] HAS_REGISTERS_BYTE = new boolean[256];
+    private static final int[] IMMEDIATE_SIZE = new int[256];
+
+    static {
+        defineOperands(1, 1, true, 0);
+        defineOperands(2, 2, false, 4);
+        defineOperands(3, 14, false, 2);
+        defineOperands(20, 45, true, 0);
+        defineOperands(46, 47, false, 4);
+        defineOperands(48, 48, true, 0);
+        defineOperands(50, 51, true, 0);
+        defineOperands(55, 55, false, 1);
+        defineOperands(57, 57, false, 0);
+        defineOperands(60, 60, true, 4);
+        defineOperands(61, 64, true, 0);
+        defineOperands(65, 67, true, 4);
+        defineOperands(68, 70, true, 0);
+        defineOperands(71, 73, true, 4);
+        defineOperands(74, 76, true, 0);
+        defineOperands(77, 79, true, 4);
+        defineOperands(80, 82, true, 0);
+        defineOperands(83, 85, true, 4);
+        defineOperands(86, 88, true, 0);
+        defineOperands(89, 91, true, 4);
+        defineOperands(92, 94, true, 0);
+        defineOperands(95, 97, true, 4);
+    }
+
+    private static void defineOperands(int firstOpcode, int lastOpcode, boolean registersByte, int immediateSize) {
+        for (int opcode = firstOpcode; opcode <= lastOpcode; opcode++) {
+            HAS_REGISTERS_BYTE[opcode] = registersByte;
+            IMMEDIATE_SIZE[opcode] = immediateSize;
+        }
+    }
+
+    //direct view of the memory that contains PC, instructions are fetched from it without memory controller lookup
+    private ByteBuffer fetchWindow;
+    private int fetchWindowStart;
+    private int fetchWindowLength;
+    //direct view of the memory that was accessed by last load or store
+    private ByteBuffer dataWindow;
+    private int dataWindowStart;
+    private int dataWindowLength;
+    private int dataWindowWritableLength;
+
+    //optional JIT tier. Jump targets are counted, and hot ones are compiled to JVM classes
+    private static final int JIT_THRESHOLD = 64;
+    private static final int COMPILED_BLOCKS_CACHE_SIZE = 1024;
+    private static final int COMPILED_BLOCKS_CACHE_MASK = COMPILED_BLOCKS_CACHE_SIZE - 1;
+    private boolean jitEnabled;
+    private BlockCompiler blockCompiler;
+    private CompiledBlock[] compiledBlocks;
+    private int[] jumpTargetHits;
+
+    private Profiler profiler;
+
+    public LoxProcessor() {
+        Arrays.fill(decodedPc, -1);
+    }
+
+    public void setJitEnabled(boolean jitEnabled) {
+        if (jitEnabled && blockCompiler == null) {
+            blockCompiler = new BlockCompiler();
+            compiledBlocks = new CompiledBlock[COMPILED_BLOCKS_CACHE_SIZE];
+            jumpTargetHits = new int[COMPILED_BLOCKS_CACHE_SIZE];
+        }
+        this.jitEnabled = jitEnabled;
+    }
+
+    public boolean isJitEnabled() {
+        return jitEnabled;
+    }
+
+    /**
+     * Attaches the profiler that counts every executed instruction, or
+     * detaches it with null. Compiled blocks are not executed while the
+     * profiler is attached
+     */
+    public void setProfiler(Profiler profiler) {
+        if (profiler != null) {
+            profiler.attach(this);
+        }
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets cycles every opcode takes. Costs are copied, so later changes of
+     * the table are not seen by the processor
+     */
+    public void setCycleCosts(CycleCosts costs) {
+        cycleCosts = costs.toArray();
+        //compiled blocks keep the sum of costs of their instructions
+        flushDecodedInstructions();
+    }
+
+    /**
+     * @return copy of the cycle costs used by the processor
+     */
+    public CycleCosts getCycleCosts() {
+        return new CycleCosts(cycleCosts);
+    }
+
+    int getCycleCost(int opcode) {
+        return cycleCosts[opcode];
+    }
+
+    /**
+     * Runs the processor until {@link #stop()} is called, breakpoints are
+     * ignored
+     */
     public void executeLoop() {
-        while (run) {
-            int opcode = memoryController.getMem8(registers[PC]++);
+        while (execute(Long.MAX_VALUE) != ExitReason.Halted) {
+        }
+    }
+
+    /**
+     * Executes at most maxInstructions instructions and returns. Compiled
+     * block that does not fit the rest of the budget is interpreted, so the
+     * processor stops at exactly the requested instruction unless it halts or
+     * reaches breakpoint. Instructions run in slices, compiled blocks may end
+     * a slice a few instructions later. Halt, interrupt requests and unmasks,
+     * also from other threads, change one counter of the interrupt
+     * controller, and that counter is the only volatile word read between
+     * slices, so a request is seen at most one slice later.
+     * Interrupt that can be delivered ends the call with
+     * {@link ExitReason#InterruptPending}, and is delivered at the start of the
+     * next call.
+     *
+     * @return reason why the execution returned
+     */
+    public ExitReason execute(long maxInstructions) {
+        return execute(maxInstructions, Long.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #execute(long)}, but also stops at the first instruction
+     * that ends at or after maxCycles cycles, see
+     * {@link #setCycleCosts(CycleCosts)}
+     */
+    public ExitReason execute(long maxInstructions, long maxCycles) {
+        deliverInterrupt();
+        long cycleLimit = maxCycles >= Long.MAX_VALUE - cyclesCount ? Long.MAX_VALUE : cyclesCount + maxCycles;
+        long executed = 0;
+        ExitReason reason = ExitReason.BudgetExhausted;
+        int requestsCount = interruptController.getRequestsCount();
+        boolean check = true;
+        while (executed < maxInstructions && cyclesCount < cycleLimit) {
+            if (check) {
+                check = false;
+                if (halted) {
+                    reason = ExitReason.Halted;
+                    break;
+                }
+                if (interruptEnableFlag == 1 && interruptController.hasDeliverableInterrupt()) {
+                    reason = ExitReason.InterruptPending;
+                    break;
+                }
+            }
+            long budget = maxInstructions - executed;
+            executed += executeInstructions((int) Math.min(budget, SLICE_INSTRUCTIONS),
+                    (int) Math.min(budget, Integer.MAX_VALUE), cycleLimit);
+            if (breakpointReached) {
+                breakpointReached = false;
+                reason = ExitReason.Breakpoint;
+                break;
+            }
+            int newRequestsCount = interruptController.getRequestsCount();
+            if (newRequestsCount != requestsCount) {
+                requestsCount = newRequestsCount;
+                check = true;
+            }
+        }
+        instructionsCount += executed;
+        return reason;
+    }
+
+    /**
+     * Executes instructions until at least count instructions are executed,
+     * or cycles counter reaches cycleLimit. Compiled blocks may run past
+     * count, but never past budget
+     *
+     * @return number of executed instructions
+     */
+    private int executeInstructions(int count, int budget, long cycleLimit) {
+        Profiler profiler = this.profiler;
+        if (profiler != null) {
+            return executeProfiled(profiler, count, cycleLimit);
+        }
+        return executeInstructions(count, budget, cycleLimit, jitEnabled);
+    }
+
+    /**
+     * Passes every instruction to the profiler before it is executed by
+     * {@link #executeInstructions(int, int, long, boolean)}, one instruction
+     * per call, so the interpreter loop does not test for the profiler
+     */
+    private int executeProfiled(Profiler profiler, int count, long cycleLimit) {
+        int executed = 0;
+        while (executed < count && cyclesCount < cycleLimit && !breakpointReached) {
+            int pc = registers[PC];
+            int slot = pc & DECODE_CACHE_MASK;
+            if (decodedPc[slot] != pc) {
+                decodeInstruction(pc, slot);
+            }
+            int info = decodedInfo[slot];
+            profiler.instructionExecuted(pc, info & 0xFF, (info >> 8) & 0b111, decodedImmediate[slot], (pc + (info >>> 16)) & FINAL_ADDRESS);
+            executed += executeInstructions(1, 1, cycleLimit, false);
+        }
+        return executed;
+    }
+
+    private int executeInstructions(int count, int budget, long cycleLimit, boolean jit) {
+        int executed = 0;
+        long cycles = cyclesCount;
+        int[] costs = cycleCosts;
+        int fallThroughPc = -1;
+        while (executed < count && cycles < cycleLimit) {
+            int pc = registers[PC];
+            if (jit && pc != fallThroughPc) {
+                CompiledBlock block = executeCompiledBlock(pc, budget - executed, cycleLimit - cycles);
+                if (block != null) {
+                    //next instruction is either jump target or the instruction that block cannot contain
+                    int blockInstructions = block.getExecutedInstructionsCount(registers[PC]);
+                    executed += blockInstructions;
+                    cycles += block.getCyclesCount(blockInstructions);
+                    fallThroughPc = -1;
+                    continue;
+                }
+            }
+
+            int slot = pc & DECODE_CACHE_MASK;
+            if (decodedPc[slot] != pc) {
+                decodeInstruction(pc, slot);
+            }
+            int info = decodedInfo[slot];
+            int internalRegister1 = (info >> 8) & 0b111;
+            int internalRegister2 = (info >> 11) & 0b111;
+            int internalIndexRegister = (info >> 14) & 0b11;
+            int immediate = decodedImmediate[slot];
+            registers[PC] = (pc + (info >>> 16)) & FINAL_ADDRESS;
+            fallThroughPc = registers[PC];
+            executed++;
+            int opcode = info & 0xFF;
+            cycles += costs[opcode];
             switch (opcode) {
+                case 0://BRK, PC points to the next instruction
+                {
+                    breakpointReached = true;
+                    cyclesCount = cycles;
+                    return executed;
+                }
                 case 1://JMP REG
                 {
-                    readRegPointers();
                     registers[PC] = registers[internalRegister1];
                     break;
                 }
                 case 2://JMP offset32
                 {
-                    int value = memoryController.getMem32(registers[PC]);
-                    registers[PC] += (4 + value);
+                    registers[PC] += immediate;
                     break;
                 }
                 case 3://JZ offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (zeroFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 4://JNZ offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (zeroFlag == 0) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 5://JG offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (zeroFlag == 0 && negativeFlag == 0) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 6://JGE offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (negativeFlag == 0) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 7://JL offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (negativeFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 8://JLE offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (zeroFlag == 1 || negativeFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 9://JGU offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (carryFlag == 0 || zeroFlag == 0) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 10://JGEU offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (carryFlag == 0) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 11://JLU offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (carryFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 12://JLEU offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (carryFlag == 1 || zeroFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 13://JO offset16
-                {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (overflowFlag == 1) {
-                        registers[PC] += offset;
-                    }
-                    break;
-                }
                 case 14://JNO offset16
                 {
-                    int offset = memoryController.getMem16(registers[PC]);
-                    registers[PC] += 2;
-                    if (overflowFlag == 0) {
-                        registers[PC] += offset;
+                    if (isConditionMet(opcode)) {
+                        registers[PC] += immediate;
                     }
                     break;
                 }
                 case 20://ADD REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & (long) 0xFFFFFFFF + y & (long) 0xFFFFFFFF);
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    add(internalRegister1, internalRegister2);
                     break;
-                }
                 case 21://ADDC REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & ((long) 0xFFFFFFFF) + y & (long) 0xFFFFFFFF) + carryFlag;
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    addc(internalRegister1, internalRegister2);
                     break;
-                }
                 case 22://SUB REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF);
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    sub(internalRegister1, internalRegister2);
                     break;
-                }
                 case 23://SUBC REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF) - ((carryFlag == 0) ? 1 : 0);
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    subc(internalRegister1, internalRegister2);
                     break;
-                }
                 case 24://CMP REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF);
-                    updateNZ(result);
-                    updateOC(x, y, result);
+                    cmp(internalRegister1, internalRegister2);
                     break;
-                }
                 case 25://MUL REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = x * y;
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    mul(internalRegister1, internalRegister2);
                     break;
-                }
                 case 26://MULU REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (x & (long) 0xFFFFFFFF) * (y & (long) 0xFFFFFFFF);
-                    updateNZ(result);
-                    updateOC(x, y, result);
-                    registers[internalRegister1] = (int) result;
+                    mulu(internalRegister1, internalRegister2);
                     break;
-                }
                 case 27://DIV REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = x / y;
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    div(internalRegister1, internalRegister2);
                     break;
-                }
                 case 28://DIVU REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    long result = (long) (x & ((long) 0xFFFFFFFF) / y & (long) 0xFFFFFFFF);
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    divu(internalRegister1, internalRegister2);
                     break;
-                }
                 case 29://REM REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x % y;
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    rem(internalRegister1, internalRegister2);
                     break;
-                }
                 case 30://AND REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x & y;
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    and(internalRegister1, internalRegister2);
                     break;
-                }
                 case 31://OR REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x | y;
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    or(internalRegister1, internalRegister2);
                     break;
-                }
                 case 32://XOR REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x ^ y;
-                    updateNZ(result);
-                    carryFlag = 0;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    xor(internalRegister1, internalRegister2);
                     break;
-                }
                 case 33://SHR REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x >>> y;
-                    updateNZ(result);
-                    carryFlag = (x >> (y - 1)) & 0x1;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    shr(internalRegister1, internalRegister2);
                     break;
-                }
                 case 34://SAR REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x >> y;
-                    updateNZ(result);
-                    carryFlag = (x >> (y - 1)) & 0x1;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    sar(internalRegister1, internalRegister2);
                     break;
-                }
                 case 35://SHL REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    int result = x << y;
-                    updateNZ(result);
-                    carryFlag = (x >> (y + 1)) & 0x1;
-                    overflowFlag = 0;
-                    registers[internalRegister1] = (int) result;
+                    shl(internalRegister1, internalRegister2);
                     break;
-                }
                 case 36://ROL REG,REG
-                {
-                    readRegPointers();
-                    int result = Integer.rotateLeft(registers[internalRegister1], registers[internalRegister2]);
-                    registers[internalRegister1] = result;
-                    updateNZ(result);
-                    overflowFlag = 0;
-                    carryFlag = 0;
+                    rol(internalRegister1, internalRegister2);
                     break;
-                }
                 case 37://ROR REG,REG
-                {
-                    readRegPointers();
-                    int result = Integer.rotateRight(registers[internalRegister1], registers[internalRegister2]);
-                    registers[internalRegister1] = result;
-                    updateNZ(result);
-                    overflowFlag = 0;
-                    carryFlag = 0;
+                    ror(internalRegister1, internalRegister2);
                     break;
-                }
                 case 38://addf REG,REG
-                {
-                    readRegPointers();
-                    float result = Float.intBitsToFloat(registers[internalRegister1]) + Float.intBitsToFloat(registers[internalRegister2]);
-                    registers[internalRegister1] = Float.floatToIntBits(result);
-                    setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+                    addf(internalRegister1, internalRegister2);
                     break;
-                }
                 case 39://subf REG,REG
-                {
-                    readRegPointers();
-                    float result = Float.intBitsToFloat(registers[internalRegister1]) - Float.intBitsToFloat(registers[internalRegister2]);
-                    registers[internalRegister1] = Float.floatToIntBits(result);
-                    setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+                    subf(internalRegister1, internalRegister2);
                     break;
-                }
                 case 40://cmpf REG,REG
-                {
-                    readRegPointers();
-                    float x = Float.intBitsToFloat(registers[internalRegister1]);
-                    float y = Float.intBitsToFloat(registers[internalRegister2]);
-
-                    setFlags(x < y ? 1 : 0, ((x == y) ? 1 : 0), 0, 0);
+                    cmpf(internalRegister1, internalRegister2);
                     break;
-                }
                 case 41://mulf REG,REG
-                {
-                    readRegPointers();
-                    float result = Float.intBitsToFloat(registers[internalRegister1]) * Float.intBitsToFloat(registers[internalRegister2]);
-                    registers[internalRegister1] = Float.floatToIntBits(result);
-                    setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+                    mulf(internalRegister1, internalRegister2);
                     break;
-                }
                 case 42://mulf REG,REG
-                {
-                    readRegPointers();
-                    int x = registers[internalRegister1];
-                    int y = registers[internalRegister2];
-                    float result = Float.intBitsToFloat(x) / Float.intBitsToFloat(y);
-                    registers[internalRegister1] = Float.floatToIntBits(result);
-                    setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+                    divf(internalRegister1, internalRegister2);
                     break;
-                }
                 case 43://clearf FLAG
                 {
-                    readRegPointers();
                     setFlagValue(internalRegister1, 0);
                     break;
                 }
                 case 44://setf FLAG
                 {
-                    readRegPointers();
                     setFlagValue(internalRegister1, 1);
                     break;
                 }
                 case 45://not REG
-                {
-                    readRegPointers();
-                    int value = registers[internalRegister1];
-                    value = ~value;
-                    registers[internalRegister1] = value;
-                    updateNZ(value);
-                    overflowFlag = 0;
-                    carryFlag = 0;
+                    not(internalRegister1);
                     break;
-                }
                 case 46://calla POS32
                 {
-                    int newPosition = readMem32PC()&FINAL_ADDRESS;
+                    int newPosition = immediate&FINAL_ADDRESS;
                     int oldPc = registers[PC];
                     pushValue(oldPc);
                     registers[PC] = newPosition;
@@ -437,7 +442,7 @@ public class LoxProcessor {
                 }
                 case 47://call offset32
                 {
-                    int newPosition = readMem32PC();
+                    int newPosition = immediate;
                     int oldPc = registers[PC];
                     pushValue(oldPc);
                     registers[PC] = (oldPc + newPosition)&FINAL_ADDRESS;
@@ -445,7 +450,6 @@ public class LoxProcessor {
                 }
                 case 48://call REG
                 {
-                    readRegPointers();
                     int newPosition = registers[internalRegister1]&FINAL_ADDRESS;
                     pushValue(registers[PC]);
                     registers[PC] = newPosition;
@@ -459,7 +463,6 @@ public class LoxProcessor {
                 }
                 case 50://push reg
                 {
-                    readRegPointers();
                     if (internalRegister1 > 7) {
                         break;
                     }
@@ -468,7 +471,6 @@ public class LoxProcessor {
                 }
                 case 51://pop reg
                 {
-                    readRegPointers();
                     if (internalRegister1 > 7) {
                         break;
                     }
@@ -492,340 +494,565 @@ public class LoxProcessor {
                 }
                 case 55://interrupt
                 {
-                    int interruptIndex = readMem8PC();
+                    int interruptIndex = immediate;
                     executeInterrupt(interruptIndex);
+                    break;
+                }
+                case 57://iret
+                {
+                    int flags = popValue();
+                    registers[PC] = popValue() & FINAL_ADDRESS;
+                    setFlagFromByte(flags);
+                    break;
                 }
                 case 60://REG IMMEDIATE
                 {
-                    readRegPointers();
-                    int value = readMem32PC();
+                    int value = immediate;
                     registers[internalRegister1] = value;
                     break;
                 }
                 case 61://REG REG
                 {
-                    readRegPointers();
                     registers[internalRegister1] = registers[internalRegister2];
                     break;
                 }
                 case 62://MEM8 REG, REG:[REG*1]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister];
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 63://MEM8 REG, REG:[REG*2]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 2);
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 64://MEM8 REG, REG:[REG*4]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 4);
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 65://MEM8 REG, REG:[REG*1+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] + offset;
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 66://MEM8 REG, REG:[REG*2+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 67://MEM8 REG, REG:[REG*4+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
-                    registers[internalRegister1] = memoryController.getMem8(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load8(address&FINAL_ADDRESS);
                     break;
                 }
                 case 68://MEM8 REG:[REG*1],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
                 case 69://MEM8 REG:[REG*2],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
                 case 70://MEM8 REG:[REG*4],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
                 case 71://MEM8 REG:[REG*1+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1 + offset;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
                 case 72://MEM8 REG:[REG*2+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
                 case 73://MEM8 REG:[REG*4+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
-                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
+                    int offset = immediate;
+                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
+                    store8(address&FINAL_ADDRESS, (byte) registers[internalRegister1]);
                     break;
                 }
 
                 case 74://MEM16 REG, REG:[REG*1]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister];
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 75://MEM16 REG, REG:[REG*2]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 2);
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 76://MEM16 REG, REG:[REG*4]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 4);
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 77://MEM16 REG, REG:[REG*1+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] + offset;
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 78://MEM16 REG, REG:[REG*2+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 79://MEM16 REG, REG:[REG*4+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
-                    registers[internalRegister1] = memoryController.getMem16(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load16(address&FINAL_ADDRESS);
                     break;
                 }
                 case 80://MEM16 REG:[REG*1],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
                 case 81://MEM16 REG:[REG*2],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
                 case 82://MEM16 REG:[REG*4],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
                 case 83://MEM16 REG:[REG*1+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1 + offset;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
                 case 84://MEM16 REG:[REG*2+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
                 case 85://MEM16 REG:[REG*4+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
-                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
+                    int offset = immediate;
+                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
+                    store16(address&FINAL_ADDRESS, (short) registers[internalRegister1]);
                     break;
                 }
 
                 case 86://MEM32 REG, REG:[REG*1]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister];
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 87://MEM32 REG, REG:[REG*2]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 2);
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 88://MEM32 REG, REG:[REG*4]
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + (registers[internalIndexRegister] * 4);
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 89://MEM32 REG, REG:[REG*1+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] + offset;
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 90://MEM32 REG, REG:[REG*2+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 91://MEM32 REG, REG:[REG*4+offset32]
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
-                    registers[internalRegister1] = memoryController.getMem32(address&FINAL_ADDRESS);
+                    registers[internalRegister1] = load32(address&FINAL_ADDRESS);
                     break;
                 }
                 case 92://MEM32 REG:[REG*1],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
                 case 93://MEM32 REG:[REG*2],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
                 case 94://MEM32 REG:[REG*4],REG
                 {
-                    readRegPointers();
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 4;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
                 case 95://MEM32 REG:[REG*1+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 1 + offset;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
                 case 96://MEM32 REG:[REG*2+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
+                    int offset = immediate;
                     int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
                 case 97://MEM32 REG:[REG*4+offset32],REG
                 {
-                    readRegPointers();
-                    int offset = readMem32PC();
-                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 2 + offset;
-                    memoryController.setMem32(address&FINAL_ADDRESS, registers[internalRegister1]);
+                    int offset = immediate;
+                    int address = registers[internalRegister2] + registers[internalIndexRegister] * 4 + offset;
+                    store32(address&FINAL_ADDRESS, registers[internalRegister1]);
                     break;
                 }
             }
+        }
+        cyclesCount = cycles;
+        return executed;
+    }
 
-            if (interruptRequest > 0) {
-                int tInterruptRequest = interruptRequest;
-                interruptRequest = 0;
-                if (interruptEnableFlag == 1) {
-                    executeInterrupt(tInterruptRequest);
-                }
+    private void deliverInterrupt() {
+        if (interruptEnableFlag == 1 && interruptController.hasPendingInterrupts()) {
+            int interruptNumber = interruptController.acknowledge();
+            if (interruptNumber != -1) {
+                executeInterrupt(interruptNumber);
+            }
+        }
+    }
+
+    /**
+     * Counts entries to the jump target, compiles it when it becomes hot, and
+     * executes compiled block if there is one and it is not longer than
+     * maxInstructions and maxCycles
+     *
+     * @return executed block, or null if the instruction at pc should be
+     * interpreted
+     */
+    private CompiledBlock executeCompiledBlock(int pc, int maxInstructions, long maxCycles) {
+        int slot = pc & COMPILED_BLOCKS_CACHE_MASK;
+        CompiledBlock block = compiledBlocks[slot];
+        if (block == null || block.getStartPc() != pc) {
+            if (++jumpTargetHits[slot] < JIT_THRESHOLD) {
+                return null;
+            }
+
+            block = blockCompiler.compile(this, pc);
+            if (block == null) {
+                //instruction at the target cannot be compiled, do not try it again soon
+                jumpTargetHits[slot] = Integer.MIN_VALUE;
+                return null;
+            }
+            jumpTargetHits[slot] = 0;
+            compiledBlocks[slot] = block;
+            int lastPage = (block.getEndPc() - 1) >>> MemoryController.PAGE_BITS;
+            for (int page = block.getStartPc() >>> MemoryController.PAGE_BITS; page <= lastPage; page++) {
+                markSlot(getPageSlots(page).compiled, slot);
             }
         }
+        if (block.getInstructionsCount() > maxInstructions || block.getCyclesCount() > maxCycles) {
+            return null;
+        }
+
+        registers[PC] = block.execute();
+        return block;
+    }
+
+    /**
+     * @return true if conditional jump with the opcode should be taken
+     */
+    boolean isConditionMet(int opcode) {
+        switch (opcode) {
+            case 3://JZ
+                return getZeroFlag() == 1;
+            case 4://JNZ
+                return getZeroFlag() == 0;
+            case 5://JG
+                return getZeroFlag() == 0 && getNegativeFlag() == 0;
+            case 6://JGE
+                return getNegativeFlag() == 0;
+            case 7://JL
+                return getNegativeFlag() == 1;
+            case 8://JLE
+                return getZeroFlag() == 1 || getNegativeFlag() == 1;
+            case 9://JGU
+                return getCarryFlag() == 0 || getZeroFlag() == 0;
+            case 10://JGEU
+                return getCarryFlag() == 0;
+            case 11://JLU
+                return getCarryFlag() == 1;
+            case 12://JLEU
+                return getCarryFlag() == 1 || getZeroFlag() == 1;
+            case 13://JO
+                return getOverflowFlag() == 1;
+            case 14://JNO
+                return getOverflowFlag() == 0;
+            default:
+                return false;
+        }
+    }
+
+    void add(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & (long) 0xFFFFFFFF + y & (long) 0xFFFFFFFF);
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void addc(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & ((long) 0xFFFFFFFF) + y & (long) 0xFFFFFFFF) + getCarryFlag();
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void sub(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF);
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void subc(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF) - ((getCarryFlag() == 0) ? 1 : 0);
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void cmp(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF);
+        setArithmeticFlags(x, y, result);
+    }
+
+    void mul(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = x * y;
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void mulu(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (x & (long) 0xFFFFFFFF) * (y & (long) 0xFFFFFFFF);
+        setArithmeticFlags(x, y, result);
+        registers[reg1] = (int) result;
+    }
+
+    void div(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = x / y;
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void divu(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        long result = (long) (x & ((long) 0xFFFFFFFF) / y & (long) 0xFFFFFFFF);
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void rem(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x % y;
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void and(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x & y;
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void or(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x | y;
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void xor(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x ^ y;
+        setLogicFlags(result);
+        registers[reg1] = (int) result;
+    }
+
+    void shr(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x >>> y;
+        setShiftFlags(result, x, y - 1);
+        registers[reg1] = (int) result;
+    }
+
+    void sar(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x >> y;
+        setShiftFlags(result, x, y - 1);
+        registers[reg1] = (int) result;
+    }
+
+    void shl(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        int result = x << y;
+        setShiftFlags(result, x, y + 1);
+        registers[reg1] = (int) result;
+    }
+
+    void rol(int reg1, int reg2) {
+        int result = Integer.rotateLeft(registers[reg1], registers[reg2]);
+        registers[reg1] = result;
+        setLogicFlags(result);
+    }
+
+    void ror(int reg1, int reg2) {
+        int result = Integer.rotateRight(registers[reg1], registers[reg2]);
+        registers[reg1] = result;
+        setLogicFlags(result);
+    }
+
+    void addf(int reg1, int reg2) {
+        float result = Float.intBitsToFloat(registers[reg1]) + Float.intBitsToFloat(registers[reg2]);
+        registers[reg1] = Float.floatToIntBits(result);
+        setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+    }
+
+    void subf(int reg1, int reg2) {
+        float result = Float.intBitsToFloat(registers[reg1]) - Float.intBitsToFloat(registers[reg2]);
+        registers[reg1] = Float.floatToIntBits(result);
+        setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+    }
+
+    void cmpf(int reg1, int reg2) {
+        float x = Float.intBitsToFloat(registers[reg1]);
+        float y = Float.intBitsToFloat(registers[reg2]);
+
+        setFlags(x < y ? 1 : 0, ((x == y) ? 1 : 0), 0, 0);
+    }
+
+    void mulf(int reg1, int reg2) {
+        float result = Float.intBitsToFloat(registers[reg1]) * Float.intBitsToFloat(registers[reg2]);
+        registers[reg1] = Float.floatToIntBits(result);
+        setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+    }
+
+    void divf(int reg1, int reg2) {
+        int x = registers[reg1];
+        int y = registers[reg2];
+        float result = Float.intBitsToFloat(x) / Float.intBitsToFloat(y);
+        registers[reg1] = Float.floatToIntBits(result);
+        setFlags((result < 0 ? 1 : 0), 0, 0, 0);
+    }
+
+    void not(int reg1) {
+        int value = registers[reg1];
+        value = ~value;
+        registers[reg1] = value;
+        setLogicFlags(value);
     }
 
     private void pushValue(int value) {
         registers[SP] += 4;
-        memoryController.setMem32(registers[SP], value);
+        store32(registers[SP], value);
         setFlags(0, 0, 0, 0);
     }
 
     private void pushValue(byte value) {
         registers[SP] += 1;
-        memoryController.setMem8(registers[SP], value);
+        store8(registers[SP], value);
         setFlags(0, 0, 0, 0);
     }
 
     private int popValue() {
-        int value = memoryController.getMem32(registers[SP]);
+        int value = load32(registers[SP]);
         registers[SP] -= 4;
         setFlags(0, 0, 0, 0);
         return value;
     }
 
     private int popByteValue() {
-        int value = memoryController.getMem8(registers[SP]);
+        int value = load8(registers[SP]);
         registers[SP] -= 1;
         setFlags(0, 0, 0, 0);
         return value;
     }
 
     private void setFlags(int n, int z, int o, int c) {
+        lazyFlagsKind = FLAGS_READY;
         negativeFlag = n;
         zeroFlag = z;
         overflowFlag = o;
         carryFlag = c;
     }
 
-    private void setFlagValue(int flagIndex, int value) {
+    void setFlagValue(int flagIndex, int value) {
+        materializeFlags();
         switch (flagIndex) {
             case 0:
                 zeroFlag = value;
@@ -840,63 +1067,490 @@ public class LoxProcessor {
                 negativeFlag = value;
                 break;
             case 4:
-                interruptEnableFlag = value;
+                setInterruptEnableFlag(value);
                 break;
         }
     }
 
-    private void updateOC(long x, long y, long result) {
-        carryFlag = (result > 0xFFFFFFFF) == false ? 0 : 1;
-        overflowFlag = (~(x ^ y) & (x ^ result) & 0x80000000) == 0 ? 0 : 1;
+    private void setInterruptEnableFlag(int value) {
+        if (value == 1 && interruptEnableFlag == 0) {
+            //pending interrupt may become deliverable
+            interruptController.requestCheck();
+        }
+        interruptEnableFlag = value;
+    }
+
+    private void setArithmeticFlags(int x, int y, long result) {
+        lazyFlagsKind = FLAGS_ARITHMETIC;
+        lazyX = x;
+        lazyY = y;
+        lazyResult = result;
+    }
+
+    private void setLogicFlags(long result) {
+        lazyFlagsKind = FLAGS_LOGIC;
+        lazyResult = result;
     }
 
-    private void updateNZ(long value) {
-        negativeFlag = (value & 0x80000000) == 0 ? 0 : 1;
-        zeroFlag = (value == 0) ? 1 : 0;
+    private void setShiftFlags(long result, int x, int carryBit) {
+        lazyFlagsKind = FLAGS_SHIFT;
+        lazyX = x;
+        lazyY = carryBit;
+        lazyResult = result;
     }
 
-    private void readRegPointers() {
-        int regInfo = memoryController.getMem8(registers[PC]++);
-        internalRegister1 = regInfo & 0b111;
-        internalRegister2 = (regInfo >> 3) & 0b111;
-        internalIndexRegister = (regInfo >> 6) & 0b11;
+    private int getZeroFlag() {
+        if (lazyFlagsKind == FLAGS_READY) {
+            return zeroFlag;
+        }
+        return (lazyResult == 0) ? 1 : 0;
     }
 
-    private int readMem32PC() {
-        int val = memoryController.getMem32(registers[PC]);
-        registers[PC] =(registers[PC]+ 4)&FINAL_ADDRESS;
-        
-        return val;
+    private int getNegativeFlag() {
+        if (lazyFlagsKind == FLAGS_READY) {
+            return negativeFlag;
+        }
+        return (lazyResult & 0x80000000) == 0 ? 0 : 1;
     }
 
-    private int readMem8PC() {
-        int val = memoryController.getMem8(registers[PC]);
-        registers[PC]=(registers[PC]+ 1)&FINAL_ADDRESS;
-        return val;
+    private int getCarryFlag() {
+        switch (lazyFlagsKind) {
+            case FLAGS_ARITHMETIC:
+                return (lazyResult > 0xFFFFFFFF) == false ? 0 : 1;
+            case FLAGS_LOGIC:
+                return 0;
+            case FLAGS_SHIFT:
+                return (lazyX >> lazyY) & 0x1;
+            default:
+                return carryFlag;
+        }
+    }
+
+    private int getOverflowFlag() {
+        switch (lazyFlagsKind) {
+            case FLAGS_ARITHMETIC:
+                long x = lazyX;
+                long y = lazyY;
+                return (~(x ^ y) & (x ^ lazyResult) & 0x80000000) == 0 ? 0 : 1;
+            case FLAGS_LOGIC:
+            case FLAGS_SHIFT:
+                return 0;
+            default:
+                return overflowFlag;
+        }
+    }
+
+    /**
+     * Computes pending flags of the last ALU operation and stores them to the
+     * flag fields
+     */
+    private void materializeFlags() {
+        if (lazyFlagsKind != FLAGS_READY) {
+            zeroFlag = getZeroFlag();
+            carryFlag = getCarryFlag();
+            overflowFlag = getOverflowFlag();
+            negativeFlag = getNegativeFlag();
+            lazyFlagsKind = FLAGS_READY;
+        }
+    }
+
+    private void decodeInstruction(int pc, int slot) {
+        int opcode = fetch8(pc) & 0xFF;
+        int length = 1;
+        int registersByte = 0;
+        if (HAS_REGISTERS_BYTE[opcode]) {
+            registersByte = fetch8((pc + length) & FINAL_ADDRESS) & 0xFF;
+            length++;
+        }
+
+        int immediate = 0;
+        int immediateAddress = (pc + length) & FINAL_ADDRESS;
+        switch (IMMEDIATE_SIZE[opcode]) {
+            case 1:
+                immediate = fetch8(immediateAddress) & 0xFF;
+                break;
+            case 2:
+                immediate = fetch16(immediateAddress);
+                break;
+            case 4:
+                immediate = fetch32(immediateAddress);
+                break;
+        }
+        length += IMMEDIATE_SIZE[opcode];
+
+        decodedPc[slot] = pc;
+        decodedInfo[slot] = opcode | registersByte << 8 | length << 16;
+        decodedImmediate[slot] = immediate;
+        int page = pc >>> MemoryController.PAGE_BITS;
+        int lastPage = ((pc + length - 1) & FINAL_ADDRESS) >>> MemoryController.PAGE_BITS;
+        memoryController.watchPage(page);
+        markSlot(getPageSlots(page).decoded, slot);
+        if (lastPage != page) {
+            memoryController.watchPage(lastPage);
+            markSlot(getPageSlots(lastPage).decoded, slot);
+        }
+    }
+
+    /**
+     * Drops decoded instructions and compiled blocks that were registered for
+     * the page. Instructions that cross page boundary are registered for both
+     * pages. Slots may have been reused by code from other pages since, so
+     * every slot is checked before it is dropped.
+     */
+    private void invalidateDecodedPage(int page) {
+        PageSlots slots = pageSlots.remove(page);
+        if (slots != null) {
+            for (int i = 0; i < slots.decoded.length; i++) {
+                for (long bits = slots.decoded[i]; bits != 0; bits &= bits - 1) {
+                    int slot = i << 6 | Long.numberOfTrailingZeros(bits);
+                    int decodedPage = decodedPc[slot] >>> MemoryController.PAGE_BITS;
+                    if (decodedPage == page || decodedPage == page - 1) {
+                        decodedPc[slot] = -1;
+                    }
+                }
+            }
+            if (compiledBlocks != null) {
+                for (int i = 0; i < slots.compiled.length; i++) {
+                    for (long bits = slots.compiled[i]; bits != 0; bits &= bits - 1) {
+                        int slot = i << 6 | Long.numberOfTrailingZeros(bits);
+                        CompiledBlock block = compiledBlocks[slot];
+                        if (block != null
+                                && (block.getStartPc() >>> MemoryController.PAGE_BITS) <= page
+                                && ((block.getEndPc() - 1) >>> MemoryController.PAGE_BITS) >= page) {
+                            block.invalidate();
+                            compiledBlocks[slot] = null;
+                        }
+                    }
+                }
+            }
+        }
+        memoryController.unwatchPage(page);
+        //written page may be replaced by the module, then fetch window shows old content
+        if (fetchWindowLength > 0
+                && (fetchWindowStart >>> MemoryController.PAGE_BITS) <= page
+                && ((fetchWindowStart + fetchWindowLength - 1) >>> MemoryController.PAGE_BITS) >= page) {
+            fetchWindowLength = 0;
+        }
+    }
+
+    public void flushDecodedInstructions() {
+        Arrays.fill(decodedPc, -1);
+        pageSlots.clear();
+        if (compiledBlocks != null) {
+            for (int i = 0; i < COMPILED_BLOCKS_CACHE_SIZE; i++) {
+                if (compiledBlocks[i] != null) {
+                    compiledBlocks[i].invalidate();
+                    compiledBlocks[i] = null;
+                }
+            }
+        }
+    }
+
+    private PageSlots getPageSlots(int page) {
+        PageSlots slots = pageSlots.get(page);
+        if (slots == null) {
+            slots = new PageSlots();
+            pageSlots.put(page, slots);
+        }
+        return slots;
+    }
+
+    private static void markSlot(long[] bitmap, int slot) {
+        bitmap[slot >>> 6] |= 1L << slot;
+    }
+
+    /**
+     * Bitmaps of decode cache and compiled blocks cache slots
+     */
+    private static class PageSlots {
+
+        final long[] decoded = new long[DECODE_CACHE_SIZE / 64];
+        final long[] compiled = new long[COMPILED_BLOCKS_CACHE_SIZE / 64];
+    }
+
+    /**
+     * @return compiled block that starts at pc, or null
+     */
+    CompiledBlock getCompiledBlock(int pc) {
+        if (compiledBlocks == null) {
+            return null;
+        }
+        CompiledBlock block = compiledBlocks[pc & COMPILED_BLOCKS_CACHE_MASK];
+        return block != null && block.getStartPc() == pc ? block : null;
+    }
+
+    int getDecodedInfo(int pc) {
+        int slot = pc & DECODE_CACHE_MASK;
+        if (decodedPc[slot] != pc) {
+            decodeInstruction(pc, slot);
+        }
+        return decodedInfo[slot];
+    }
+
+    int getDecodedImmediate(int pc) {
+        int slot = pc & DECODE_CACHE_MASK;
+        if (decodedPc[slot] != pc) {
+            decodeInstruction(pc, slot);
+        }
+        return decodedImmediate[slot];
+    }
+
+    static boolean hasRegistersByte(int opcode) {
+        return HAS_REGISTERS_BYTE[opcode];
+    }
+
+    int[] getRegisters() {
+        return registers;
+    }
+
+    private int fetch8(int address) {
+        int localAddress = address - fetchWindowStart;
+        if (localAddress >= 0 && localAddress < fetchWindowLength) {
+            return fetchWindow.get(localAddress);
+        }
+        moveFetchWindow(address);
+        return memoryController.getMem8(address);
+    }
+
+    private int fetch16(int address) {
+        int localAddress = address - fetchWindowStart;
+        if (localAddress >= 0 && localAddress <= fetchWindowLength - 2) {
+            return fetchWindow.getShort(localAddress);
+        }
+        moveFetchWindow(address);
+        return memoryController.getMem16(address);
+    }
+
+    private int fetch32(int address) {
+        int localAddress = address - fetchWindowStart;
+        if (localAddress >= 0 && localAddress <= fetchWindowLength - 4) {
+            return fetchWindow.getInt(localAddress);
+        }
+        moveFetchWindow(address);
+        return memoryController.getMem32(address);
+    }
+
+    private void moveFetchWindow(int address) {
+        MemMapping mapping = memoryController.findMapping(address);
+        ByteBuffer buffer = mapping == null ? null : mapping.getBuffer(address, false);
+        if (buffer == null) {
+            fetchWindow = null;
+            fetchWindowStart = 0;
+            fetchWindowLength = 0;
+            return;
+        }
+
+        fetchWindow = buffer;
+        fetchWindowStart = mapping.getBufferStart(address);
+        fetchWindowLength = mapping.getBufferEnd(address) - fetchWindowStart;
+    }
+
+    int load8(int address) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress < dataWindowLength) {
+            return dataWindow.get(localAddress);
+        }
+        moveDataWindow(address);
+        return memoryController.getMem8(address);
+    }
+
+    int load16(int address) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress <= dataWindowLength - 2) {
+            return dataWindow.getShort(localAddress);
+        }
+        moveDataWindow(address);
+        return memoryController.getMem16(address);
+    }
+
+    int load32(int address) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress <= dataWindowLength - 4) {
+            return dataWindow.getInt(localAddress);
+        }
+        moveDataWindow(address);
+        return memoryController.getMem32(address);
+    }
+
+    void store8(int address, int value) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress < dataWindowWritableLength) {
+            dataWindow.put(localAddress, (byte) value);
+            memoryController.notifyWrite(address, 1);
+            return;
+        }
+        //window is moved after the write, it may replace shared page of the module
+        memoryController.setMem8(address, value);
+        moveDataWindow(address);
+    }
+
+    void store16(int address, int value) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress <= dataWindowWritableLength - 2) {
+            dataWindow.putShort(localAddress, (short) value);
+            memoryController.notifyWrite(address, 2);
+            return;
+        }
+        //window is moved after the write, it may replace shared page of the module
+        memoryController.setMem16(address, value);
+        moveDataWindow(address);
+    }
+
+    void store32(int address, int value) {
+        int localAddress = address - dataWindowStart;
+        if (localAddress >= 0 && localAddress <= dataWindowWritableLength - 4) {
+            dataWindow.putInt(localAddress, value);
+            memoryController.notifyWrite(address, 4);
+            return;
+        }
+        //window is moved after the write, it may replace shared page of the module
+        memoryController.setMem32(address, value);
+        moveDataWindow(address);
+    }
+
+    private void moveDataWindow(int address) {
+        MemMapping mapping = memoryController.findMapping(address);
+        ByteBuffer buffer = mapping == null ? null : mapping.getBuffer(address, false);
+        if (buffer == null) {
+            dataWindow = null;
+            dataWindowStart = 0;
+            dataWindowLength = 0;
+            dataWindowWritableLength = 0;
+            return;
+        }
+
+        dataWindow = buffer;
+        dataWindowStart = mapping.getBufferStart(address);
+        dataWindowLength = mapping.getBufferEnd(address) - dataWindowStart;
+        dataWindowWritableLength = mapping.getBuffer(address, true) == null ? 0 : dataWindowLength;
+    }
+
+    /**
+     * Drops views of module memory cached by the processor. Should be called
+     * when modules replace their buffers, for example when pages become
+     * shared after fork
+     */
+    public void resetMemoryWindows() {
+        fetchWindow = null;
+        fetchWindowStart = 0;
+        fetchWindowLength = 0;
+        dataWindow = null;
+        dataWindowStart = 0;
+        dataWindowLength = 0;
+        dataWindowWritableLength = 0;
     }
 
     public void setMemoryController(MemoryController memoryController) {
         this.memoryController = memoryController;
+        memoryController.setPageWriteListener(this::invalidateDecodedPage);
+        moveFetchWindow(0);
+        moveDataWindow(0);
+        flushDecodedInstructions();
     }
 
     public void reset() {
+        flushDecodedInstructions();
         registers[PC] = 0x1000;
-        run = true;
+        halted = false;
         setFlagFromByte((byte) 0);
     }
 
+    /**
+     * Asks the processor to stop, {@link #execute(long)} returns
+     * {@link ExitReason#Halted} until {@link #reset()}. May be called from any
+     * thread
+     */
+    public void stop() {
+        halted = true;
+        interruptController.requestCheck();
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    public InterruptController getInterruptController() {
+        return interruptController;
+    }
+
+    public void setInterruptController(InterruptController interruptController) {
+        this.interruptController = interruptController;
+    }
+
+    /**
+     * @return number of instructions executed by {@link #execute(long)} since
+     * creation of the processor
+     */
+    public long getInstructionsCount() {
+        return instructionsCount;
+    }
+
+    /**
+     * @return number of cycles taken by instructions executed by
+     * {@link #execute(long)} since creation of the processor
+     */
+    public long getCyclesCount() {
+        return cyclesCount;
+    }
+
+    /**
+     * Writes registers, flags, instructions and cycles counters. Decoded and compiled
+     * instructions are not saved, they are rebuilt after restore
+     */
+    public void saveState(SnapshotOutput output) throws IOException {
+        for (int register : registers) {
+            output.writeInt(register);
+        }
+        output.writeByte(getFlagByte());
+        output.writeLong(instructionsCount);
+        output.writeLong(cyclesCount);
+        output.writeBoolean(halted);
+    }
+
+    public void loadState(SnapshotInput input) {
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = input.readInt();
+        }
+        setFlagFromByte(input.readByte());
+        instructionsCount = input.readLong();
+        cyclesCount = input.readLong();
+        halted = input.readBoolean();
+        breakpointReached = false;
+        flushDecodedInstructions();
+        moveFetchWindow(registers[PC]);
+        moveDataWindow(0);
+    }
+
     void setFlagFromByte(int value) {
+        lazyFlagsKind = FLAGS_READY;
         zeroFlag = value & 0b1;
         carryFlag = (value & 0b10) >> 1;
         overflowFlag = (value & 0b100) >> 2;
         negativeFlag = (value & 0b1000) >> 3;
-        interruptEnableFlag = (value & 0b10000) >> 4;
+        setInterruptEnableFlag((value & 0b10000) >> 4);
     }
 
     byte getFlagByte() {
+        materializeFlags();
         return (byte) (zeroFlag | carryFlag << 1 | overflowFlag << 2 | negativeFlag << 3 | interruptEnableFlag << 4);
     }
 
+    /**
+     * Calls handler from the vector table. PC and flags are pushed as words,
+     * because a byte pushed after a word would overwrite its second byte, and
+     * interrupts are disabled until the handler returns by iret. Interrupt
+     * without handler is ignored
+     */
     private void executeInterrupt(int interruptNumber) {
+        int vectorAddress = interruptController.getVectorTableAddress() + interruptNumber * 4;
+        int handler = load32(vectorAddress & FINAL_ADDRESS) & FINAL_ADDRESS;
+        if (handler == 0) {
+            return;
+        }
+        int flags = getFlagByte();
+        pushValue(registers[PC]);
+        pushValue(flags);
+        interruptEnableFlag = 0;
+        registers[PC] = handler;
     }
 }
@@ -0,0 +1,303 @@
+package com.lox01.processor;
+
+import com.lox01.memmanager.MemoryController;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Counts executed instructions of the processor it is attached to with
+ * {@link LoxProcessor#setProfiler(Profiler)}: hits of every instruction
+ * address, opcodes, call graph edges and loops.<br>
+ * Hits are counted in long arrays, one per 4kb page of code. Calls (opcodes
+ * 46-48) are kept on a shadow stack until ret (opcode 49), so edges connect
+ * entries of functions. Loop is a taken backward jump, its head is the target
+ * and its body is the range up to the jump.<br>
+ * Counting is done by the interpreter, compiled blocks are not used while the
+ * profiler is attached, so counts are exact. Detached profiler costs nothing.
+ * Profiler is used by the processor thread, read it while the computer is
+ * not executed.
+ *
+ * @author Dmitry
+ */
+public class Profiler {
+
+    private static final int MAX_CALL_DEPTH = 1024;
+    //index of PC in processor registers
+    private static final int PC = 6;
+    //function of code that is not called by call instruction
+    public static final int ROOT = -1;
+
+    private LoxProcessor processor;
+    private final Map<Integer, long[]> pageHits = new HashMap<>();
+    private int lastPage = -1;
+    private long[] lastPageHits;
+    private final long[] opcodeHits = new long[256];
+    private long instructionsCount;
+
+    private final int[] callStack = new int[MAX_CALL_DEPTH];
+    private int callDepth;
+    private final Map<Long, long[]> callEdges = new HashMap<>();
+
+    private int lastPc = -1;
+    private int lastOpcode = -1;
+    private int fallThroughPc = -1;
+    private final Map<Long, long[]> loopEdges = new HashMap<>();
+
+    void attach(LoxProcessor processor) {
+        this.processor = processor;
+        lastPc = -1;
+        fallThroughPc = -1;
+    }
+
+    /**
+     * Called by the interpreter before execution of the instruction
+     *
+     * @param nextPc address of the next instruction
+     */
+    void instructionExecuted(int pc, int opcode, int internalRegister1, int immediate, int nextPc) {
+        int page = pc >>> MemoryController.PAGE_BITS;
+        if (page != lastPage) {
+            lastPageHits = pageHits.computeIfAbsent(page, key -> new long[MemoryController.PAGE_SIZE]);
+            lastPage = page;
+        }
+        lastPageHits[pc & (MemoryController.PAGE_SIZE - 1)]++;
+        opcodeHits[opcode]++;
+        instructionsCount++;
+
+        //jumps 1-14 that went backward
+        if (pc != fallThroughPc && pc <= lastPc && lastOpcode >= 1 && lastOpcode <= 14) {
+            increment(loopEdges, (long) pc << 32 | (lastPc & 0xFFFFFFFFL));
+        }
+        int[] registers = processor.getRegisters();
+        lastPc = pc;
+        lastOpcode = opcode;
+        fallThroughPc = nextPc;
+
+        switch (opcode) {
+            case 46:
+                call(immediate & MemoryController.FINAL_ADDRESS);
+                break;
+            case 47:
+                call((fallThroughPc + immediate) & MemoryController.FINAL_ADDRESS);
+                break;
+            case 48:
+                //PC register reads as the next instruction
+                call((internalRegister1 == PC ? nextPc : registers[internalRegister1]) & MemoryController.FINAL_ADDRESS);
+                break;
+            case 49:
+                if (callDepth > 0) {
+                    callDepth--;
+                }
+                break;
+        }
+    }
+
+    private void call(int target) {
+        int caller = callDepth == 0 ? ROOT : callStack[Math.min(callDepth, MAX_CALL_DEPTH) - 1];
+        increment(callEdges, (long) caller << 32 | (target & 0xFFFFFFFFL));
+        //deeper calls are counted, but attributed to the deepest kept function
+        if (callDepth < MAX_CALL_DEPTH) {
+            callStack[callDepth] = target;
+        }
+        callDepth++;
+    }
+
+    private static void increment(Map<Long, long[]> counters, long key) {
+        long[] counter = counters.get(key);
+        if (counter == null) {
+            counter = new long[1];
+            counters.put(key, counter);
+        }
+        counter[0]++;
+    }
+
+    /**
+     * Drops collected counts
+     */
+    public void reset() {
+        pageHits.clear();
+        lastPage = -1;
+        lastPageHits = null;
+        Arrays.fill(opcodeHits, 0);
+        instructionsCount = 0;
+        callDepth = 0;
+        callEdges.clear();
+        loopEdges.clear();
+        lastPc = -1;
+        lastOpcode = -1;
+        fallThroughPc = -1;
+    }
+
+    public long getInstructionsCount() {
+        return instructionsCount;
+    }
+
+    /**
+     * @return executions of the instruction that starts at the address
+     */
+    public long getHits(int address) {
+        long[] hits = pageHits.get(address >>> MemoryController.PAGE_BITS);
+        return hits == null ? 0 : hits[address & (MemoryController.PAGE_SIZE - 1)];
+    }
+
+    public long getOpcodeHits(int opcode) {
+        return opcodeHits[opcode];
+    }
+
+    /**
+     * @return addresses of executed instructions, sorted by hits descending
+     */
+    public List<Counter> getHotAddresses(int maxCount) {
+        List<Counter> result = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> entry : pageHits.entrySet()) {
+            long[] hits = entry.getValue();
+            int pageStart = entry.getKey() << MemoryController.PAGE_BITS;
+            for (int i = 0; i < hits.length; i++) {
+                if (hits[i] != 0) {
+                    result.add(new Counter(pageStart + i, pageStart + i, hits[i]));
+                }
+            }
+        }
+        return top(result, maxCount);
+    }
+
+    /**
+     * @return call edges, from is the entry of calling function or
+     * {@link #ROOT}, to is the called address
+     */
+    public List<Counter> getCallEdges(int maxCount) {
+        return top(toCounters(callEdges), maxCount);
+    }
+
+    /**
+     * @return loops, from is the head and to is the backward jump, sorted by
+     * iterations descending
+     */
+    public List<Counter> getLoops(int maxCount) {
+        return top(toCounters(loopEdges), maxCount);
+    }
+
+    /**
+     * @return executed instructions inside the address range, inclusive
+     */
+    public long getRangeHits(int from, int to) {
+        long sum = 0;
+        for (int page = from >>> MemoryController.PAGE_BITS; page <= to >>> MemoryController.PAGE_BITS; page++) {
+            long[] hits = pageHits.get(page);
+            if (hits == null) {
+                continue;
+            }
+            int pageStart = page << MemoryController.PAGE_BITS;
+            int start = Math.max(from, pageStart) - pageStart;
+            int end = Math.min(to, pageStart + MemoryController.PAGE_SIZE - 1) - pageStart;
+            for (int i = start; i <= end; i++) {
+                sum += hits[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Writes hot addresses, hot loops, opcodes histogram and call graph edges
+     *
+     * @param source describes the source line of the address, for example
+     * {@code address -> sourceMap.describe(address - loadAddress)}, may return
+     * null
+     */
+    public String getReport(int maxLines, IntFunction<String> source) {
+        StringBuilder report = new StringBuilder();
+        report.append("Instructions: ").append(instructionsCount).append('\n');
+
+        report.append("\nHot addresses:\n");
+        for (Counter counter : getHotAddresses(maxLines)) {
+            report.append(String.format("  %08x %12d %6.2f%%", counter.getFrom(), counter.getCount(), percent(counter.getCount())));
+            appendSource(report, source, counter.getFrom());
+        }
+
+        report.append("\nHot loops (head..jump, iterations, instructions):\n");
+        List<Counter> loops = getLoops(Integer.MAX_VALUE);
+        loops.sort((a, b) -> Long.compare(getRangeHits(b.getFrom(), b.getTo()), getRangeHits(a.getFrom(), a.getTo())));
+        for (Counter loop : loops.subList(0, Math.min(maxLines, loops.size()))) {
+            long hits = getRangeHits(loop.getFrom(), loop.getTo());
+            report.append(String.format("  %08x..%08x %12d %12d %6.2f%%", loop.getFrom(), loop.getTo(), loop.getCount(), hits, percent(hits)));
+            appendSource(report, source, loop.getFrom());
+        }
+
+        report.append("\nOpcodes:\n");
+        List<Counter> opcodes = new ArrayList<>();
+        for (int opcode = 0; opcode < opcodeHits.length; opcode++) {
+            if (opcodeHits[opcode] != 0) {
+                opcodes.add(new Counter(opcode, opcode, opcodeHits[opcode]));
+            }
+        }
+        for (Counter counter : top(opcodes, Integer.MAX_VALUE)) {
+            report.append(String.format("  %3d %12d %6.2f%%%n", counter.getFrom(), counter.getCount(), percent(counter.getCount())));
+        }
+
+        report.append("\nCalls (caller -> callee, count):\n");
+        for (Counter edge : getCallEdges(maxLines)) {
+            String caller = edge.getFrom() == ROOT ? "root    " : String.format("%08x", edge.getFrom());
+            report.append(String.format("  %s -> %08x %12d", caller, edge.getTo(), edge.getCount()));
+            appendSource(report, source, edge.getTo());
+        }
+        return report.toString();
+    }
+
+    private double percent(long count) {
+        return instructionsCount == 0 ? 0 : count * 100.0 / instructionsCount;
+    }
+
+    private static void appendSource(StringBuilder report, IntFunction<String> source, int address) {
+        String line = source == null ? null : source.apply(address);
+        if (line != null) {
+            report.append("  ").append(line);
+        }
+        report.append('\n');
+    }
+
+    private static List<Counter> toCounters(Map<Long, long[]> counters) {
+        List<Counter> result = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : counters.entrySet()) {
+            long key = entry.getKey();
+            result.add(new Counter((int) (key >> 32), (int) key, entry.getValue()[0]));
+        }
+        return result;
+    }
+
+    private static List<Counter> top(List<Counter> counters, int maxCount) {
+        counters.sort((a, b) -> a.getCount() != b.getCount() ? Long.compare(b.getCount(), a.getCount()) : Integer.compare(a.getFrom(), b.getFrom()));
+        return counters.size() > maxCount ? new ArrayList<>(counters.subList(0, maxCount)) : counters;
+    }
+
+    /**
+     * Count of an address, an edge or an address range
+     */
+    public static class Counter {
+
+        private final int from;
+        private final int to;
+        private final long count;
+
+        public Counter(int from, int to, long count) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.lox01.replay;
+
+import com.lox01.Computer;
+import com.lox01.interrupt.AcknowledgeListener;
+import com.lox01.memmanager.DeviceReadInterceptor;
+import com.lox01.memmanager.MemMapping;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes external events of the computer execution to a binary log, so the
+ * execution can be repeated by {@link ExecutionReplayer}. Everything else the
+ * guest sees is computed from the state the record started from, so only two
+ * kinds of events are recorded: values the guest reads from memory mapped
+ * devices, and interrupts with the instruction count at which the processor
+ * took them.<br>
+ * Log starts with magic, version and instruction count of the processor,
+ * followed by events. Event is a tag byte and unsigned LEB128 varints:
+ * <ul>
+ * <li>device read: tag is access size 1, 2 or 4, zigzag delta of the guest
+ * address from the previous read, zigzag value</li>
+ * <li>{@link #EVENT_INTERRUPT}: instructions since the previous interrupt,
+ * interrupt number</li>
+ * <li>{@link #EVENT_END}: instructions since the previous interrupt</li>
+ * </ul>
+ * Reads are ordered by the guest execution, so they do not need instruction
+ * counts. Polling of device register takes 3 bytes per read, and events are
+ * collected in a small buffer that is written to the stream when it is full.
+ * Only reads done inside {@link Computer#execute(long)} are recorded, host
+ * code should not read devices from other threads while the computer is
+ * executed.
+ *
+ * @author Dmitry
+ */
+public class ExecutionRecorder implements DeviceReadInterceptor, AcknowledgeListener {
+
+    public static final int MAGIC = 0x4C4F5852;//LOXR
+    public static final int VERSION = 1;
+    static final int EVENT_INTERRUPT = 8;
+    static final int EVENT_END = 9;
+    private static final int BUFFER_SIZE = 8192;
+    //tag and two varints of at most 10 bytes
+    private static final int MAX_EVENT_SIZE = 21;
+
+    private final Computer computer;
+    private final OutputStream output;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private long lastCount;
+    private int lastAddress;
+    private long eventsCount;
+    private long bytesCount;
+    private boolean finished;
+
+    /**
+     * Writes the header of the log. Hooks of the computer are set by
+     * {@link Computer#startRecording(OutputStream)}
+     */
+    public ExecutionRecorder(Computer computer, OutputStream output) {
+        this.computer = computer;
+        this.output = output;
+        lastCount = computer.getProcessor().getInstructionsCount();
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        writeVarLong(lastCount);
+    }
+
+    @Override
+    public int read(MemMapping mapping, int localAddress, int size) {
+        int value = mapping.read(localAddress, size);
+        if (computer.isExecuting() && !finished) {
+            int address = mapping.getStartAddress() + localAddress;
+            ensureSpace();
+            buffer[position++] = (byte) size;
+            writeVarLong(zigzag(address - lastAddress));
+            writeVarLong(zigzag(value));
+            lastAddress = address;
+            eventsCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public void interruptAcknowledged(int interruptNumber) {
+        if (finished) {
+            return;
+        }
+        long count = computer.getProcessor().getInstructionsCount();
+        ensureSpace();
+        buffer[position++] = EVENT_INTERRUPT;
+        writeVarLong(count - lastCount);
+        writeVarLong(interruptNumber);
+        lastCount = count;
+        eventsCount++;
+    }
+
+    /**
+     * Writes the end of the log at current instruction and flushes the
+     * stream, the stream is not closed
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        long count = computer.getProcessor().getInstructionsCount();
+        ensureSpace();
+        buffer[position++] = EVENT_END;
+        writeVarLong(count - lastCount);
+        finished = true;
+        flushBuffer();
+        try {
+            output.flush();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot write execution log", ex);
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public long getEventsCount() {
+        return eventsCount;
+    }
+
+    /**
+     * @return size of the log written so far, including buffered events
+     */
+    public long getBytesCount() {
+        return bytesCount + position;
+    }
+
+    private void ensureSpace() {
+        if (position > BUFFER_SIZE - MAX_EVENT_SIZE) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() {
+        try {
+            output.write(buffer, 0, position);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot write execution log", ex);
+        }
+        bytesCount += position;
+        position = 0;
+    }
+
+    private void writeInt(int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,241 @@
+package com.lox01.replay;
+
+import com.lox01.Computer;
+import com.lox01.interrupt.AcknowledgeListener;
+import com.lox01.memmanager.DeviceReadInterceptor;
+import com.lox01.memmanager.MemMapping;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Repeats the execution recorded by {@link ExecutionRecorder}. Device reads
+ * of the guest are served from the log without reading devices, interrupts
+ * of modules and other threads are dropped, and recorded interrupts are
+ * raised when the processor reaches their instruction counts.
+ * {@link Computer#execute(long)} stops the processor at these instructions
+ * the same way as at module ticks.<br>
+ * Log is read as a stream. Reads are buffered only until the next interrupt
+ * is found, because the processor has to know where to stop before it
+ * executes the reads. Execution that does not match the log fails with
+ * {@link IllegalStateException}.
+ *
+ * @author Dmitry
+ */
+public class ExecutionReplayer implements DeviceReadInterceptor, AcknowledgeListener {
+
+    private static final int NO_EVENT = -1;
+
+    private final Computer computer;
+    private final DataInputStream input;
+    private long lastCount;
+    private int lastAddress;
+    //reads before the next interrupt, by size, address and value
+    private int[] reads = new int[3 * 64];
+    private int readsHead;
+    private int readsTail;
+    //next interrupt or end of the log, NO_EVENT if the log is truncated
+    private int nextEvent = NO_EVENT;
+    private long nextEventCount;
+    private int nextInterruptNumber;
+    private boolean nextEventLoaded;
+    private boolean interruptRaised;
+    private boolean finished;
+    private long eventsCount;
+
+    /**
+     * Reads the header of the log. Hooks of the computer are set by
+     * {@link Computer#startReplay(InputStream)}
+     *
+     * @throws IllegalArgumentException if the stream is not execution log, or
+     * the processor is not at the instruction the record started from
+     */
+    public ExecutionReplayer(Computer computer, InputStream input) {
+        this.computer = computer;
+        this.input = new DataInputStream(new BufferedInputStream(input));
+        try {
+            int magic = this.input.readInt();
+            if (magic != ExecutionRecorder.MAGIC) {
+                throw new IllegalArgumentException("Not an execution log, magic " + Integer.toHexString(magic));
+            }
+            int version = this.input.readInt();
+            if (version != ExecutionRecorder.VERSION) {
+                throw new IllegalArgumentException("Unsupported execution log version " + version);
+            }
+            lastCount = readVarLong();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Cannot read execution log header", ex);
+        }
+        long count = computer.getProcessor().getInstructionsCount();
+        if (count != lastCount) {
+            throw new IllegalArgumentException("Log starts at instruction " + lastCount + ", but the processor is at " + count);
+        }
+    }
+
+    /**
+     * Raises the recorded interrupt if the processor reached its instruction.
+     * Called before every processor execution
+     *
+     * @return number of instructions the processor may execute before the
+     * next recorded event
+     */
+    public long prepareExecution() {
+        long count = computer.getProcessor().getInstructionsCount();
+        if (interruptRaised) {
+            throw divergence("interrupt " + nextInterruptNumber + " was not taken at instruction " + nextEventCount);
+        }
+        loadNextEvent();
+        if (nextEvent == NO_EVENT || finished) {
+            return Long.MAX_VALUE;
+        }
+        if (count > nextEventCount) {
+            throw divergence("processor passed instruction " + nextEventCount);
+        }
+        if (count < nextEventCount) {
+            return nextEventCount - count;
+        }
+
+        if (readsHead != readsTail) {
+            throw divergence((readsTail - readsHead) / 3 + " device reads were not done before instruction " + count);
+        }
+        if (nextEvent == ExecutionRecorder.EVENT_INTERRUPT) {
+            //processor takes it at the start of the next execution
+            computer.getInterruptController().forceRaise(nextInterruptNumber);
+            interruptRaised = true;
+        } else {
+            finished = true;
+        }
+        return 0;
+    }
+
+    /**
+     * @return true when the processor reached the end of the log
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return events replayed so far
+     */
+    public long getEventsCount() {
+        return eventsCount;
+    }
+
+    @Override
+    public int read(MemMapping mapping, int localAddress, int size) {
+        if (!computer.isExecuting() || finished) {
+            return mapping.read(localAddress, size);
+        }
+        int address = mapping.getStartAddress() + localAddress;
+        if (readsHead == readsTail) {
+            loadNextEvent();
+        }
+        if (readsHead == readsTail) {
+            if (nextEvent == NO_EVENT) {
+                throw new IllegalStateException("Execution log ended before read of " + Integer.toHexString(address));
+            }
+            throw divergence("read of " + Integer.toHexString(address) + " before instruction " + nextEventCount);
+        }
+
+        int recordedSize = reads[readsHead];
+        int recordedAddress = reads[readsHead + 1];
+        int value = reads[readsHead + 2];
+        readsHead += 3;
+        if (recordedSize != size || recordedAddress != address) {
+            throw divergence(size + " byte read of " + Integer.toHexString(address) + ", but log has "
+                    + recordedSize + " byte read of " + Integer.toHexString(recordedAddress));
+        }
+        eventsCount++;
+        return value;
+    }
+
+    @Override
+    public void interruptAcknowledged(int interruptNumber) {
+        long count = computer.getProcessor().getInstructionsCount();
+        if (!interruptRaised || interruptNumber != nextInterruptNumber || count != nextEventCount) {
+            throw divergence("interrupt " + interruptNumber + " taken at instruction " + count);
+        }
+        interruptRaised = false;
+        nextEventLoaded = false;
+        eventsCount++;
+    }
+
+    /**
+     * Reads the log up to the next interrupt or the end, and buffers reads
+     * that precede it
+     */
+    private void loadNextEvent() {
+        if (nextEventLoaded) {
+            return;
+        }
+        try {
+            while (true) {
+                int tag = input.readUnsignedByte();
+                if (tag == ExecutionRecorder.EVENT_INTERRUPT || tag == ExecutionRecorder.EVENT_END) {
+                    nextEventCount = lastCount + readVarLong();
+                    lastCount = nextEventCount;
+                    if (tag == ExecutionRecorder.EVENT_INTERRUPT) {
+                        nextInterruptNumber = (int) readVarLong();
+                    }
+                    nextEvent = tag;
+                    nextEventLoaded = true;
+                    return;
+                }
+                if (tag != 1 && tag != 2 && tag != 4) {
+                    throw new IllegalArgumentException("Unknown execution log event " + tag);
+                }
+                lastAddress += unzigzag(readVarLong());
+                addRead(tag, lastAddress, unzigzag(readVarLong()));
+            }
+        } catch (EOFException ex) {
+            //log of the process that was killed while recording
+            nextEvent = NO_EVENT;
+            nextEventLoaded = true;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read execution log", ex);
+        }
+    }
+
+    private void addRead(int size, int address, int value) {
+        if (readsHead == readsTail) {
+            readsHead = 0;
+            readsTail = 0;
+        } else if (readsTail == reads.length) {
+            if (readsHead > 0) {
+                System.arraycopy(reads, readsHead, reads, 0, readsTail - readsHead);
+                readsTail -= readsHead;
+                readsHead = 0;
+            } else {
+                reads = Arrays.copyOf(reads, reads.length * 2);
+            }
+        }
+        reads[readsTail++] = size;
+        reads[readsTail++] = address;
+        reads[readsTail++] = value;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in execution log");
+    }
+
+    private static int unzigzag(long value) {
+        int bits = (int) value;
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    private static IllegalStateException divergence(String message) {
+        return new IllegalStateException("Replay diverged from the log: " + message);
+    }
+}
@@ -0,0 +1,147 @@
+package com.lox01.scheduler;
+
+import com.lox01.Computer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many computers on a fixed pool of worker threads.<br>
+ * Every computer executes in quanta of {@link #getQuantum()} instructions.
+ * After a quantum the next one is forked to the local queue of the worker, so
+ * machines of one worker run in turns, and idle workers steal machines from
+ * busy ones. One computer is executed by at most one thread at a time.<br>
+ * Workers with non-empty local queue do not take tasks submitted from outside
+ * the pool, so new computers are put to pending queue, and are adopted by
+ * workers when they finish quanta.<br>
+ * Computer with {@link Computer#setClockFrequency(long)} executes at most the
+ * cycles its clock allows. When it is ahead of the clock it is put aside and
+ * scheduled again by a timer, so workers do not sleep and a farm of slow
+ * computers does not burn host threads.
+ *
+ * @author Dmitry
+ */
+public class ComputerScheduler {
+
+    public static final long DEFAULT_QUANTUM = 100_000;
+
+    private final ForkJoinPool pool;
+    private final long quantum;
+    private final ConcurrentLinkedQueue<ScheduledComputer> computers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ScheduledComputer> pendingComputers = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ComputerScheduler timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean shutdown;
+
+    public ComputerScheduler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUANTUM);
+    }
+
+    public ComputerScheduler(int threadsCount, long quantum) {
+        if (threadsCount <= 0) {
+            throw new IllegalArgumentException("Threads count should be positive, but was " + threadsCount);
+        }
+        if (quantum <= 0) {
+            throw new IllegalArgumentException("Quantum should be positive, but was " + quantum);
+        }
+        this.quantum = quantum;
+        //async mode keeps local queues FIFO, so machines of a worker are executed round robin
+        this.pool = new ForkJoinPool(threadsCount, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Starts execution of the computer from its current state
+     */
+    public ScheduledComputer submit(Computer computer) {
+        if (shutdown) {
+            throw new IllegalStateException("Scheduler is shut down");
+        }
+        ScheduledComputer scheduledComputer = new ScheduledComputer(this, computer);
+        computers.add(scheduledComputer);
+        schedule(scheduledComputer);
+        return scheduledComputer;
+    }
+
+    /**
+     * @return all submitted computers, including stopped ones
+     */
+    public List<ScheduledComputer> getComputers() {
+        return new ArrayList<>(computers);
+    }
+
+    /**
+     * Forgets stopped computer, so it is not reported by
+     * {@link #getComputers()}
+     */
+    public void remove(ScheduledComputer computer) {
+        computers.remove(computer);
+    }
+
+    /**
+     * Stops scheduling of new quanta, running quanta are finished
+     */
+    public void shutdown() {
+        shutdown = true;
+        timer.shutdownNow();
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public long getQuantum() {
+        return quantum;
+    }
+
+    public int getThreadsCount() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Schedules the computer from any thread
+     */
+    void schedule(ScheduledComputer computer) {
+        pendingComputers.add(computer);
+        //wakes up idle worker if there is one
+        pool.execute(this::forkPendingComputer);
+    }
+
+    /**
+     * Schedules the computer after the delay
+     */
+    void scheduleLater(ScheduledComputer computer, long delayNanos) {
+        try {
+            timer.schedule(() -> {
+                if (!shutdown) {
+                    schedule(computer);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            //scheduler is shut down
+        }
+    }
+
+    /**
+     * Moves one pending computer to the local queue of current worker. Workers
+     * finish quanta at the same rate, so new computers are spread evenly
+     */
+    void forkPendingComputer() {
+        ScheduledComputer computer = pendingComputers.poll();
+        if (computer != null) {
+            computer.fork();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.lox01.scheduler;
+
+import com.lox01.ClockThrottle;
+import com.lox01.Computer;
+import com.lox01.processor.ExitReason;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Computer executed by {@link ComputerScheduler}, and its execution
+ * statistics
+ *
+ * @author Dmitry
+ */
+public class ScheduledComputer {
+
+    public static enum State {
+        Running, Paused, Halted, Failed
+    }
+
+    private final ComputerScheduler scheduler;
+    private final Computer computer;
+    private final long startInstructionsCount;
+    private final long submitNanos;
+    private volatile State state = State.Running;
+    private volatile long instructionsCount;
+    private volatile long executionNanos;
+    private volatile long stopNanos;
+    private volatile RuntimeException failure;
+
+    ScheduledComputer(ComputerScheduler scheduler, Computer computer) {
+        this.scheduler = scheduler;
+        this.computer = computer;
+        this.startInstructionsCount = computer.getProcessor().getInstructionsCount();
+        this.submitNanos = System.nanoTime();
+    }
+
+    /**
+     * Forks the next quantum to the queue of current worker thread
+     */
+    void fork() {
+        ForkJoinTask.adapt(this::executeQuantum).fork();
+    }
+
+    private void executeQuantum() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        ExitReason reason;
+        try {
+            long maxCycles = Long.MAX_VALUE;
+            ClockThrottle throttle = computer.getClockThrottle();
+            if (throttle != null) {
+                long cycles = computer.getProcessor().getCyclesCount();
+                maxCycles = throttle.getAllowedCycles(cycles);
+                if (maxCycles == 0) {
+                    scheduler.forkPendingComputer();
+                    scheduler.scheduleLater(this, throttle.getAheadNanos(cycles));
+                    return;
+                }
+            }
+
+            //interrupts are delivered in the same quantum, without waiting in the queue
+            long endInstruction = computer.getProcessor().getInstructionsCount() + scheduler.getQuantum();
+            long endCycle = maxCycles == Long.MAX_VALUE ? Long.MAX_VALUE : computer.getProcessor().getCyclesCount() + maxCycles;
+            do {
+                reason = computer.execute(endInstruction - computer.getProcessor().getInstructionsCount(),
+                        endCycle - computer.getProcessor().getCyclesCount());
+            } while (reason == ExitReason.InterruptPending && computer.getProcessor().getInstructionsCount() < endInstruction
+                    && computer.getProcessor().getCyclesCount() < endCycle);
+        } catch (RuntimeException ex) {
+            failure = ex;
+            reason = null;
+        }
+        long end = System.nanoTime();
+        executionNanos += end - start;
+        instructionsCount = computer.getProcessor().getInstructionsCount() - startInstructionsCount;
+
+        scheduler.forkPendingComputer();
+        if (reason == null) {
+            stopNanos = end;
+            state = State.Failed;
+        } else if (reason == ExitReason.Halted) {
+            stopNanos = end;
+            state = State.Halted;
+        } else if (reason == ExitReason.Breakpoint) {
+            state = State.Paused;
+        } else {
+            //next quantum goes to the end of the local queue of this worker
+            fork();
+        }
+    }
+
+    /**
+     * Continues execution of computer paused on breakpoint
+     */
+    public void resume() {
+        if (state != State.Paused) {
+            throw new IllegalStateException("Computer is not paused, state " + state);
+        }
+        state = State.Running;
+        scheduler.schedule(this);
+    }
+
+    /**
+     * Stops the computer after current quantum
+     */
+    public void stop() {
+        computer.getProcessor().stop();
+        if (state == State.Paused) {
+            stopNanos = System.nanoTime();
+            state = State.Halted;
+        }
+    }
+
+    public Computer getComputer() {
+        return computer;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return exception thrown by the computer if state is
+     * {@link State#Failed}
+     */
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return instructions executed since submit
+     */
+    public long getInstructionsCount() {
+        return instructionsCount;
+    }
+
+    /**
+     * @return time spent by worker threads executing this computer
+     */
+    public long getExecutionNanos() {
+        return executionNanos;
+    }
+
+    /**
+     * @return average speed since submit, measured by wall clock time. It is
+     * the share of the host this computer gets
+     */
+    public double getInstructionsPerSecond() {
+        long end = stopNanos != 0 ? stopNanos : System.nanoTime();
+        long elapsed = Math.max(1, end - submitNanos);
+        return instructionsCount * 1e9 / elapsed;
+    }
+
+    /**
+     * @return speed of the computer while it was executed, without time
+     * waiting in queue
+     */
+    public double getExecutionInstructionsPerSecond() {
+        return instructionsCount * 1e9 / Math.max(1, executionNanos);
+    }
+}
@@ -0,0 +1,158 @@
+package com.lox01.snapshot;
+
+import com.lox01.Computer;
+import com.lox01.memmanager.MemMapping;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Saves and restores complete state of the computer: processor, interrupt
+ * controller, requested ticks and state of every module.<br>
+ * Snapshot does not describe the configuration, it is restored to a computer
+ * with the same modules inserted in the same order, so module classes,
+ * mappings and sizes are checked. If the check fails in the middle, the
+ * computer is left partially restored and should be reset.<br>
+ * Format: magic, version, processor, interrupt controller, mappings, modules
+ * and ticks. Memory is written by 4kb pages, zero pages are skipped and other
+ * pages are optionally deflated.
+ *
+ * @author Dmitry
+ */
+public class ComputerSnapshot {
+
+    private static final int MAGIC = 0x4C4F5853;//LOXS
+    private static final int VERSION = 3;
+
+    private ComputerSnapshot() {
+    }
+
+    /**
+     * Part of the state that is written to snapshot
+     */
+    public interface StateWriter {
+
+        void saveState(SnapshotOutput output) throws IOException;
+    }
+
+    public interface StateReader {
+
+        void loadState(SnapshotInput input);
+    }
+
+    /**
+     * Copies state through in memory snapshot, memory pages are not
+     * compressed
+     */
+    public static void copyState(StateWriter source, StateReader target) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try {
+            SnapshotOutput output = new SnapshotOutput(stream, false);
+            source.saveState(output);
+            output.finish();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot write state to memory", ex);
+        }
+
+        SnapshotInput input = new SnapshotInput(ByteBuffer.wrap(stream.toByteArray()));
+        try {
+            target.loadState(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Should be called from the computer thread while the computer is not
+     * executed
+     */
+    public static void save(Computer computer, OutputStream stream, boolean compress) throws IOException {
+        SnapshotOutput output = new SnapshotOutput(stream, compress);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        computer.getProcessor().saveState(output);
+        computer.getInterruptController().saveState(output);
+
+        List<MemMapping> mappings = computer.getController().getMappings();
+        output.writeInt(mappings.size());
+        for (MemMapping mapping : mappings) {
+            output.writeInt(mapping.getStartAddress());
+            output.writeInt(mapping.getLength());
+            output.writeInt(mapping.getId());
+        }
+
+        computer.getModulesController().saveState(output);
+        output.finish();
+    }
+
+    public static void save(Computer computer, Path file, boolean compress) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            save(computer, stream, compress);
+        }
+    }
+
+    /**
+     * Restores snapshot from the buffer, the buffer may be a file mapped to
+     * memory
+     */
+    public static void restore(Computer computer, ByteBuffer snapshot) {
+        SnapshotInput input = new SnapshotInput(snapshot);
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a computer snapshot");
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported snapshot version " + version);
+            }
+
+            computer.getProcessor().loadState(input);
+            computer.getInterruptController().loadState(input);
+
+            List<MemMapping> mappings = computer.getController().getMappings();
+            int mappingsCount = input.readInt();
+            if (mappingsCount != mappings.size()) {
+                throw new IllegalArgumentException("Snapshot has " + mappingsCount + " mappings, but computer has " + mappings.size());
+            }
+            for (MemMapping mapping : mappings) {
+                int start = input.readInt();
+                int length = input.readInt();
+                int id = input.readInt();
+                if (start != mapping.getStartAddress() || length != mapping.getLength() || id != mapping.getId()) {
+                    throw new IllegalArgumentException("Snapshot mapping [" + Integer.toHexString(start) + " length " + length
+                            + "] does not match [" + Integer.toHexString(mapping.getStartAddress()) + " length " + mapping.getLength() + "]");
+                }
+            }
+
+            computer.getModulesController().loadState(input);
+            //modules may replace their buffers and memory is loaded without write notifications
+            computer.getProcessor().resetMemoryWindows();
+            computer.getProcessor().flushDecodedInstructions();
+        } catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Snapshot is truncated", ex);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Maps the snapshot file to memory and restores it, memory pages are
+     * copied directly from the mapping
+     */
+    public static void restore(Computer computer, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Snapshot " + file + " is larger than 2gb");
+            }
+            restore(computer, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+}
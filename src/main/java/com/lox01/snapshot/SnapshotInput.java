@@ -0,0 +1,169 @@
+package com.lox01.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of snapshots written by {@link SnapshotOutput}. Snapshot is read
+ * from a buffer, usually the file mapped to memory, so raw memory pages are
+ * copied from the mapping without intermediate streams.
+ *
+ * @author Dmitry
+ */
+public class SnapshotInput {
+
+    private final ByteBuffer input;
+    private final Inflater inflater = new Inflater();
+    private final byte[] page = new byte[SnapshotOutput.PAGE_SIZE];
+    private byte[] compressedPage = new byte[SnapshotOutput.PAGE_SIZE];
+
+    public SnapshotInput(ByteBuffer input) {
+        this.input = input.duplicate();
+    }
+
+    public int readInt() {
+        return input.getInt();
+    }
+
+    public long readLong() {
+        return input.getLong();
+    }
+
+    public int readByte() {
+        return input.get();
+    }
+
+    public boolean readBoolean() {
+        return input.get() != 0;
+    }
+
+    public void readBytes(byte[] bytes) {
+        input.get(bytes);
+    }
+
+    public String readString() {
+        byte[] bytes = new byte[input.getInt()];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads memory written by {@link SnapshotOutput#writeMemory(ByteBuffer)}
+     * to the buffer of the same capacity. Pages missing in the snapshot are
+     * filled with zeros
+     */
+    public void readMemory(ByteBuffer memory) {
+        int length = readMemoryLength(memory.capacity());
+        int nextOffset = 0;
+        int pageIndex;
+        while ((pageIndex = readPageIndex(nextOffset, length)) != SnapshotOutput.END_OF_PAGES) {
+            int offset = pageIndex * SnapshotOutput.PAGE_SIZE;
+            int pageLength = Math.min(SnapshotOutput.PAGE_SIZE, length - offset);
+            fillZero(memory, nextOffset, offset);
+            readPage(memory, offset, pageLength);
+            nextOffset = offset + pageLength;
+        }
+        fillZero(memory, nextOffset, length);
+    }
+
+    /**
+     * Reads memory written by
+     * {@link SnapshotOutput#writeMemory(ByteBuffer)} or
+     * {@link SnapshotOutput#writePages(ByteBuffer[], int)} to separate little
+     * endian page buffers
+     *
+     * @return pages, null for zero pages
+     */
+    public ByteBuffer[] readPages(int length) {
+        readMemoryLength(length);
+        ByteBuffer[] pages = new ByteBuffer[(length + SnapshotOutput.PAGE_SIZE - 1) / SnapshotOutput.PAGE_SIZE];
+        int nextOffset = 0;
+        int pageIndex;
+        while ((pageIndex = readPageIndex(nextOffset, length)) != SnapshotOutput.END_OF_PAGES) {
+            int offset = pageIndex * SnapshotOutput.PAGE_SIZE;
+            int pageLength = Math.min(SnapshotOutput.PAGE_SIZE, length - offset);
+            pages[pageIndex] = ByteBuffer.allocate(SnapshotOutput.PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readPage(pages[pageIndex], 0, pageLength);
+            nextOffset = offset + pageLength;
+        }
+        return pages;
+    }
+
+    private int readMemoryLength(int expectedLength) {
+        int length = input.getInt();
+        if (length != expectedLength) {
+            throw new IllegalArgumentException("Snapshot memory size " + length + " does not match buffer size " + expectedLength);
+        }
+        return length;
+    }
+
+    private int readPageIndex(int nextOffset, int length) {
+        int pageIndex = input.getInt();
+        if (pageIndex == SnapshotOutput.END_OF_PAGES) {
+            return pageIndex;
+        }
+        long offset = (long) pageIndex * SnapshotOutput.PAGE_SIZE;
+        if (pageIndex < 0 || offset < nextOffset || offset >= length) {
+            throw new IllegalArgumentException("Wrong memory page " + pageIndex + " in snapshot");
+        }
+        return pageIndex;
+    }
+
+    private void readPage(ByteBuffer memory, int offset, int pageLength) {
+        int type = input.get();
+        ByteBuffer destination = memory.duplicate();
+        destination.position(offset);
+        if (type == SnapshotOutput.PAGE_RAW) {
+            ByteBuffer source = input.duplicate();
+            source.limit(input.position() + pageLength);
+            destination.put(source);
+            input.position(input.position() + pageLength);
+        } else if (type == SnapshotOutput.PAGE_DEFLATED) {
+            inflate(input.getInt(), pageLength);
+            destination.put(page, 0, pageLength);
+        } else {
+            throw new IllegalArgumentException("Unknown page type " + type + " in snapshot");
+        }
+    }
+
+    private void inflate(int compressedLength, int pageLength) {
+        if (compressedPage.length < compressedLength) {
+            compressedPage = new byte[compressedLength];
+        }
+        input.get(compressedPage, 0, compressedLength);
+        inflater.reset();
+        inflater.setInput(compressedPage, 0, compressedLength);
+        try {
+            if (inflater.inflate(page, 0, pageLength) != pageLength) {
+                throw new IllegalArgumentException("Compressed memory page is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalArgumentException("Compressed memory page is corrupted", ex);
+        }
+    }
+
+    private static void fillZero(ByteBuffer memory, int start, int end) {
+        if (memory.hasArray()) {
+            Arrays.fill(memory.array(), memory.arrayOffset() + start, memory.arrayOffset() + end, (byte) 0);
+            return;
+        }
+        int position = start;
+        for (; position + 8 <= end; position += 8) {
+            memory.putLong(position, 0);
+        }
+        for (; position < end; position++) {
+            memory.put(position, (byte) 0);
+        }
+    }
+
+    /**
+     * Releases the decompressor
+     */
+    void close() {
+        inflater.end();
+    }
+}
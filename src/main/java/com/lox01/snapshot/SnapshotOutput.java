@@ -0,0 +1,154 @@
+package com.lox01.snapshot;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * Writer of snapshot streams. Values are written in big endian order, memory
+ * is written by pages, and zero pages are skipped.
+ *
+ * @author Dmitry
+ */
+public class SnapshotOutput {
+
+    public static final int PAGE_SIZE = 4096;
+    static final int PAGE_RAW = 0;
+    static final int PAGE_DEFLATED = 1;
+    static final int END_OF_PAGES = -1;
+
+    private final DataOutputStream output;
+    private final Deflater deflater;
+    private final byte[] page = new byte[PAGE_SIZE];
+    private final byte[] compressedPage = new byte[PAGE_SIZE];
+
+    /**
+     * @param compress if true, memory pages are compressed when it makes them
+     * smaller
+     */
+    public SnapshotOutput(OutputStream output, boolean compress) {
+        this.output = new DataOutputStream(output);
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+    }
+
+    public void writeInt(int value) throws IOException {
+        output.writeInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        output.writeLong(value);
+    }
+
+    public void writeByte(int value) throws IOException {
+        output.writeByte(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        output.writeBoolean(value);
+    }
+
+    public void writeBytes(byte[] bytes) throws IOException {
+        output.write(bytes);
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Writes capacity of the buffer and its non zero pages, position of the
+     * buffer is not changed
+     */
+    public void writeMemory(ByteBuffer memory) throws IOException {
+        int length = memory.capacity();
+        output.writeInt(length);
+        for (int offset = 0; offset < length; offset += PAGE_SIZE) {
+            writePage(memory, offset, Math.min(PAGE_SIZE, length - offset));
+        }
+        output.writeInt(END_OF_PAGES);
+    }
+
+    /**
+     * Writes memory stored by pages in the same format as
+     * {@link #writeMemory(ByteBuffer)}. Null pages are zero pages, index 0 of
+     * every page buffer is the start of the page
+     *
+     * @param length size of the memory
+     */
+    public void writePages(ByteBuffer[] pages, int length) throws IOException {
+        output.writeInt(length);
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != null) {
+                writePage(pages[i], 0, Math.min(PAGE_SIZE, length - i * PAGE_SIZE), i);
+            }
+        }
+        output.writeInt(END_OF_PAGES);
+    }
+
+    private void writePage(ByteBuffer memory, int offset, int pageLength) throws IOException {
+        writePage(memory, offset, pageLength, offset / PAGE_SIZE);
+    }
+
+    private void writePage(ByteBuffer memory, int offset, int pageLength, int pageIndex) throws IOException {
+        if (isZero(memory, offset, pageLength)) {
+            return;
+        }
+
+        ByteBuffer source = memory.duplicate();
+        source.limit(offset + pageLength);
+        source.position(offset);
+        source.get(page, 0, pageLength);
+        output.writeInt(pageIndex);
+        int compressedLength = deflater == null ? 0 : deflate(pageLength);
+        if (compressedLength > 0) {
+            output.writeByte(PAGE_DEFLATED);
+            output.writeInt(compressedLength);
+            output.write(compressedPage, 0, compressedLength);
+        } else {
+            output.writeByte(PAGE_RAW);
+            output.write(page, 0, pageLength);
+        }
+    }
+
+    /**
+     * @return compressed length, or 0 if compressed page is not smaller
+     */
+    private int deflate(int pageLength) {
+        deflater.reset();
+        deflater.setInput(page, 0, pageLength);
+        deflater.finish();
+        int compressedLength = deflater.deflate(compressedPage, 0, compressedPage.length);
+        return deflater.finished() && compressedLength < pageLength ? compressedLength : 0;
+    }
+
+    private static boolean isZero(ByteBuffer memory, int offset, int length) {
+        int end = offset + length;
+        int position = offset;
+        for (; position + 8 <= end; position += 8) {
+            if (memory.getLong(position) != 0) {
+                return false;
+            }
+        }
+        for (; position < end; position++) {
+            if (memory.get(position) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flushes the stream and releases the compressor
+     */
+    void finish() throws IOException {
+        output.flush();
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+}
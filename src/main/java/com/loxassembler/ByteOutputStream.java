@@ -1,40 +1,68 @@
 package com.loxassembler;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
+ * Buffer of assembled code. Streaming assembler writes the beginning of the
+ * buffer to a channel with {@link #flush(WritableByteChannel, int)}, byte
+ * offsets keep counting from the beginning of the code.
+ *
  * @author Dmitry
  */
 public class ByteOutputStream {
 
-    private ByteArrayOutputStream stream;
+    private byte[] buffer = new byte[256];
+    private int count;
+    //byte offset of the first byte of the buffer, bytes before it are flushed
+    private int flushedCount;
     private int currentVirtualAddress;
 
     public ByteOutputStream() {
-        stream = new ByteArrayOutputStream();
         currentVirtualAddress = 0;
     }
 
     public void write(byte value) {
-        stream.write(value & 0xFF);
+        ensureCapacity(1);
+        buffer[count++] = value;
         currentVirtualAddress++;
     }
 
     public void write(int value) {
-        stream.write(value);
-        currentVirtualAddress++;
+        write((byte) value);
     }
 
     public void write(byte[] value) {
-        try {
-            stream.write(value);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
-        }
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buffer, count, value.length);
+        count += value.length;
         currentVirtualAddress += value.length;
     }
 
+    /**
+     * Writes 16 bit little endian value
+     */
+    public void writeShort(int value) {
+        ensureCapacity(2);
+        buffer[count++] = (byte) value;
+        buffer[count++] = (byte) (value >> 8);
+        currentVirtualAddress += 2;
+    }
+
+    /**
+     * Writes 32 bit little endian value
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[count++] = (byte) value;
+        buffer[count++] = (byte) (value >> 8);
+        buffer[count++] = (byte) (value >> 16);
+        buffer[count++] = (byte) (value >> 24);
+        currentVirtualAddress += 4;
+    }
+
     public void setCurrentVirtualAddress(int address) {
         currentVirtualAddress = address;
     }
@@ -44,10 +72,57 @@ public class ByteOutputStream {
     }
 
     public int getCurrentByteOffset() {
-        return stream.size();
+        return flushedCount + count;
+    }
+
+    /**
+     * @return byte offset of the first byte that is not flushed
+     */
+    public int getFlushedCount() {
+        return flushedCount;
     }
 
+    /**
+     * @return all written bytes, if none were flushed
+     */
     public byte[] getBytes() {
-        return stream.toByteArray();
+        if (flushedCount != 0) {
+            throw new IllegalStateException("First " + flushedCount + " bytes are already flushed");
+        }
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Overwrites bytes that are not flushed yet
+     */
+    public void patch(int byteOffset, byte[] value) {
+        if (byteOffset < flushedCount || byteOffset + value.length > flushedCount + count) {
+            throw new IllegalArgumentException("Cannot patch " + value.length + " bytes at " + byteOffset + ", buffer contains bytes from " + flushedCount + " to " + (flushedCount + count));
+        }
+        System.arraycopy(value, 0, buffer, byteOffset - flushedCount, value.length);
+    }
+
+    /**
+     * Writes bytes before the byte offset to the channel and removes them
+     * from the buffer
+     */
+    public void flush(WritableByteChannel channel, int endByteOffset) throws IOException {
+        int length = endByteOffset - flushedCount;
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        System.arraycopy(buffer, length, buffer, 0, count - length);
+        count -= length;
+        flushedCount += length;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+        }
     }
 }
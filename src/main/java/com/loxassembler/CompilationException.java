@@ -7,6 +7,7 @@ public class CompilationException extends RuntimeException {
 
     private int position;
     private int line;
+    private String fileName;
 
     public CompilationException(int line, int position, String message) {
         super(message);
@@ -14,6 +15,28 @@ public class CompilationException extends RuntimeException {
         this.line = line;
     }
 
+    public CompilationException(String fileName, int line, int position, String message) {
+        this(line, position, message);
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the same error in the file
+     */
+    CompilationException withFileName(String fileName) {
+        CompilationException result = new CompilationException(fileName, line, position, getMessage());
+        result.initCause(this);
+        return result;
+    }
+
+    /**
+     * @return name of the source file, null if the source was not assembled
+     * from files
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
     public int getLine() {
         return line;
     }
@@ -8,12 +8,14 @@ class Label {
     private String label;
     private int offset;
     private long virtualOffset;
+    private int lineIndex;
     public Label() {
     }
 
-    public Label(String label, int offset) {
+    public Label(String label, int offset, int lineIndex) {
         this.label = label;
         this.offset = offset;
+        this.lineIndex = lineIndex;
     }
 
     public String getLabel() {
@@ -24,4 +26,8 @@ class Label {
         return offset;
     }
 
+    public int getLineIndex() {
+        return lineIndex;
+    }
+
 }
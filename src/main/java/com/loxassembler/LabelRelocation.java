@@ -38,4 +38,31 @@ public class LabelRelocation {
     public int getVirtualOffset() {
         return virtualOffset;
     }
+
+    /**
+     * Writes offset from the end of the jump to the label into the code
+     *
+     * @param base address of the code that contains the jump
+     */
+    void apply(byte[] code, int base, int labelAddress) {
+        byte[] patch = getPatch(base, labelAddress);
+        System.arraycopy(patch, 0, code, base + byteOffset, patch.length);
+    }
+
+    /**
+     * @return bytes of offset from the end of the jump to the label
+     */
+    byte[] getPatch(int base, int labelAddress) {
+        int offsetDelta = labelAddress - (base + virtualOffset) - ((size == 16) ? 2 : 4);
+        if (size == 16) {
+            if (offsetDelta >= Short.MAX_VALUE) {
+                throw new CompilationException(lineIndex, 0, "Cannot reference label beyond than " + Short.MAX_VALUE + " but requested jump offset is " + offsetDelta);
+            }
+            if (offsetDelta <= Short.MIN_VALUE) {
+                throw new CompilationException(lineIndex, 0, "Cannot reference label beyond than " + Short.MIN_VALUE + " but requested jump offset is " + offsetDelta);
+            }
+            return Utils.shortToByteArray((short) offsetDelta);
+        }
+        return Utils.intToByteArray(offsetDelta);
+    }
 }
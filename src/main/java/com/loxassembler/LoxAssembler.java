@@ -1,27 +1,67 @@
 package com.loxassembler;
 
+import com.loxassembler.parser.Lexer;
 import com.loxassembler.parser.MatchedToken;
 import com.loxassembler.parser.StringMatcher;
 import com.loxassembler.parser.StringParser;
 import com.loxassembler.parser.StringWithPosition;
+import com.loxassembler.parser.Token;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
+ * Assembles source lines with {@link Lexer} and {@link Operands}, which read
+ * every char once, and looks up the command definition in a table by the
+ * command and shapes of the operands, built once for all definitions.
+ * Lines the lexer cannot handle, including all lines with errors, are
+ * assembled by the regular expressions parser, so both produce the same code
+ * and the same errors.
+ *
  * @author Dmitry
  */
 public class LoxAssembler {
 
     private Map<String, List<CommandDefinition>> commandDefinitions = new HashMap<>();
+    //for every command position of its definition + 1 by shapes index of operands, 0 if the line is left to the regular expressions parser
+    private Map<String, byte[]> commandTables = new HashMap<>();
     private StringParser parser;
-    private Map<String, Label> labels = new HashMap<>();
+    private Map<String, Label> labels = new LinkedHashMap<>();
     private String[] registers = new String[]{"zero register", "r1", "r2", "r3", "r4", "rg", "sp", "pc"};
     private final String[] flags = new String[]{"z", "c", "o", "n", "i"};
     private List<LabelRelocation> labelRelocations = new ArrayList<>();
+    private SourceMap sourceMap;
+    private boolean lexerEnabled = true;
+    //label defined by the last assembled line, streaming assembler resolves jumps to it
+    private Label lastLabel;
+    private final Lexer lexer = new Lexer();
+    private final Token token = new Token();
+    private final Operands operands = new Operands();
+
+    //result of matching the operands with command definition
+    private static final int NO_MATCH = 0;
+    private static final int MATCH = 1;
+    //regular expression of the definition matches beginning of the operands, it is left to the regular expressions parser
+    private static final int FALLBACK = 2;
+    //streaming assembler writes the code when this many bytes are buffered
+    private static final int FLUSH_SIZE = 64 * 1024;
 
     static enum CommandType {
         None, indirectReg, indirectRegOffset, Reg, JmpDest32, JmpDest16, TwoRegs, Flag, IntIndex, Imm32ToReg,
@@ -125,6 +165,7 @@ public class LoxAssembler {
         addCommandDefinition(54, "popf", CommandType.None, null);////////////////////////////////////////
         addCommandDefinition(55, "nop", CommandType.None, null);/////////////////////////////////////////
         addCommandDefinition(56, "int", CommandType.IntIndex, "numberPattern");//////////////////////////
+        addCommandDefinition(57, "iret", CommandType.None, null);////////////////////////////////////////
 
         addCommandDefinition(60, "mov", CommandType.Imm32ToReg, "number2RegPattern");////////////////////
         addCommandDefinition(61, "mov", CommandType.TwoRegs, "twoRegsPattern");//////////////////////////
@@ -167,6 +208,38 @@ public class LoxAssembler {
         addCommandDefinition(95, "mov32", CommandType.Reg2RegMul1Offset, "reg2RegMul_1_OffsetPattern");
         addCommandDefinition(96, "mov32", CommandType.Reg2RegMul2Offset, "reg2RegMul_2_OffsetPattern");
         addCommandDefinition(97, "mov32", CommandType.Reg2RegMul4Offset, "reg2RegMul_4_OffsetPattern");
+        buildCommandTables();
+    }
+
+    /**
+     * Picks the definition for every combination of operand shapes, like
+     * the regular expressions parser does: the first definition whose
+     * pattern matches the operands
+     */
+    private void buildCommandTables() {
+        for (Map.Entry<String, List<CommandDefinition>> entry : commandDefinitions.entrySet()) {
+            List<CommandDefinition> definitions = entry.getValue();
+            byte[] table = new byte[Operands.SHAPES_INDEX_COUNT];
+            for (int count = 0; count <= 2; count++) {
+                int shapes0Count = count > 0 ? Operands.SHAPES_COUNT : 1;
+                int shapes1Count = count > 1 ? Operands.SHAPES_COUNT : 1;
+                for (int shape0 = 0; shape0 < shapes0Count; shape0++) {
+                    for (int shape1 = 0; shape1 < shapes1Count; shape1++) {
+                        int index = count == 0 ? 0 : count == 1 ? 1 + shape0 : 1 + Operands.SHAPES_COUNT + shape0 * Operands.SHAPES_COUNT + shape1;
+                        for (int i = 0; i < definitions.size(); i++) {
+                            int match = matchOperands(definitions.get(i), count, shape0, shape1);
+                            if (match == MATCH) {
+                                table[index] = (byte) (i + 1);
+                            }
+                            if (match != NO_MATCH) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            commandTables.put(entry.getKey(), table);
+        }
     }
 
     private void addCommandDefinition(int opcode, String command, CommandType commandType, String patternName) {
@@ -181,22 +254,186 @@ public class LoxAssembler {
     }
 
     public byte[] assemble(String sourceCode) throws IOException {
+        ByteOutputStream result = assembleLines(sourceCode);
+        byte[] code = processLabelRelocations(result.getBytes());
+        return code;
+    }
+
+    /**
+     * Assembles one of many source files, see {@link LoxLinker}. Jumps to
+     * labels of the file are resolved, jumps to labels it does not define are
+     * left to the linker
+     *
+     * @param name name of the file, it is reported in errors
+     */
+    public RelocatableObject assembleObject(String name, String sourceCode) {
+        try {
+            ByteOutputStream result = assembleLines(sourceCode);
+            byte[] code = result.getBytes();
+            List<LabelRelocation> imports = new ArrayList<>();
+            for (LabelRelocation labelRelocation : labelRelocations) {
+                Label label = labels.get(labelRelocation.getLabel());
+                if (label == null) {
+                    imports.add(labelRelocation);
+                } else {
+                    labelRelocation.apply(code, 0, label.getOffset());
+                }
+            }
+            return new RelocatableObject(name, code, new LinkedHashMap<>(labels), imports, sourceMap);
+        } catch (CompilationException ex) {
+            throw ex.withFileName(name);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Assembles the source line by line and writes the code to the channel,
+     * neither the source nor the code is kept in memory. Jumps to labels that
+     * are defined later are kept in a table until the label is found. Code
+     * of a {@link SeekableByteChannel}, like a file, is written in chunks and
+     * such jumps are patched in place, code of other channels is buffered
+     * from the first jump that is not resolved yet. So a jump to the end of
+     * the source, written to not seekable channel, keeps the whole code in
+     * memory until the end.<br>
+     * Errors are thrown as soon as they are found, the channel contains part
+     * of the code then. Source map is not built
+     */
+    public void assemble(Reader source, WritableByteChannel target) throws IOException {
+        labels.clear();
+        labelRelocations.clear();
+        sourceMap = null;
+        SeekableByteChannel seekableTarget = target instanceof SeekableByteChannel ? (SeekableByteChannel) target : null;
+        long targetStart = seekableTarget == null ? 0 : seekableTarget.position();
+        Map<String, List<LabelRelocation>> fixups = new HashMap<>();
+        //the same jumps in order of code, the first one limits flushing to not seekable channel
+        Set<LabelRelocation> fixupsOrder = new LinkedHashSet<>();
+        ByteOutputStream result = new ByteOutputStream();
+        SourceLineReader reader = new SourceLineReader(source);
+        int i = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine(), i++) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            lastLabel = null;
+            if (!lexerEnabled || !assembleLine(line, i, result)) {
+                parser.reset(line);
+                assembleLine(parser, i, result);
+            }
+            if (lastLabel != null) {
+                List<LabelRelocation> resolved = fixups.remove(lastLabel.getLabel());
+                if (resolved != null) {
+                    for (LabelRelocation labelRelocation : resolved) {
+                        fixupsOrder.remove(labelRelocation);
+                        patchJump(result, seekableTarget, targetStart, labelRelocation, lastLabel.getOffset());
+                    }
+                }
+            }
+            for (LabelRelocation labelRelocation : labelRelocations) {
+                fixups.computeIfAbsent(labelRelocation.getLabel(), label -> new ArrayList<>()).add(labelRelocation);
+                fixupsOrder.add(labelRelocation);
+            }
+            labelRelocations.clear();
+
+            if (result.getCurrentByteOffset() - result.getFlushedCount() >= FLUSH_SIZE) {
+                int end = result.getCurrentByteOffset();
+                if (seekableTarget == null && !fixupsOrder.isEmpty()) {
+                    end = fixupsOrder.iterator().next().getByteOffset();
+                }
+                result.flush(target, end);
+            }
+        }
+
+        if (!fixupsOrder.isEmpty()) {
+            LabelRelocation labelRelocation = fixupsOrder.iterator().next();
+            throw new CompilationException(labelRelocation.getLineIndex(), 0, "Cannot find label [" + labelRelocation.getLabel() + "]");
+        }
+        result.flush(target, result.getCurrentByteOffset());
+    }
+
+    /**
+     * Assembles the source to the stream, see
+     * {@link #assemble(Reader, WritableByteChannel)}. Stream cannot be
+     * patched, so code from the first jump to a label that is not defined yet
+     * is buffered in memory until the label is found, a forward jump near the
+     * start keeps all code in memory. Use {@link #assemble(Path, Path)} or a
+     * {@link SeekableByteChannel} for large sources. The stream is not
+     * closed
+     */
+    public void assemble(Reader source, OutputStream target) throws IOException {
+        assemble(source, Channels.newChannel(target));
+    }
+
+    /**
+     * Assembles UTF-8 source file to the target file, see
+     * {@link #assemble(Reader, WritableByteChannel)}
+     */
+    public void assemble(Path source, Path target) throws IOException {
+        try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+                FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            assemble(reader, channel);
+        }
+    }
+
+    private void patchJump(ByteOutputStream result, SeekableByteChannel target, long targetStart, LabelRelocation labelRelocation, int labelOffset) throws IOException {
+        byte[] patch = labelRelocation.getPatch(0, labelOffset);
+        if (labelRelocation.getByteOffset() >= result.getFlushedCount()) {
+            result.patch(labelRelocation.getByteOffset(), patch);
+            return;
+        }
+        long position = target.position();
+        target.position(targetStart + labelRelocation.getByteOffset());
+        ByteBuffer bytes = ByteBuffer.wrap(patch);
+        while (bytes.hasRemaining()) {
+            target.write(bytes);
+        }
+        target.position(position);
+    }
+
+    private ByteOutputStream assembleLines(String sourceCode) throws IOException {
         labels.clear();
         labelRelocations.clear();
         ByteOutputStream result = new ByteOutputStream();
         String[] lines = sourceCode.split("\\r?\\n");
+        sourceMap = new SourceMap(lines);
         for (int i = 0; i < lines.length; i++) {
             String line = lines[i].trim();
             if (line.isEmpty()) {
                 continue;
             }
 
-            parser.reset(line);
-            assembleLine(parser, i, result);
+            int start = result.getCurrentVirtualAddress();
+            if (!lexerEnabled || !assembleLine(line, i, result)) {
+                parser.reset(line);
+                assembleLine(parser, i, result);
+            }
+            if (result.getCurrentVirtualAddress() != start) {
+                sourceMap.addLine(start, result.getCurrentVirtualAddress(), i);
+            }
         }
+        return result;
+    }
 
-        byte[] code = processLabelRelocations(result.getBytes());
-        return code;
+    /**
+     * Lexer is enabled by default, disabled lexer leaves all lines to the
+     * regular expressions parser
+     */
+    public void setLexerEnabled(boolean lexerEnabled) {
+        this.lexerEnabled = lexerEnabled;
+    }
+
+    public boolean isLexerEnabled() {
+        return lexerEnabled;
+    }
+
+    /**
+     * @return map of the code from the last {@link #assemble(String)} call to
+     * its source lines
+     */
+    public SourceMap getSourceMap() {
+        return sourceMap;
     }
 
     private byte[] processLabelRelocations(byte[] code) {
@@ -205,30 +442,274 @@ public class LoxAssembler {
             if (label == null) {
                 throw new CompilationException(labelRelocation.getLineIndex(), 0, "Cannot find label [" + labelRelocation.getLabel() + "]");
             }
+            labelRelocation.apply(code, 0, label.getOffset());
+        }
+
+        return code;
+    }
+
+    /**
+     * Assembles the line with the lexer. Nothing is written and no label is
+     * defined if the line cannot be assembled
+     *
+     * @return false if the line should be assembled by the regular
+     * expressions parser
+     */
+    private boolean assembleLine(String line, int lineIndex, ByteOutputStream result) {
+        lexer.reset(line);
+        if (!lexer.next(token)) {
+            return true;
+        }
+        if (token.getType() != Token.Type.Identifier) {
+            return false;
+        }
+
+        String labelName = null;
+        int commandStart = token.getStart();
+        int commandEnd = token.getEnd();
+        int afterCommand = lexer.getPosition();
+        if (lexer.next(token) && token.isSymbol(':')) {
+            labelName = line.substring(commandStart, commandEnd);
+            if (labels.containsKey(labelName)) {
+                return false;
+            }
+            if (!lexer.next(token)) {
+                defineLabel(labelName, result.getCurrentVirtualAddress(), lineIndex);
+                return true;
+            }
+            if (token.getType() != Token.Type.Identifier) {
+                return false;
+            }
+            commandStart = token.getStart();
+            commandEnd = token.getEnd();
+        } else {
+            lexer.setPosition(afterCommand);
+        }
+
+        String command = line.substring(commandStart, commandEnd);
+        byte[] table = commandTables.get(command);
+        if (table == null || !operands.parse(lexer, token)) {
+            return false;
+        }
+        int shapesIndex = operands.getShapesIndex();
+        if (shapesIndex < 0 || table[shapesIndex] == 0) {
+            return false;
+        }
+        CommandDefinition definition = commandDefinitions.get(command).get(table[shapesIndex] - 1);
+        if (labelName != null) {
+            defineLabel(labelName, result.getCurrentVirtualAddress(), lineIndex);
+        }
+        if (!writeCommand(definition, line, lineIndex, result)) {
+            labels.remove(labelName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks operands of the shapes the way the regular expression of the
+     * definition would match them: the expression matches beginning of the
+     * operands, and anything after it is an error
+     */
+    private static int matchOperands(CommandDefinition definition, int count, int shape0, int shape1) {
+        switch (definition.getCommandType()) {
+            case None:
+                return count == 0 ? MATCH : FALLBACK;
+            case Reg:
+                if (count == 0 || !Operands.startsWithRegister(shape0)) {
+                    return NO_MATCH;
+                }
+                return count == 1 && shape0 == Operands.SHAPE_REGISTER ? MATCH : FALLBACK;
+            case TwoRegs:
+                if (count < 2 || shape0 != Operands.SHAPE_REGISTER || !Operands.startsWithRegister(shape1)) {
+                    return NO_MATCH;
+                }
+                return count == 2 && shape1 == Operands.SHAPE_REGISTER ? MATCH : FALLBACK;
+            case Flag:
+                if (count == 0 || (shape0 != Operands.SHAPE_FLAG && shape0 != Operands.SHAPE_FLAG_PREFIX)) {
+                    return NO_MATCH;
+                }
+                return count == 1 && shape0 == Operands.SHAPE_FLAG ? MATCH : FALLBACK;
+            case JmpDest32:
+            case JmpDest16:
+                if (count == 0 || (Operands.isMemory(shape0) && !Operands.hasBase(shape0))) {
+                    return NO_MATCH;
+                }
+                return count == 1 && !Operands.isMemory(shape0) ? MATCH : FALLBACK;
+            case IntIndex:
+                if (count == 0 || (shape0 != Operands.SHAPE_NUMBER && shape0 != Operands.SHAPE_UNDERSCORE)) {
+                    return NO_MATCH;
+                }
+                return count == 1 && shape0 == Operands.SHAPE_NUMBER ? MATCH : FALLBACK;
+            case Imm32ToReg:
+                if (count < 2 || shape0 != Operands.SHAPE_REGISTER || (shape1 != Operands.SHAPE_NUMBER && shape1 != Operands.SHAPE_UNDERSCORE)) {
+                    return NO_MATCH;
+                }
+                return count == 2 && shape1 == Operands.SHAPE_NUMBER ? MATCH : FALLBACK;
+            case indirectReg:
+                return matchMemory(count > 0, shape0, 1, false, count == 1);
+            case indirectRegOffset:
+                return matchMemory(count > 0, shape0, 1, true, count == 1);
+            case RegMul1_2Reg:
+            case RegMul2_2Reg:
+            case RegMul4_2Reg:
+            case RegMul1Offset_2Reg:
+            case RegMul2Offset_2Reg:
+            case RegMul4Offset_2Reg:
+                if (count < 2 || shape0 != Operands.SHAPE_REGISTER) {
+                    return NO_MATCH;
+                }
+                return matchMemory(true, shape1, getScale(definition.getCommandType()), hasOffset(definition.getCommandType()), count == 2);
+            default: {
+                //Reg2RegMul types, memory reference and then source register
+                int match = matchMemory(count > 0, shape0, getScale(definition.getCommandType()), hasOffset(definition.getCommandType()), true);
+                if (match != MATCH || count < 2 || !Operands.startsWithRegister(shape1)) {
+                    return NO_MATCH;
+                }
+                return count == 2 && shape1 == Operands.SHAPE_REGISTER ? MATCH : FALLBACK;
+            }
+        }
+    }
+
+    private static int matchMemory(boolean present, int shape, int scale, boolean offset, boolean last) {
+        if (!present || !Operands.isMemory(shape, scale, offset)) {
+            return NO_MATCH;
+        }
+        return last ? MATCH : FALLBACK;
+    }
+
+    private static int getScale(CommandType type) {
+        switch (type) {
+            case RegMul2_2Reg:
+            case RegMul2Offset_2Reg:
+            case Reg2RegMul2:
+            case Reg2RegMul2Offset:
+                return 2;
+            case RegMul4_2Reg:
+            case RegMul4Offset_2Reg:
+            case Reg2RegMul4:
+            case Reg2RegMul4Offset:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private static boolean hasOffset(CommandType type) {
+        switch (type) {
+            case RegMul1Offset_2Reg:
+            case RegMul2Offset_2Reg:
+            case RegMul4Offset_2Reg:
+            case Reg2RegMul1Offset:
+            case Reg2RegMul2Offset:
+            case Reg2RegMul4Offset:
+                return true;
+            default:
+                return false;
+        }
+    }
 
-            int offsetDelta = label.getOffset() - labelRelocation.getVirtualOffset() - ((labelRelocation.getSize() == 16) ? 2 : 4);
-            if (labelRelocation.getSize() == 16) {
-                if (offsetDelta >= Short.MAX_VALUE) {
-                    throw new CompilationException(labelRelocation.getLineIndex(), 0, "Cannot reference label beyond than " + Short.MAX_VALUE + " but requested jump offset is " + offsetDelta);
+    /**
+     * Writes the command with matched operands, the same code as
+     * {@link #processCommand}
+     *
+     * @return false if nothing is written because the operands are out of
+     * range
+     */
+    private boolean writeCommand(CommandDefinition definition, String line, int lineIndex, ByteOutputStream result) {
+        Operands o = operands;
+        CommandType type = definition.getCommandType();
+        switch (type) {
+            case None:
+                result.write(definition.getOpcode());
+                return true;
+            case Reg:
+                result.write(definition.getOpcode());
+                result.write(o.register[0]);
+                return true;
+            case TwoRegs:
+                result.write(definition.getOpcode());
+                result.write(o.register[0] | o.register[1] << 3);
+                return true;
+            case Flag:
+                result.write(definition.getOpcode());
+                result.write("zconi".indexOf(line.charAt(o.start[0])));
+                return true;
+            case JmpDest32:
+            case JmpDest16:
+                return writeJump(definition, line, lineIndex, result);
+            case IntIndex:
+                if (o.value[0] > 255) {
+                    return false;
                 }
-                if (offsetDelta <= Short.MIN_VALUE) {
-                    throw new CompilationException(labelRelocation.getLineIndex(), 0, "Cannot reference label beyond than " + Short.MIN_VALUE + " but requested jump offset is " + offsetDelta);
+                result.write(definition.getOpcode());
+                result.write(o.value[0]);
+                return true;
+            case Imm32ToReg:
+                result.write(definition.getOpcode());
+                result.write(o.register[0]);
+                result.writeInt(o.value[1]);
+                return true;
+            case indirectReg:
+            case indirectRegOffset:
+                result.write(definition.getOpcode());
+                result.write(o.register[0] << 3 | o.index[0] << 6);
+                if (type == CommandType.indirectRegOffset) {
+                    result.writeInt(o.value[0]);
                 }
+                return true;
+            default: {
+                //memory reference is the second operand of RegMul types and the first of Reg2RegMul types
+                int memory = o.kind[0] == Operands.MEMORY ? 0 : 1;
+                int register = o.register[1 - memory];
+                result.write(definition.getOpcode());
+                result.write(register | o.register[memory] << 3 | o.index[memory] << 6);
+                if (hasOffset(type)) {
+                    result.writeInt(o.value[memory]);
+                }
+                return true;
+            }
+        }
+    }
 
-                System.arraycopy(Utils.shortToByteArray((short) offsetDelta), 0, code, labelRelocation.getByteOffset(), 2);
+    private boolean writeJump(CommandDefinition definition, String line, int lineIndex, ByteOutputStream result) {
+        Operands o = operands;
+        int size = definition.getCommandType() == CommandType.JmpDest32 ? 32 : 16;
+        int offset;
+        String labelName = null;
+        if (o.kind[0] == Operands.NUMBER) {
+            offset = o.value[0];
+        } else {
+            labelName = line.substring(o.start[0], o.end[0]);
+            Label label = labels.get(labelName);
+            if (label == null) {
+                offset = 0;
             } else {
-                System.arraycopy(Utils.intToByteArray(offsetDelta), 0, code, labelRelocation.getByteOffset(), 4);
+                offset = label.getOffset() - (result.getCurrentVirtualAddress() + 1 + size / 8);
+                labelName = null;
             }
         }
+        if (size == 16 && (offset >= Short.MAX_VALUE || offset <= Short.MIN_VALUE)) {
+            return false;
+        }
 
-        return code;
+        result.write(definition.getOpcode());
+        if (labelName != null) {
+            labelRelocations.add(new LabelRelocation(labelName, result.getCurrentVirtualAddress(), result.getCurrentByteOffset(), size, lineIndex));
+        }
+        if (size == 32) {
+            result.writeInt(offset);
+        } else {
+            result.writeShort(offset);
+        }
+        return true;
     }
 
     private void assembleLine(StringParser parser, int lineIndex, ByteOutputStream result) throws IOException {
         //process label definition
         MatchedToken matchedToken = new MatchedToken();
         if (parser.match("label", matchedToken)) {
-            StringWithPosition textLabel = matchedToken.getMatchedGroups().get("labelText");
+            StringWithPosition textLabel = matchedToken.getGroup("labelText");
             processLabel(textLabel.getString(), lineIndex, parser, result);
         }
 
@@ -238,7 +719,7 @@ public class LoxAssembler {
         }
         //process instructions
         if (parser.match("token", matchedToken)) {
-            StringWithPosition instruction = matchedToken.getMatchedGroups().get("token");
+            StringWithPosition instruction = matchedToken.getGroup("token");
             List<CommandDefinition> instructionCommandDefinitions = commandDefinitions.get(instruction.getString());
             if (instructionCommandDefinitions == null) {
                 throw new CompilationException(lineIndex, instruction.getStart(), "Unknown instruction or directive [" + instruction.getString() + "]");
@@ -273,22 +754,22 @@ public class LoxAssembler {
         }
 
         if (commandDefinition.getCommandType() == CommandType.Reg) {
-            StringWithPosition registerName = matchedToken.getMatchedGroups().get("regArg");
+            StringWithPosition registerName = matchedToken.getGroup("regArg");
             int regIndex = getRegisterIndex(registerName, lineIndex, true);
             result.write(createModRRByte(regIndex, 0, 0));
             return;
         }
 
         if (commandDefinition.getCommandType() == CommandType.Flag) {
-            StringWithPosition flagName = matchedToken.getMatchedGroups().get("flag");
+            StringWithPosition flagName = matchedToken.getGroup("flag");
             int flagIndex = getFlagIndex(flagName, lineIndex, true);
             result.write(flagIndex);
             return;
         }
 
         if (commandDefinition.getCommandType() == CommandType.TwoRegs) {
-            StringWithPosition registerName1 = matchedToken.getMatchedGroups().get("arg1");
-            StringWithPosition registerName2 = matchedToken.getMatchedGroups().get("arg2");
+            StringWithPosition registerName1 = matchedToken.getGroup("arg1");
+            StringWithPosition registerName2 = matchedToken.getGroup("arg2");
             int regIndex1 = getRegisterIndex(registerName1, lineIndex, true);
             int regIndex2 = getRegisterIndex(registerName2, lineIndex, true);
             result.write(createModRRByte(regIndex1, regIndex2, 0));
@@ -327,7 +808,7 @@ public class LoxAssembler {
         }
 
         if (commandDefinition.getCommandType() == CommandType.Imm32ToReg) {
-            StringWithPosition registerName = matchedToken.getMatchedGroups().get("reg");
+            StringWithPosition registerName = matchedToken.getGroup("reg");
             int regIndex = getRegisterIndex(registerName, lineIndex, true);
             int integerValue = parseNumber(matchedToken);
             result.write(createModRRByte(regIndex, 0, 0));
@@ -362,18 +843,18 @@ public class LoxAssembler {
     }
 
     private byte[] processJmpLabelOrNumber(CommandDefinition commandDefinition, int lineIndex, MatchedToken matchedToken, int size, ByteOutputStream result) {
-        if (matchedToken.getMatchedGroups().containsKey("label")) {
-            StringWithPosition label = matchedToken.getMatchedGroups().get("label");
+        if (matchedToken.hasGroup("label")) {
+            StringWithPosition label = matchedToken.getGroup("label");
             if (labels.containsKey(label.getString())) {
                 int currentOffset = result.getCurrentVirtualAddress();
                 currentOffset += ((size == 32) ? 4 : 2);
                 int offsetDelta = labels.get(label.getString()).getOffset() - currentOffset;
                 if (size == 16) {
                     if (offsetDelta >= Short.MAX_VALUE) {
-                        throw new CompilationException(lineIndex, matchedToken.getMatchedGroups().get("label").getStart(), "Cannot reference to label to more than " + Short.MAX_VALUE + " but requested jump offset is " + offsetDelta);
+                        throw new CompilationException(lineIndex, matchedToken.getGroup("label").getStart(), "Cannot reference to label to more than " + Short.MAX_VALUE + " but requested jump offset is " + offsetDelta);
                     }
                     if (offsetDelta <= Short.MIN_VALUE) {
-                        throw new CompilationException(lineIndex, matchedToken.getMatchedGroups().get("label").getStart(), "Cannot reference to label to more than " + Short.MIN_VALUE + " but requested jump offset is " + offsetDelta);
+                        throw new CompilationException(lineIndex, matchedToken.getGroup("label").getStart(), "Cannot reference to label to more than " + Short.MIN_VALUE + " but requested jump offset is " + offsetDelta);
                     }
                     return Utils.shortToByteArray((short) offsetDelta);
                 } else {
@@ -395,10 +876,10 @@ public class LoxAssembler {
                 return Utils.intToByteArray(offset);
             } else {
                 if (offset >= Short.MAX_VALUE) {
-                    throw new CompilationException(lineIndex, matchedToken.getMatchedGroups().get("label").getStart(), "Cannot make jump to more than " + Short.MAX_VALUE + " but requested jump to " + offset);
+                    throw new CompilationException(lineIndex, matchedToken.getGroup("label").getStart(), "Cannot make jump to more than " + Short.MAX_VALUE + " but requested jump to " + offset);
                 }
                 if (offset <= Short.MIN_VALUE) {
-                    throw new CompilationException(lineIndex, matchedToken.getMatchedGroups().get("label").getStart(), "Cannot make jump to more than " + Short.MIN_VALUE + " but requested jump to " + offset);
+                    throw new CompilationException(lineIndex, matchedToken.getGroup("label").getStart(), "Cannot make jump to more than " + Short.MIN_VALUE + " but requested jump to " + offset);
                 }
                 return Utils.shortToByteArray((short) offset);
             }
@@ -408,23 +889,22 @@ public class LoxAssembler {
     }
 
     private boolean hasNumber(MatchedToken m) {
-        Map<String, StringWithPosition> map = m.getMatchedGroups();
-        return map.containsKey("hex") || map.containsKey("bin") || map.containsKey("dec");
+        return m.hasGroup("hex") || m.hasGroup("bin") || m.hasGroup("dec");
     }
 
     private int parseNumber(MatchedToken m) {
-        if (m.getMatchedGroups().containsKey("hex")) {
-            String hexValue = m.getMatchedGroups().get("hex").getString();
+        if (m.hasGroup("hex")) {
+            String hexValue = m.getGroup("hex").getString();
             hexValue = hexValue.replace("_", "").replace("0x", "");
             return Integer.parseUnsignedInt(hexValue, 16);
         }
-        if (m.getMatchedGroups().containsKey("dec")) {
-            String decValue = m.getMatchedGroups().get("dec").getString();
+        if (m.hasGroup("dec")) {
+            String decValue = m.getGroup("dec").getString();
             decValue = decValue.replace("_", "");
             return Integer.parseUnsignedInt(decValue);
         }
-        if (m.getMatchedGroups().containsKey("bin")) {
-            String binValue = m.getMatchedGroups().get("bin").getString();
+        if (m.hasGroup("bin")) {
+            String binValue = m.getGroup("bin").getString();
             binValue = binValue.replace("_", "").replace("0b", "");
             return Integer.parseUnsignedInt(binValue, 2);
         }
@@ -436,8 +916,12 @@ public class LoxAssembler {
             throw new CompilationException(lineIndex, parser.getCurrentOffset(), "Label with name [" + labelName + "] already exists");
         }
 
-        Label label = new Label(labelName, byteArrayOutputStream.getCurrentVirtualAddress());
-        labels.put(labelName, label);
+        defineLabel(labelName, byteArrayOutputStream.getCurrentVirtualAddress(), lineIndex);
+    }
+
+    private void defineLabel(String labelName, int offset, int lineIndex) {
+        lastLabel = new Label(labelName, offset, lineIndex);
+        labels.put(labelName, lastLabel);
     }
 
     private int getRegisterIndex(StringWithPosition registerName, int lineIndex, boolean fail) {
@@ -473,24 +957,24 @@ public class LoxAssembler {
         int baseReg = 0;
         int indexRegister = 0;
         int offset = 0;
-        if (mt.getMatchedGroups().containsKey("baseReg")) {
-            baseReg = getRegisterIndex(mt.getMatchedGroups().get("baseReg"), lineIndex, true);
+        if (mt.hasGroup("baseReg")) {
+            baseReg = getRegisterIndex(mt.getGroup("baseReg"), lineIndex, true);
         }
-        if (mt.getMatchedGroups().containsKey("indexReg")) {
-            StringWithPosition indexRegString = mt.getMatchedGroups().get("indexReg");
+        if (mt.hasGroup("indexReg")) {
+            StringWithPosition indexRegString = mt.getGroup("indexReg");
             indexRegister = getRegisterIndex(indexRegString, lineIndex, true);
             if (indexRegister > 3) {
                 throw new CompilationException(lineIndex, indexRegString.getStart(), "You cannot use " + indexRegString.getString() + " as index register. Only r1,r2,r3 are allowed there");
             }
         }
-        if (mt.getMatchedGroups().containsKey("indOffset")) {
+        if (mt.hasGroup("indOffset")) {
             offset = parseNumber(mt);
         }
-        if (mt.getMatchedGroups().containsKey("destReg")) {
-            sourceDestReg = getRegisterIndex(mt.getMatchedGroups().get("destReg"), lineIndex, true);
+        if (mt.hasGroup("destReg")) {
+            sourceDestReg = getRegisterIndex(mt.getGroup("destReg"), lineIndex, true);
         }
-        if (mt.getMatchedGroups().containsKey("sourceReg")) {
-            sourceDestReg = getRegisterIndex(mt.getMatchedGroups().get("sourceReg"), lineIndex, true);
+        if (mt.hasGroup("sourceReg")) {
+            sourceDestReg = getRegisterIndex(mt.getGroup("sourceReg"), lineIndex, true);
         }
 
         return new ComplexAddressing(offset, sourceDestReg, baseReg, indexRegister);
@@ -0,0 +1,96 @@
+package com.loxassembler;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Joins relocatable objects into one program. Objects are placed one after
+ * another in the given order, every object starts at a multiple of the
+ * alignment and the gaps are filled with zeros. Labels of all objects share
+ * one namespace, and jumps to labels of other objects are written when the
+ * addresses of all objects are known.
+ *
+ * @author Dmitry
+ */
+public class LoxLinker {
+
+    private int alignment = 1;
+    private final Map<String, Integer> objectAddresses = new LinkedHashMap<>();
+    private final Map<String, Integer> symbols = new HashMap<>();
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    public void setAlignment(int alignment) {
+        if (alignment <= 0) {
+            throw new IllegalArgumentException("Alignment should be positive, but was " + alignment);
+        }
+        this.alignment = alignment;
+    }
+
+    public byte[] link(List<RelocatableObject> objects) {
+        objectAddresses.clear();
+        symbols.clear();
+        Map<String, RelocatableObject> symbolObjects = new HashMap<>();
+        int[] bases = new int[objects.size()];
+        long address = 0;
+        for (int i = 0; i < objects.size(); i++) {
+            RelocatableObject object = objects.get(i);
+            address = (address + alignment - 1) / alignment * alignment;
+            if (address + object.getSize() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Linked program is larger than 2GB at object [" + object.getName() + "]");
+            }
+            bases[i] = (int) address;
+            if (objectAddresses.put(object.getName(), bases[i]) != null) {
+                throw new IllegalArgumentException("Object [" + object.getName() + "] is linked twice");
+            }
+            for (Label label : object.getLabels().values()) {
+                RelocatableObject definedIn = symbolObjects.put(label.getLabel(), object);
+                if (definedIn != null) {
+                    throw new CompilationException(object.getName(), label.getLineIndex(), 0, "Label [" + label.getLabel() + "] is already defined in [" + definedIn.getName() + "]");
+                }
+                symbols.put(label.getLabel(), bases[i] + label.getOffset());
+            }
+            address += object.getSize();
+        }
+
+        byte[] program = new byte[(int) address];
+        for (int i = 0; i < objects.size(); i++) {
+            RelocatableObject object = objects.get(i);
+            System.arraycopy(object.getCodeArray(), 0, program, bases[i], object.getSize());
+            for (LabelRelocation labelRelocation : object.getImports()) {
+                Integer labelAddress = symbols.get(labelRelocation.getLabel());
+                if (labelAddress == null) {
+                    throw new CompilationException(object.getName(), labelRelocation.getLineIndex(), 0, "Cannot find label [" + labelRelocation.getLabel() + "]");
+                }
+                try {
+                    labelRelocation.apply(program, bases[i], labelAddress);
+                } catch (CompilationException ex) {
+                    throw ex.withFileName(object.getName());
+                }
+            }
+        }
+        return program;
+    }
+
+    /**
+     * @return address of the object in the last linked program, -1 if it was
+     * not linked
+     */
+    public int getObjectAddress(String name) {
+        Integer address = objectAddresses.get(name);
+        return address == null ? -1 : address;
+    }
+
+    /**
+     * @return address of the label in the last linked program, -1 if there is
+     * no such label
+     */
+    public int getLabelAddress(String label) {
+        Integer address = symbols.get(label);
+        return address == null ? -1 : address;
+    }
+}
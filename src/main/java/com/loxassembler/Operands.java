@@ -0,0 +1,259 @@
+package com.loxassembler;
+
+import com.loxassembler.parser.Lexer;
+import com.loxassembler.parser.Token;
+
+/**
+ * Comma separated operands of an instruction parsed from {@link Lexer}
+ * tokens. One object is reused for all lines.<br>
+ * Operand is a register, an identifier, a number, or a memory reference
+ * {@code [base:][index[*scale][+offset]]}. Parsing fails on everything
+ * else, then the line is left to the regular expressions parser, which
+ * reports the error.<br>
+ * Every operand also gets a shape, one of {@value #SHAPES_COUNT} classes
+ * that tell apart everything the regular expressions of command definitions
+ * can distinguish, so the command can be looked up by shapes of the
+ * operands, see {@link #getShapesIndex()}.
+ *
+ * @author Dmitry
+ */
+class Operands {
+
+    static final int REGISTER = 0;
+    static final int IDENTIFIER = 1;
+    static final int NUMBER = 2;
+    static final int MEMORY = 3;
+
+    //shapes of operands, identifiers are split by the regular expressions their beginning matches
+    static final int SHAPE_REGISTER = 0;
+    static final int SHAPE_NUMBER = 1;
+    static final int SHAPE_LABEL = 2;
+    //identifier that starts with a register name, like r1x
+    static final int SHAPE_REGISTER_PREFIX = 3;
+    //identifier that starts with _, decimal number pattern matches it
+    static final int SHAPE_UNDERSCORE = 4;
+    //lowercase flag name
+    static final int SHAPE_FLAG = 5;
+    //identifier that starts with a flag name, like Z or zc
+    static final int SHAPE_FLAG_PREFIX = 6;
+    //memory shapes are SHAPE_MEMORY + base 8 + scale 0, 2, 4, or 6 for scale not written, 1, 2, 4 + offset 1
+    static final int SHAPE_MEMORY = 7;
+    static final int SHAPES_COUNT = SHAPE_MEMORY + 16;
+    //number of shape combinations of at most 2 operands, longer lists match no command
+    static final int SHAPES_INDEX_COUNT = 1 + SHAPES_COUNT + SHAPES_COUNT * SHAPES_COUNT;
+
+    private static final int MAX_COUNT = 3;
+    private static final String FLAGS = "zconi";
+    private static final String FLAGS_ANY_CASE = "zconiZCONI";
+    private static final String[] REGISTERS = {"r1", "r2", "r3", "r4", "rg", "sp", "pc"};
+
+    int count;
+    final int[] kind = new int[MAX_COUNT];
+    //register index as in the registers byte, or base register of memory reference
+    final int[] register = new int[MAX_COUNT];
+    //number, or offset of memory reference
+    final int[] value = new int[MAX_COUNT];
+    final int[] start = new int[MAX_COUNT];
+    final int[] end = new int[MAX_COUNT];
+    final int[] shape = new int[MAX_COUNT];
+    final boolean[] hasBase = new boolean[MAX_COUNT];
+    final int[] index = new int[MAX_COUNT];
+    //0 if the scale is not written
+    final int[] scale = new int[MAX_COUNT];
+    final boolean[] hasOffset = new boolean[MAX_COUNT];
+
+    /**
+     * Parses operands up to the end of the line
+     *
+     * @return false if the operands have unsupported form
+     */
+    boolean parse(Lexer lexer, Token token) {
+        count = 0;
+        if (!lexer.next(token)) {
+            return true;
+        }
+        while (true) {
+            if (count == MAX_COUNT || !parseOperand(lexer, token, count)) {
+                return false;
+            }
+            count++;
+            if (!lexer.next(token)) {
+                return true;
+            }
+            if (!token.isSymbol(',') || !lexer.next(token)) {
+                return false;
+            }
+        }
+    }
+
+    private boolean parseOperand(Lexer lexer, Token token, int i) {
+        start[i] = token.getStart();
+        hasBase[i] = false;
+        switch (token.getType()) {
+            case Identifier: {
+                int registerIndex = getRegisterIndex(token);
+                end[i] = token.getEnd();
+                if (registerIndex == 0) {
+                    kind[i] = IDENTIFIER;
+                    shape[i] = getIdentifierShape(token);
+                    return true;
+                }
+                register[i] = registerIndex;
+                int afterRegister = lexer.getPosition();
+                if (lexer.next(token) && token.isSymbol(':')) {
+                    hasBase[i] = true;
+                    return lexer.next(token) && token.isSymbol('[') && parseMemory(lexer, token, i);
+                }
+                lexer.setPosition(afterRegister);
+                kind[i] = REGISTER;
+                shape[i] = SHAPE_REGISTER;
+                return true;
+            }
+            case Number:
+                kind[i] = NUMBER;
+                shape[i] = SHAPE_NUMBER;
+                value[i] = token.getValue();
+                end[i] = token.getEnd();
+                return true;
+            case Symbol:
+                register[i] = 0;
+                return token.isSymbol('[') && parseMemory(lexer, token, i);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses memory reference after [
+     */
+    private boolean parseMemory(Lexer lexer, Token token, int i) {
+        kind[i] = MEMORY;
+        index[i] = 0;
+        scale[i] = 0;
+        hasOffset[i] = false;
+        value[i] = 0;
+        if (!lexer.next(token)) {
+            return false;
+        }
+        if (token.getType() == Token.Type.Identifier) {
+            index[i] = getRegisterIndex(token);
+            //only r1-r3 can be index
+            if (index[i] == 0 || index[i] > 3 || !lexer.next(token)) {
+                return false;
+            }
+            if (token.isSymbol('*')) {
+                if (!lexer.next(token) || token.getType() != Token.Type.Number || token.length() != 1) {
+                    return false;
+                }
+                scale[i] = token.getValue();
+                if ((scale[i] != 1 && scale[i] != 2 && scale[i] != 4) || !lexer.next(token)) {
+                    return false;
+                }
+            }
+            if (token.isSymbol('+')) {
+                if (!lexer.next(token) || token.getType() != Token.Type.Number) {
+                    return false;
+                }
+                hasOffset[i] = true;
+                value[i] = token.getValue();
+                if (!lexer.next(token)) {
+                    return false;
+                }
+            }
+        } else if (token.getType() == Token.Type.Number) {
+            hasOffset[i] = true;
+            value[i] = token.getValue();
+            if (!lexer.next(token)) {
+                return false;
+            }
+        }
+        end[i] = token.getEnd();
+        shape[i] = SHAPE_MEMORY + (hasBase[i] ? 8 : 0) + getScaleCode(scale[i]) * 2 + (hasOffset[i] ? 1 : 0);
+        return token.isSymbol(']');
+    }
+
+    /**
+     * @return index of the operand shapes in a table of
+     * {@link #SHAPES_INDEX_COUNT} entries, -1 if there are more than 2
+     * operands
+     */
+    int getShapesIndex() {
+        switch (count) {
+            case 0:
+                return 0;
+            case 1:
+                return 1 + shape[0];
+            case 2:
+                return 1 + SHAPES_COUNT + shape[0] * SHAPES_COUNT + shape[1];
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return true if the operand text starts with a register name, so
+     * regular expression of a register matches its beginning
+     */
+    static boolean startsWithRegister(int shape) {
+        return shape == SHAPE_REGISTER || shape == SHAPE_REGISTER_PREFIX || (isMemory(shape) && hasBase(shape));
+    }
+
+    static boolean isMemory(int shape) {
+        return shape >= SHAPE_MEMORY;
+    }
+
+    static boolean hasBase(int shape) {
+        return ((shape - SHAPE_MEMORY) & 8) != 0;
+    }
+
+    /**
+     * @return true if the shape is memory reference with the scale, where
+     * scale 1 may be omitted, and with or without offset
+     */
+    static boolean isMemory(int shape, int scale, boolean offset) {
+        if (!isMemory(shape) || (((shape - SHAPE_MEMORY) & 1) != 0) != offset) {
+            return false;
+        }
+        int scaleCode = ((shape - SHAPE_MEMORY) >> 1) & 3;
+        return scaleCode == getScaleCode(scale) || (scale == 1 && scaleCode == 0);
+    }
+
+    /**
+     * @return 0 for scale that is not written, 1, 2, 3 for scales 1, 2, 4
+     */
+    private static int getScaleCode(int scale) {
+        return scale == 0 ? 0 : Integer.numberOfTrailingZeros(scale) + 1;
+    }
+
+    /**
+     * @return index of the register in the registers byte, 0 if the token is
+     * not a register
+     */
+    private static int getRegisterIndex(Token token) {
+        if (token.length() != 2) {
+            return 0;
+        }
+        for (int i = 0; i < REGISTERS.length; i++) {
+            if (token.textEquals(REGISTERS[i])) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int getIdentifierShape(Token token) {
+        char first = token.charAt(0);
+        if (first == '_') {
+            return SHAPE_UNDERSCORE;
+        }
+        if (FLAGS_ANY_CASE.indexOf(first) >= 0) {
+            return token.length() == 1 && FLAGS.indexOf(first) >= 0 ? SHAPE_FLAG : SHAPE_FLAG_PREFIX;
+        }
+        for (String register : REGISTERS) {
+            if (token.textStartsWith(register)) {
+                return SHAPE_REGISTER_PREFIX;
+            }
+        }
+        return SHAPE_LABEL;
+    }
+}
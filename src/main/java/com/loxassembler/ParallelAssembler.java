@@ -0,0 +1,97 @@
+package com.loxassembler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Assembles many source files in parallel on a fork join pool and links
+ * them with {@link LoxLinker}. Every file is a task that makes a
+ * {@link RelocatableObject}, and every worker thread has its own
+ * {@link LoxAssembler}, because assembler is not thread safe and is expensive
+ * to create.<br>
+ * When several files have errors, the error of the first of them in the
+ * given order is thrown, so the result does not depend on scheduling.
+ *
+ * @author Dmitry
+ */
+public class ParallelAssembler {
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<LoxAssembler> assemblers = ThreadLocal.withInitial(LoxAssembler::new);
+    private final LoxLinker linker = new LoxLinker();
+
+    public ParallelAssembler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelAssembler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public LoxLinker getLinker() {
+        return linker;
+    }
+
+    /**
+     * @param sources source code by file names, in order of the files in the
+     * program
+     */
+    public byte[] assemble(Map<String, String> sources) {
+        return linker.link(assembleObjects(sources));
+    }
+
+    /**
+     * Reads and assembles the files, files are placed in the program in the
+     * given order
+     */
+    public byte[] assembleFiles(List<Path> files) throws IOException {
+        return linker.link(assembleObjectsFromFiles(files));
+    }
+
+    public List<RelocatableObject> assembleObjects(Map<String, String> sources) {
+        List<ForkJoinTask<RelocatableObject>> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            tasks.add(ForkJoinTask.adapt(() -> assemblers.get().assembleObject(source.getKey(), source.getValue())));
+        }
+        return joinAll(tasks);
+    }
+
+    public List<RelocatableObject> assembleObjectsFromFiles(List<Path> files) throws IOException {
+        List<ForkJoinTask<RelocatableObject>> tasks = new ArrayList<>();
+        for (Path file : files) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                String source;
+                try {
+                    source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return assemblers.get().assembleObject(file.toString(), source);
+            }));
+        }
+        try {
+            return joinAll(tasks);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private List<RelocatableObject> joinAll(List<ForkJoinTask<RelocatableObject>> tasks) {
+        for (ForkJoinTask<RelocatableObject> task : tasks) {
+            pool.execute(task);
+        }
+        List<RelocatableObject> objects = new ArrayList<>();
+        for (ForkJoinTask<RelocatableObject> task : tasks) {
+            objects.add(task.join());
+        }
+        return objects;
+    }
+}
@@ -0,0 +1,74 @@
+package com.loxassembler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code of one source file, made by
+ * {@link LoxAssembler#assembleObject(String, String)}. Jumps are relative, so
+ * the code can be placed at any address, only jumps to labels of other files
+ * are left as relocations for {@link LoxLinker}.
+ *
+ * @author Dmitry
+ */
+public class RelocatableObject {
+
+    private final String name;
+    private final byte[] code;
+    private final Map<String, Label> labels;
+    private final List<LabelRelocation> imports;
+    private final SourceMap sourceMap;
+
+    RelocatableObject(String name, byte[] code, Map<String, Label> labels, List<LabelRelocation> imports, SourceMap sourceMap) {
+        this.name = name;
+        this.code = code;
+        this.labels = labels;
+        this.imports = imports;
+        this.sourceMap = sourceMap;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getCode() {
+        return code.clone();
+    }
+
+    public int getSize() {
+        return code.length;
+    }
+
+    /**
+     * @return offsets of labels defined in the file, in order of definition.
+     * All labels are visible to other files
+     */
+    public Map<String, Integer> getExports() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Label label : labels.values()) {
+            result.put(label.getLabel(), label.getOffset());
+        }
+        return result;
+    }
+
+    /**
+     * @return jumps to labels of other files
+     */
+    public List<LabelRelocation> getImports() {
+        return Collections.unmodifiableList(imports);
+    }
+
+    public SourceMap getSourceMap() {
+        return sourceMap;
+    }
+
+    byte[] getCodeArray() {
+        return code;
+    }
+
+    Map<String, Label> getLabels() {
+        return labels;
+    }
+}
@@ -0,0 +1,53 @@
+package com.loxassembler;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads lines the way {@link LoxAssembler#assemble(String)} splits source:
+ * lines end with \n or \r\n, single \r is part of the line.
+ *
+ * @author Dmitry
+ */
+class SourceLineReader {
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int length;
+    private final StringBuilder line = new StringBuilder();
+
+    SourceLineReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the next line, null at the end of the source
+     */
+    String readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (position == length) {
+                length = reader.read(buffer);
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return line.length() == 0 ? null : line.toString();
+                }
+            }
+            int start = position;
+            while (position < length && buffer[position] != '\n') {
+                position++;
+            }
+            line.append(buffer, start, position - start);
+            if (position < length) {
+                position++;
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                return line.substring(0, end);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.loxassembler;
+
+import java.util.Arrays;
+
+/**
+ * Maps offsets of assembled code to source lines. Built by
+ * {@link LoxAssembler#assemble(String)}, every line that produced code covers
+ * the range of its bytes.
+ *
+ * @author Dmitry
+ */
+public class SourceMap {
+
+    private final String[] lines;
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int[] lineIndexes = new int[64];
+    private int count;
+
+    SourceMap(String[] lines) {
+        this.lines = lines;
+    }
+
+    void addLine(int start, int end, int lineIndex) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            lineIndexes = Arrays.copyOf(lineIndexes, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        lineIndexes[count] = lineIndex;
+        count++;
+    }
+
+    /**
+     * @return zero based index of the line whose code contains the offset, or
+     * -1
+     */
+    public int getLineIndex(int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        if (index < 0) {
+            //the last range that starts before the offset
+            index = -index - 2;
+        }
+        if (index < 0 || offset >= ends[index]) {
+            return -1;
+        }
+        return lineIndexes[index];
+    }
+
+    public String getLine(int lineIndex) {
+        return lines[lineIndex];
+    }
+
+    /**
+     * @return one based line number and trimmed text of the line that
+     * contains the offset, or null
+     */
+    public String describe(int offset) {
+        int lineIndex = getLineIndex(offset);
+        if (lineIndex == -1) {
+            return null;
+        }
+        return (lineIndex + 1) + ": " + lines[lineIndex].trim();
+    }
+}
@@ -0,0 +1,149 @@
+package com.loxassembler.parser;
+
+/**
+ * Single pass lexer of assembly lines, works on chars of the input without
+ * regular expressions and without allocations.<br>
+ * Whitespace and {@code //} comments are skipped. Tokens are identifiers
+ * {@code [a-zA-Z_][a-zA-Z_0-9]*}, unsigned numbers {@code 0x[0-9A-Fa-f_]+},
+ * {@code 0b[01_]+} and {@code [0-9][0-9_]*}, and symbols {@code , : [ ] * +}.
+ * Number that overflows 32 bits, has no digits, or is followed by a letter or
+ * a digit, minus sign and every other char are {@link Token.Type#Invalid}.
+ *
+ * @author Dmitry
+ */
+public class Lexer {
+
+    private CharSequence text;
+    private int position;
+    private int end;
+
+    public void reset(CharSequence text) {
+        reset(text, 0, text.length());
+    }
+
+    public void reset(CharSequence text, int start, int end) {
+        this.text = text;
+        this.position = start;
+        this.end = end;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Reads the next token
+     *
+     * @return false if there are no more tokens, then the token type is
+     * {@link Token.Type#End}
+     */
+    public boolean next(Token token) {
+        skip();
+        if (position == end) {
+            token.set(Token.Type.End, text, end, end, 0);
+            return false;
+        }
+
+        int start = position;
+        char c = text.charAt(position);
+        if (isIdentifierStart(c)) {
+            position++;
+            while (position < end && isIdentifierPart(text.charAt(position))) {
+                position++;
+            }
+            token.set(Token.Type.Identifier, text, start, position, 0);
+        } else if (c >= '0' && c <= '9') {
+            readNumber(token, start);
+        } else if (c == ',' || c == ':' || c == '[' || c == ']' || c == '*' || c == '+') {
+            position++;
+            token.set(Token.Type.Symbol, text, start, position, 0);
+        } else {
+            position++;
+            token.set(Token.Type.Invalid, text, start, position, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Skips whitespace and comments
+     *
+     * @return true if there are no more tokens
+     */
+    public boolean isFinished() {
+        skip();
+        return position == end;
+    }
+
+    private void skip() {
+        while (position < end) {
+            char c = text.charAt(position);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B') {
+                position++;
+            } else if (c == '/' && position + 1 < end && text.charAt(position + 1) == '/') {
+                //comment ends before a line terminator, like . in regular expressions
+                while (position < end && !isLineTerminator(text.charAt(position))) {
+                    position++;
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void readNumber(Token token, int start) {
+        int radix = 10;
+        if (text.charAt(position) == '0' && position + 1 < end) {
+            char prefix = text.charAt(position + 1);
+            if (prefix == 'x') {
+                radix = 16;
+                position += 2;
+            } else if (prefix == 'b') {
+                radix = 2;
+                position += 2;
+            }
+        }
+
+        long value = 0;
+        boolean hasDigits = false;
+        boolean valid = true;
+        while (position < end) {
+            char c = text.charAt(position);
+            int digit = Character.digit(c, radix);
+            if (c == '_') {
+                position++;
+                continue;
+            }
+            if (digit < 0 || c > 'f') {
+                break;
+            }
+            value = value * radix + digit;
+            if (value > 0xFFFFFFFFL) {
+                valid = false;
+            }
+            hasDigits = true;
+            position++;
+        }
+        //number glued to a letter or a digit of other radix, like 12ab or 0b012
+        while (position < end && isIdentifierPart(text.charAt(position))) {
+            valid = false;
+            position++;
+        }
+        token.set(valid && hasDigits ? Token.Type.Number : Token.Type.Invalid, text, start, position, (int) value);
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
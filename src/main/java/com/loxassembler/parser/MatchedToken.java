@@ -1,16 +1,21 @@
 package com.loxassembler.parser;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.regex.Matcher;
 
 /**
+ * Token matched by {@link StringParser}. Bounds of the named groups are kept
+ * in the order of {@link StringMatcher#getGroupNames()}, group strings are
+ * created only when they are requested.
+ *
  * @author Dmitry
  */
 public class MatchedToken {
 
     private StringMatcher matcher;
     private String text;
-    private Map<String, StringWithPosition> matchedGroups = new HashMap<>();
+    private String source;
+    //start and end of every named group of the matcher, start is -1 if the group did not match
+    private int[] groupBounds = new int[0];
     private int position;
     private int length;
 
@@ -24,8 +29,55 @@ public class MatchedToken {
     public MatchedToken() {
     }
 
-    public Map<String, StringWithPosition> getMatchedGroups() {
-        return matchedGroups;
+    void clear() {
+        matcher = null;
+        text = null;
+        source = null;
+        position = -1;
+        length = 0;
+    }
+
+    /**
+     * Reads the named groups of the matcher from the successful match
+     */
+    void setGroups(String source, Matcher m) {
+        this.source = source;
+        int count = matcher.getGroupsCount();
+        if (groupBounds.length < count * 2) {
+            groupBounds = new int[count * 2];
+        }
+        for (int i = 0; i < count; i++) {
+            int groupIndex = matcher.getGroupIndex(i);
+            groupBounds[i * 2] = m.start(groupIndex);
+            groupBounds[i * 2 + 1] = m.end(groupIndex);
+        }
+    }
+
+    /**
+     * @return true if the group with the name matched
+     */
+    public boolean hasGroup(String name) {
+        return getGroupStart(name) >= 0;
+    }
+
+    /**
+     * @return text of the group with the name, null if the group did not match
+     */
+    public StringWithPosition getGroup(String name) {
+        int start = getGroupStart(name);
+        if (start < 0) {
+            return null;
+        }
+        int end = groupBounds[matcher.getGroupPosition(name) * 2 + 1];
+        return new StringWithPosition(source.substring(start, end), start, end);
+    }
+
+    private int getGroupStart(String name) {
+        if (matcher == null || source == null) {
+            return -1;
+        }
+        int groupPosition = matcher.getGroupPosition(name);
+        return groupPosition < 0 ? -1 : groupBounds[groupPosition * 2];
     }
 
     public void setLength(int length) {
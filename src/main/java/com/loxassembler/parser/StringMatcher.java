@@ -1,21 +1,30 @@
 package com.loxassembler.parser;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
+ * Pattern with its named groups. Names and numbers of the groups are read
+ * from the pattern text once, when the matcher is created, so matching does
+ * not look them up in the pattern.
+ *
  * @author Dmitry
  */
 public class StringMatcher {
 
     private String label;
     private Pattern pattern;
+    private String[] groupNames;
+    private int[] groupIndexes;
 
     public StringMatcher(Pattern pattern) {
         this.pattern = pattern;
+        findNamedGroups();
     }
 
     public StringMatcher(String pattern) {
-        this.pattern = Pattern.compile(pattern);
+        this(Pattern.compile(pattern));
     }
 
     public Pattern getPattern() {
@@ -30,4 +39,82 @@ public class StringMatcher {
         return label;
     }
 
+    /**
+     * @return names of the named groups in order of their numbers
+     */
+    public String[] getGroupNames() {
+        return groupNames.clone();
+    }
+
+    int getGroupsCount() {
+        return groupNames.length;
+    }
+
+    /**
+     * @return position of the group in {@link #getGroupNames()}, -1 if there
+     * is no group with the name
+     */
+    int getGroupPosition(String name) {
+        for (int i = 0; i < groupNames.length; i++) {
+            if (groupNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of the group in the pattern
+     */
+    int getGroupIndex(int position) {
+        return groupIndexes[position];
+    }
+
+    private void findNamedGroups() {
+        List<String> names = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        int groupsCount = 0;
+        if ((pattern.flags() & Pattern.LITERAL) == 0) {
+            String regex = pattern.pattern();
+            boolean quoted = false;
+            int classDepth = 0;
+            for (int i = 0; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (quoted) {
+                    //inside \Q...\E
+                    if (c == '\\' && i + 1 < regex.length() && regex.charAt(i + 1) == 'E') {
+                        quoted = false;
+                        i++;
+                    }
+                } else if (c == '\\') {
+                    quoted = i + 1 < regex.length() && regex.charAt(i + 1) == 'Q';
+                    i++;
+                } else if (c == '[') {
+                    classDepth++;
+                } else if (c == ']' && classDepth > 0) {
+                    classDepth--;
+                } else if (c == '(' && classDepth == 0) {
+                    if (!regex.startsWith("?", i + 1)) {
+                        groupsCount++;
+                    } else if (regex.startsWith("?<", i + 1) && !regex.startsWith("?<=", i + 1) && !regex.startsWith("?<!", i + 1)) {
+                        groupsCount++;
+                        int nameEnd = regex.indexOf('>', i);
+                        names.add(regex.substring(i + 3, nameEnd));
+                        indexes.add(groupsCount);
+                        i = nameEnd;
+                    }
+                }
+            }
+        }
+
+        int actualGroupsCount = pattern.matcher("").groupCount();
+        if (groupsCount != actualGroupsCount) {
+            throw new IllegalArgumentException("Cannot find groups of regex [" + pattern.pattern() + "], found " + groupsCount + " groups, but pattern has " + actualGroupsCount);
+        }
+        groupNames = names.toArray(new String[names.size()]);
+        groupIndexes = new int[indexes.size()];
+        for (int i = 0; i < groupIndexes.length; i++) {
+            groupIndexes[i] = indexes.get(i);
+        }
+    }
 }
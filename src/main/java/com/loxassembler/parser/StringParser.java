@@ -1,8 +1,7 @@
 package com.loxassembler.parser;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,11 +60,7 @@ public class StringParser {
     }
 
     public boolean match(String label, MatchedToken matchedToken) {
-        matchedToken.getMatchedGroups().clear();
-        matchedToken.setLength(0);
-        matchedToken.setPosition(-1);
-        matchedToken.setText(null);
-        matchedToken.setMatcher(null);
+        matchedToken.clear();
         StringMatcher matcher = matchers.get(label);
         if (matcher == null) {
             throw new IllegalArgumentException("There is no defined matcher with label [" + label + "]");
@@ -84,15 +79,7 @@ public class StringParser {
                 matchedToken.setLength(fullTokenLength);
                 matchedToken.setPosition(currentOffset);
                 matchedToken.setMatcher(matcher);
-
-                List<String> groupNames = getNamedGroupsFromPattern(matcher.getPattern());
-                for (String groupName : groupNames) {
-                    String groupValue=m.group(groupName);
-                    if(groupValue!=null){
-                        StringWithPosition str = new StringWithPosition(groupValue, m.start(groupName), m.end(groupName));
-                        matchedToken.getMatchedGroups().put(groupName, str);
-                    }
-                }
+                matchedToken.setGroups(string, m);
 
                 currentOffset += fullTokenLength;
                 return true;
@@ -116,20 +103,6 @@ public class StringParser {
     }
 
     public static List<String> getNamedGroupsFromPattern(Pattern regex) {
-        try {
-            Method namedGroupsMethod = Pattern.class.getDeclaredMethod("namedGroups");
-            namedGroupsMethod.setAccessible(true);
-
-            Map<String, Integer> namedGroups;
-            namedGroups = (Map<String, Integer>) namedGroupsMethod.invoke(regex);
-
-            if (namedGroups == null) {
-                throw new InternalError();
-            }
-
-            return new ArrayList<>(namedGroups.keySet());
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            throw new RuntimeException(ex);
-        }
+        return Arrays.asList(new StringMatcher(regex).getGroupNames());
     }
 }
@@ -0,0 +1,108 @@
+package com.loxassembler.parser;
+
+/**
+ * Token read by {@link Lexer}. One token object is reused for the whole
+ * source, its text is a range of the lexer input and is copied to a string
+ * only by {@link #getText()}.
+ *
+ * @author Dmitry
+ */
+public class Token {
+
+    public static enum Type {
+        Identifier, Number, Symbol, Invalid, End
+    }
+
+    private Type type = Type.End;
+    private CharSequence source;
+    private int start;
+    private int end;
+    private int value;
+
+    void set(Type type, CharSequence source, int start, int end, int value) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return position of the first char in the lexer input
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return position after the last char in the lexer input
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    public char charAt(int index) {
+        return source.charAt(start + index);
+    }
+
+    /**
+     * @return value of number token, numbers are unsigned 32 bit, so values
+     * above 0x7FFFFFFF are negative
+     */
+    public int getValue() {
+        return value;
+    }
+
+    public boolean isSymbol(char symbol) {
+        return type == Type.Symbol && source.charAt(start) == symbol;
+    }
+
+    /**
+     * Compares text of the token with the string without copying it
+     */
+    public boolean textEquals(String text) {
+        int length = end - start;
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the text starts with the prefix and is longer than it
+     */
+    public boolean textStartsWith(String prefix) {
+        int length = prefix.length();
+        if (end - start <= length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getText() {
+        return source.subSequence(start, end).toString();
+    }
+
+    @Override
+    public String toString() {
+        return type + (type == Type.End ? "" : " [" + getText() + "]");
+    }
+}
@@ -0,0 +1,142 @@
+package com.lox01;
+
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.dma.DmaController;
+import com.lox01.modules.ram.FixedRamModule;
+import com.lox01.modules.ram.PagedRamModule;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class ComputerTest {
+
+    private static final int DMA_ADDRESS = 0x200000;
+
+    /**
+     * mov r1, 0x4000; mov r3, 3; loop: mov32 r2, [r1]; mul r2, r3; mov32
+     * [r1], r2; jmp loop
+     */
+    private static final byte[] COUNTER_LOOP = new byte[]{
+        60, 0, 0, 0x40, 0, 0,
+        60, 2, 3, 0, 0, 0,
+        86, 1 | 7 << 3,
+        25, 1 | 2 << 3,
+        92, 1 | 7 << 3,
+        2, -11, -1, -1, -1
+    };
+
+    private Computer createComputer(boolean jit) {
+        Computer computer = new Computer();
+        computer.getProcessor().setJitEnabled(jit);
+        computer.insertModule(new PagedRamModule(1024, 0x1000));
+        computer.insertModule(new DmaController(DMA_ADDRESS));
+        MemoryController controller = computer.getController();
+        for (int i = 0; i < COUNTER_LOOP.length; i++) {
+            controller.setMem8(0x1000 + i, COUNTER_LOOP[i]);
+        }
+        controller.setMem32(0x4000, 1);
+        computer.getProcessor().reset();
+        return computer;
+    }
+
+    private static int power3(int count) {
+        int value = 1;
+        for (int i = 0; i < count; i++) {
+            value *= 3;
+        }
+        return value;
+    }
+
+    @Test
+    public void testForkedComputersAreIndependent() {
+        for (boolean jit : new boolean[]{false, true}) {
+            Computer parent = createComputer(jit);
+            parent.execute(4002);
+            Assert.assertEquals(power3(1000), parent.getController().getMem32(0x4000));
+
+            //DMA transfer started before fork completes in both computers
+            MemoryController controller = parent.getController();
+            controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_SOURCE * 4, 0x1000);
+            controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_DESTINATION * 4, 0x8000);
+            controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_LENGTH * 4, COUNTER_LOOP.length);
+            controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_CONTROL * 4, DmaController.CONTROL_START);
+
+            Computer child = parent.fork();
+            Assert.assertEquals(4002, child.getProcessor().getInstructionsCount());
+            Assert.assertEquals(jit, child.getProcessor().isJitEnabled());
+
+            parent.execute(400);
+            Assert.assertEquals(power3(1100), parent.getController().getMem32(0x4000));
+            Assert.assertEquals(power3(1000), child.getController().getMem32(0x4000));
+
+            child.execute(4000);
+            Assert.assertEquals(power3(2000), child.getController().getMem32(0x4000));
+            Assert.assertEquals(power3(1100), parent.getController().getMem32(0x4000));
+            Assert.assertEquals(COUNTER_LOOP[6], child.getController().getMem8(0x8006));
+            Assert.assertEquals(COUNTER_LOOP[6], parent.getController().getMem8(0x8006));
+        }
+    }
+
+    @Test
+    public void testForkSharesPages() {
+        Computer parent = createComputer(false);
+        parent.execute(1002);
+        PagedRamModule parentRam = (PagedRamModule) parent.getModulesController().getModules().get(0);
+
+        List<Computer> children = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            children.add(parent.fork());
+        }
+        Assert.assertEquals(0, parentRam.getPrivatePagesCount());
+
+        for (Computer child : children) {
+            child.execute(100);
+            PagedRamModule ram = (PagedRamModule) child.getModulesController().getModules().get(0);
+            //only the page of the counter is copied
+            Assert.assertEquals(1, ram.getPrivatePagesCount());
+            Assert.assertEquals(power3(275), child.getController().getMem32(0x4000));
+        }
+    }
+
+    @Test
+    public void testForkWithMappingOfNotInsertedModule() {
+        Computer computer = createComputer(false);
+        computer.fork();
+        computer.getController().addMemoryMapping(new FixedRamModule(4, 0), 0x300000, 4096, 0);
+        try {
+            computer.fork();
+            Assert.fail("Mapping of not inserted module is dropped by fork");
+        } catch (UnsupportedOperationException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("300000"));
+        }
+    }
+
+    @Test
+    public void testClockFrequency() {
+        Computer computer = createComputer(true);
+        computer.setClockFrequency(1_000_000);
+        Assert.assertEquals(1_000_000, computer.fork().getClockFrequency());
+
+        FakeClock clock = new FakeClock();
+        computer.setClockThrottle(new ClockThrottle(1_000_000, computer.getProcessor().getCyclesCount(), clock));
+        computer.execute(50_000);
+        Assert.assertEquals(50_000, computer.getProcessor().getCyclesCount());
+        //runs a millisecond ahead of the clock, then sleeps until the clock catches up
+        List<Long> sleeps = clock.getSleeps();
+        Assert.assertEquals(49, sleeps.size());
+        for (long sleep : sleeps) {
+            Assert.assertEquals(1_000_000, sleep);
+        }
+
+        computer.setClockFrequency(0);
+        Assert.assertNull(computer.getClockThrottle());
+        computer.execute(50_000);
+        Assert.assertEquals(100_000, computer.getProcessor().getCyclesCount());
+        Assert.assertEquals(49, clock.getSleeps().size());
+    }
+}
@@ -0,0 +1,31 @@
+package com.lox01;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clock for throttle tests, time moves only by sleeping, and requested
+ * sleeps are recorded
+ *
+ * @author Dmitry
+ */
+public class FakeClock implements ClockThrottle.Clock {
+
+    private final List<Long> sleeps = new ArrayList<>();
+    private long nanos;
+
+    @Override
+    public synchronized long nanoTime() {
+        return nanos;
+    }
+
+    @Override
+    public synchronized void sleep(long nanos) {
+        sleeps.add(nanos);
+        this.nanos += nanos;
+    }
+
+    public synchronized List<Long> getSleeps() {
+        return new ArrayList<>(sleeps);
+    }
+}
@@ -0,0 +1,164 @@
+package com.lox01;
+
+import com.lox01.module.AbstractModule;
+import com.lox01.modules.ram.FixedRamModule;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Machine code builder for tests, the program starts at 0x1000 where
+ * {@link #createComputer} maps RAM with it
+ *
+ * @author Dmitry
+ */
+public class Program {
+
+    public static final int START = 0x1000;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private int pc() {
+        return START + bytes.size();
+    }
+
+    private Program i16(int value) {
+        bytes.write(value);
+        bytes.write(value >> 8);
+        return this;
+    }
+
+    public Program i32(int value) {
+        i16(value);
+        return i16(value >> 16);
+    }
+
+    public Program mov(int register, int value) {
+        bytes.write(60);
+        bytes.write(register);
+        return i32(value);
+    }
+
+    public Program alu(int opcode, int register1, int register2) {
+        bytes.write(opcode);
+        bytes.write(register1 | register2 << 3);
+        return this;
+    }
+
+    /**
+     * mov32 register, [zero_reg + index]
+     */
+    public Program load32(int register, int indexRegister) {
+        bytes.write(86);
+        bytes.write(register | 7 << 3 | indexRegister << 6);
+        return this;
+    }
+
+    /**
+     * mov32 [zero_reg + index], value
+     */
+    public Program store32(int valueRegister, int indexRegister) {
+        bytes.write(92);
+        bytes.write(valueRegister | 7 << 3 | indexRegister << 6);
+        return this;
+    }
+
+    public Program jmp(int address) {
+        bytes.write(2);
+        return i32(address - (pc() + 4));
+    }
+
+    public Program jcc(int opcode, int address) {
+        bytes.write(opcode);
+        return i16(address - (pc() + 2));
+    }
+
+    public Program call(int address) {
+        bytes.write(47);
+        return i32(address - (pc() + 4));
+    }
+
+    public Program ret() {
+        bytes.write(49);
+        return this;
+    }
+
+    public Program push(int register) {
+        bytes.write(50);
+        bytes.write(register);
+        return this;
+    }
+
+    public Program pop(int register) {
+        bytes.write(51);
+        bytes.write(register);
+        return this;
+    }
+
+    public Program pushf() {
+        bytes.write(52);
+        return this;
+    }
+
+    public Program popf() {
+        bytes.write(53);
+        return this;
+    }
+
+    public Program interrupt(int number) {
+        bytes.write(55);
+        bytes.write(number);
+        return this;
+    }
+
+    public Program setf(int flag) {
+        bytes.write(44);
+        bytes.write(flag);
+        return this;
+    }
+
+    public Program iret() {
+        bytes.write(57);
+        return this;
+    }
+
+    /**
+     * Pads the program with zeros up to the address
+     */
+    public Program at(int address) {
+        while (pc() < address) {
+            bytes.write(0);
+        }
+        return this;
+    }
+
+    public Program brk() {
+        bytes.write(0);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return bytes.toByteArray();
+    }
+
+    public Computer createComputer(AbstractModule... modules) {
+        return createComputer(4, modules);
+    }
+
+    /**
+     * Creates a computer with RAM at {@link #START} that holds the program,
+     * inserts the modules after the RAM and resets the processor
+     *
+     * @param ramKbSize minimal size of the RAM
+     */
+    public Computer createComputer(int ramKbSize, AbstractModule... modules) {
+        byte[] code = toByteArray();
+        FixedRamModule ram = new FixedRamModule(Math.max(ramKbSize, (code.length + 4095) / 4096 * 4), START);
+        Computer computer = new Computer();
+        computer.insertModule(ram);
+        for (AbstractModule module : modules) {
+            computer.insertModule(module);
+        }
+        System.arraycopy(code, 0, ram.bank, 0, code.length);
+        computer.getProcessor().reset();
+        return computer;
+    }
+}
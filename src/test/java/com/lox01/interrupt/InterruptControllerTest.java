@@ -0,0 +1,96 @@
+package com.lox01.interrupt;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class InterruptControllerTest {
+
+    @Test
+    public void testPriorities() {
+        InterruptController controller = new InterruptController();
+        Assert.assertFalse(controller.hasPendingInterrupts());
+        Assert.assertEquals(-1, controller.acknowledge());
+
+        controller.setPriority(64, 1);
+        controller.setPriority(130, 1);
+        controller.setPriority(3, 2);
+        controller.raise(3);
+        controller.raise(130);
+        controller.raise(64);
+        controller.raise(200);
+        controller.raise(64);
+        Assert.assertTrue(controller.hasPendingInterrupts());
+        Assert.assertTrue(controller.isPending(3));
+
+        Assert.assertEquals(200, controller.acknowledge());
+        Assert.assertEquals(64, controller.acknowledge());
+        Assert.assertEquals(130, controller.acknowledge());
+        Assert.assertEquals(3, controller.acknowledge());
+        Assert.assertEquals(-1, controller.acknowledge());
+        Assert.assertFalse(controller.hasPendingInterrupts());
+    }
+
+    @Test
+    public void testMasks() {
+        InterruptController controller = new InterruptController();
+        controller.mask(10);
+        controller.raise(10);
+        controller.raise(20);
+        Assert.assertEquals(20, controller.acknowledge());
+        Assert.assertFalse(controller.hasDeliverableInterrupt());
+        Assert.assertEquals(-1, controller.acknowledge());
+        Assert.assertTrue(controller.isPending(10));
+
+        controller.setPriority(10, 3);
+        Assert.assertTrue(controller.isPending(10));
+        controller.unmask(10);
+        Assert.assertTrue(controller.hasDeliverableInterrupt());
+        Assert.assertEquals(10, controller.acknowledge());
+
+        controller.raise(30);
+        controller.cancel(30);
+        Assert.assertEquals(-1, controller.acknowledge());
+        Assert.assertFalse(controller.hasPendingInterrupts());
+    }
+
+    @Test
+    public void testConcurrentRaise() throws InterruptedException {
+        final InterruptController controller = new InterruptController();
+        final int threadsCount = 4;
+        boolean[] delivered = new boolean[InterruptController.INTERRUPTS_COUNT];
+        for (int round = 0; round < 200; round++) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < threadsCount; t++) {
+                final int first = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = first; i < InterruptController.INTERRUPTS_COUNT; i += threadsCount) {
+                        controller.raise(i);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            //acknowledges while devices raise interrupts
+            int interruptNumber;
+            while (threads.stream().anyMatch(Thread::isAlive) || controller.hasPendingInterrupts()) {
+                if ((interruptNumber = controller.acknowledge()) != -1) {
+                    delivered[interruptNumber] = true;
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (int i = 0; i < InterruptController.INTERRUPTS_COUNT; i++) {
+                Assert.assertTrue("Interrupt " + i + " is lost", delivered[i]);
+                delivered[i] = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.lox01.memmanager;
+
+import com.lox01.module.AbstractModule;
+import com.lox01.modules.ram.RamModule;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class MemoryControllerTest {
+
+    @Test
+    public void testPageDecoding() {
+        MemoryController controller = new MemoryController();
+        RamModule low = new RamModule(8);
+        RamModule high = new RamModule(4);
+        Assert.assertTrue(controller.addMemoryMapping(low, 0x1000, 8 * 1024, 0));
+        Assert.assertTrue(controller.addMemoryMapping(high, 0x3000, 4 * 1024, 0));
+        Assert.assertFalse(controller.addMemoryMapping(new RamModule(4), 0x2FFF, 2, 0));
+
+        controller.setMem8(0x1000, 0x11);
+        controller.setMem8(0x2FFF, 0x22);
+        controller.setMem8(0x3000, 0x33);
+        Assert.assertEquals(0x11, low.bank[0]);
+        Assert.assertEquals(0x22, low.bank[8 * 1024 - 1]);
+        Assert.assertEquals(0x33, high.bank[0]);
+
+        Assert.assertSame(low, controller.findMapping(0x2FFF).getModule());
+        Assert.assertSame(high, controller.findMapping(0x3000).getModule());
+        Assert.assertNull(controller.findMapping(0x0FFF));
+        Assert.assertNull(controller.findMapping(0x4000));
+        Assert.assertNull(controller.findMapping(0x7FFFFFFF));
+
+        Assert.assertEquals(0, controller.getMem8(0x4000));
+        controller.setMem8(0x4000, 0x44);
+    }
+
+    @Test
+    public void testMappingsInsideOnePage() {
+        MemoryController controller = new MemoryController();
+        RamModule first = new RamModule(1);
+        RamModule second = new RamModule(1);
+        Assert.assertTrue(controller.addMemoryMapping(first, 0x10000, 1024, 0));
+        Assert.assertTrue(controller.addMemoryMapping(second, 0x10400, 1024, 0));
+
+        Assert.assertSame(first, controller.findMapping(0x103FF).getModule());
+        Assert.assertSame(second, controller.findMapping(0x10400).getModule());
+        Assert.assertNull(controller.findMapping(0x10800));
+
+        controller.setMem32(0x103FE, 0x44332211);
+        Assert.assertEquals(0x11, first.bank[1022]);
+        Assert.assertEquals(0x22, first.bank[1023]);
+        Assert.assertEquals(0x33, second.bank[0]);
+        Assert.assertEquals(0x44, second.bank[1]);
+        Assert.assertEquals(0x44332211, controller.getMem32(0x103FE));
+    }
+
+    @Test
+    public void testDirectBufferAccess() {
+        final byte[] memory = new byte[4096];
+        AbstractModule module = new AbstractModule() {
+            @Override
+            public ByteBuffer getMemoryBuffer(int id) {
+                return ByteBuffer.wrap(memory);
+            }
+
+            @Override
+            public int getMem8(int id, int address) {
+                throw new IllegalStateException("Should not be called");
+            }
+
+            @Override
+            public int getMem16(int id, int address) {
+                throw new IllegalStateException("Should not be called");
+            }
+
+            @Override
+            public int getMem32(int id, int address) {
+                throw new IllegalStateException("Should not be called");
+            }
+
+            @Override
+            public void setMem8(int id, int address, int value) {
+                throw new IllegalStateException("Should not be called");
+            }
+
+            @Override
+            public void setMem16(int id, int address, int value) {
+                throw new IllegalStateException("Should not be called");
+            }
+
+            @Override
+            public void setMem32(int id, int address, int value) {
+                throw new IllegalStateException("Should not be called");
+            }
+        };
+        MemoryController controller = new MemoryController();
+        Assert.assertTrue(controller.addMemoryMapping(module, 0x2000, 4096, 0));
+
+        controller.setMem32(0x2010, 0xAABBCCDD);
+        Assert.assertEquals((byte) 0xDD, memory[0x10]);
+        Assert.assertEquals((byte) 0xAA, memory[0x13]);
+        Assert.assertEquals(0xAABBCCDD, controller.getMem32(0x2010));
+        Assert.assertEquals((short) 0xCCDD, controller.getMem16(0x2010));
+        Assert.assertEquals((byte) 0xBB, controller.getMem8(0x2012));
+
+        controller.setMem16(0x2020, 0x1234);
+        controller.setMem8(0x2022, 0x56);
+        Assert.assertEquals(0x561234, controller.getMem32(0x2020));
+    }
+
+    @Test
+    public void testCopy() {
+        MemoryController controller = new MemoryController();
+        RamModule first = new RamModule(4);
+        RamModule second = new RamModule(4);
+        Assert.assertTrue(controller.addMemoryMapping(first, 0x1000, 4096, 0));
+        Assert.assertTrue(controller.addMemoryMapping(second, 0x2000, 4096, 0));
+        for (int i = 0; i < 4096; i++) {
+            first.bank[i] = (byte) i;
+        }
+
+        //block crosses the boundary of two mappings and the end of mapped memory
+        controller.copy(0x1800, 0x2800, 4096);
+        for (int i = 0; i < 2048; i++) {
+            Assert.assertEquals((byte) (0x800 + i), second.bank[0x800 + i]);
+        }
+        Assert.assertEquals(0, controller.getMem32(0x2000));
+        Assert.assertEquals(0, controller.getMem32(0x3000));
+
+        //overlapping copy in the same buffer
+        controller.copy(0x1000, 0x1001, 16);
+        Assert.assertEquals(0, first.bank[1]);
+        Assert.assertEquals(15, first.bank[16]);
+    }
+}
@@ -0,0 +1,203 @@
+package com.lox01.module;
+
+import com.lox01.Computer;
+import com.lox01.Program;
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.ram.FixedRamModule;
+import com.lox01.processor.CycleCosts;
+import com.lox01.processor.ExitReason;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class ModulesControllerTest {
+
+    private static final int TIMER_ADDRESS = 0x2000;
+
+    /**
+     * Sets the timer period to 100 and loops
+     */
+    private static final Program TIMER_PROGRAM = new Program()
+            .mov(0, TIMER_ADDRESS)
+            .mov(1, 100)
+            .store32(1, 0)
+            .jmp(0x100E);
+
+    /**
+     * Counts ticks with the period from register 0 to register 1
+     */
+    private static class Timer extends MmioDevice {
+
+        private int period;
+        private int counter;
+        private int initCount;
+        private int resetCount;
+
+        public Timer() {
+            super(TIMER_ADDRESS, 4);
+            defineRegister(0, () -> period, value -> {
+                period = value;
+                requestTick(period);
+            });
+            defineRegister(1, () -> counter, value -> counter = value);
+            defineRegister(2, () -> 0x12345678, null);
+        }
+
+        @Override
+        public void init(MemoryController memoryManager) {
+            initCount++;
+        }
+
+        @Override
+        public void reset() {
+            resetCount++;
+            period = 0;
+            counter = 0;
+        }
+
+        @Override
+        public void tick(long cycle) {
+            counter++;
+            requestTick(period);
+        }
+    }
+
+    @Test
+    public void testLifecycleAndMapping() {
+        Computer computer = new Computer();
+        Timer timer = new Timer();
+        computer.insertModule(new FixedRamModule(4, 0x1000));
+        computer.insertModule(timer);
+        Assert.assertEquals(1, timer.initCount);
+        Assert.assertEquals(1, timer.resetCount);
+        Assert.assertSame(timer, computer.getController().findMapping(TIMER_ADDRESS + 15).getModule());
+        Assert.assertNull(computer.getController().findMapping(TIMER_ADDRESS + 16));
+
+        computer.reset();
+        Assert.assertEquals(1, timer.initCount);
+        Assert.assertEquals(2, timer.resetCount);
+
+        try {
+            computer.insertModule(timer);
+            Assert.fail("Module is inserted twice");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testOverlappingModules() {
+        Computer computer = new Computer();
+        FixedRamModule ram = new FixedRamModule(4, 0x1000);
+        computer.insertModule(ram);
+        computer.insertModule(new Timer());
+        try {
+            computer.insertModule(new FixedRamModule(4, 0x1800));
+            Assert.fail("Overlapping module is inserted");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("1800"));
+        }
+        Assert.assertSame(ram, computer.getController().findMapping(0x1800).getModule());
+        Assert.assertEquals(2, computer.getModulesController().getModules().size());
+
+        //first mapping is free, the second overlaps the timer
+        AbstractModule twoMappings = new AbstractModule() {
+            {
+                addMapping(0, 0x3000, 16);
+                addMapping(1, TIMER_ADDRESS + 8, 16);
+            }
+
+            @Override
+            public int getMem8(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem16(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem32(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public void setMem8(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem16(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem32(int id, int address, int value) {
+            }
+        };
+        try {
+            computer.insertModule(twoMappings);
+            Assert.fail("Overlapping module is inserted");
+        } catch (IllegalStateException ex) {
+        }
+        Assert.assertNull(computer.getController().findMapping(0x3000));
+        Assert.assertEquals(2, computer.getController().getMappings().size());
+        Assert.assertEquals(2, computer.getModulesController().getModules().size());
+    }
+
+    @Test
+    public void testRegisters() {
+        Computer computer = new Computer();
+        Timer timer = new Timer();
+        computer.insertModule(timer);
+        MemoryController controller = computer.getController();
+
+        Assert.assertEquals(0x12345678, controller.getMem32(TIMER_ADDRESS + 8));
+        Assert.assertEquals(0x3456, controller.getMem16(TIMER_ADDRESS + 9));
+        Assert.assertEquals(0x12, controller.getMem8(TIMER_ADDRESS + 11));
+        Assert.assertEquals(0, controller.getMem32(TIMER_ADDRESS + 12));
+
+        controller.setMem32(TIMER_ADDRESS + 4, 0x11223344);
+        controller.setMem8(TIMER_ADDRESS + 5, 0x55);
+        Assert.assertEquals(0x11225544, timer.counter);
+        controller.setMem16(TIMER_ADDRESS + 6, 0xFFEE);
+        Assert.assertEquals(0xFFEE5544, timer.counter);
+        Assert.assertEquals((short) 0xFFEE, controller.getMem16(TIMER_ADDRESS + 6));
+    }
+
+    @Test
+    public void testTicks() {
+        Timer timer = new Timer();
+        Computer computer = TIMER_PROGRAM.createComputer(timer);
+
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(3));
+        Assert.assertEquals(100, timer.period);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(10_000));
+        Assert.assertEquals(100, timer.counter);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(50));
+        Assert.assertEquals(100, timer.counter);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(50));
+        Assert.assertEquals(101, timer.counter);
+        Assert.assertEquals(10_103, computer.getProcessor().getInstructionsCount());
+    }
+
+    @Test
+    public void testTicksAreCountedInCycles() {
+        Timer timer = new Timer();
+        Computer computer = TIMER_PROGRAM.createComputer(timer);
+        //jmp takes 4 cycles, so the timer ticks every 25 iterations
+        computer.getProcessor().setCycleCosts(CycleCosts.createWeighted().setCost(2, 4));
+
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(3));
+        Assert.assertEquals(5, computer.getProcessor().getCyclesCount());
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(10_000));
+        Assert.assertEquals(40_005, computer.getProcessor().getCyclesCount());
+        Assert.assertEquals(400, timer.counter);
+        //the first tick was at cycle 101, the next is at 40101
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(23));
+        Assert.assertEquals(400, timer.counter);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(1));
+        Assert.assertEquals(401, timer.counter);
+    }
+}
@@ -0,0 +1,164 @@
+package com.lox01.modules.dma;
+
+import com.lox01.Computer;
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.ram.FixedRamModule;
+import com.lox01.modules.video.Framebuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class DmaControllerTest {
+
+    private static final int DMA_ADDRESS = 0x8000;
+
+    private Computer createComputer(DmaController dma) {
+        Computer computer = new Computer();
+        computer.insertModule(new FixedRamModule(16, 0x1000));
+        computer.insertModule(dma);
+        return computer;
+    }
+
+    /**
+     * mov r1, 0x4000; mov r2, value; mov32 [r1], r2; jmp 0x1000
+     */
+    private byte[] storeLoop(int value) {
+        return new byte[]{60, 0, 0, 0x40, 0, 0, 60, 1, (byte) value, 0, 0, 0, 92, 0x01 | 7 << 3, 2, -19, -1, -1, -1};
+    }
+
+    private void write(MemoryController controller, int address, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            controller.setMem8(address + i, bytes[i]);
+        }
+    }
+
+    private void startTransfer(MemoryController controller, int source, int destination, int length, int control) {
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_SOURCE * 4, source);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_DESTINATION * 4, destination);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_LENGTH * 4, length);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_CONTROL * 4, control);
+    }
+
+    @Test
+    public void testTransferTiming() {
+        DmaController dma = new DmaController(DMA_ADDRESS);
+        Computer computer = createComputer(dma);
+        MemoryController controller = computer.getController();
+        write(controller, 0x1000, new byte[]{2, -5, -1, -1, -1});//jmp 0x1000
+        computer.getProcessor().reset();
+        for (int i = 0; i < 1000; i++) {
+            controller.setMem32(0x2000 + i * 4, i * 7);
+        }
+
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_INTERRUPT * 4, 9);
+        startTransfer(controller, 0x2000, 0x3000, 4000, DmaController.CONTROL_START | DmaController.CONTROL_INTERRUPT);
+        long cycles = DmaController.getTransferCycles(4000);
+        Assert.assertEquals(DmaController.SETUP_CYCLES + 250, cycles);
+        Assert.assertEquals(DmaController.CONTROL_START | DmaController.CONTROL_INTERRUPT, controller.getMem32(DMA_ADDRESS + DmaController.REGISTER_CONTROL * 4));
+
+        computer.execute(cycles - 1);
+        Assert.assertTrue(dma.isBusy());
+        Assert.assertEquals(0, controller.getMem32(0x3000));
+        Assert.assertFalse(computer.getInterruptController().isPending(9));
+
+        computer.execute(1);
+        Assert.assertFalse(dma.isBusy());
+        Assert.assertTrue(computer.getInterruptController().isPending(9));
+        Assert.assertEquals(DmaController.CONTROL_INTERRUPT, controller.getMem32(DMA_ADDRESS + DmaController.REGISTER_CONTROL * 4));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(i * 7, controller.getMem32(0x3000 + i * 4));
+        }
+        Assert.assertEquals(1, dma.getTransfersCount());
+        Assert.assertEquals(4000, dma.getBytesCount());
+    }
+
+    @Test
+    public void testTransferOverCode() {
+        testTransferOverCode(false);
+        testTransferOverCode(true);
+    }
+
+    private void testTransferOverCode(boolean jit) {
+        DmaController dma = new DmaController(DMA_ADDRESS);
+        Computer computer = createComputer(dma);
+        computer.getProcessor().setJitEnabled(jit);
+        MemoryController controller = computer.getController();
+        write(controller, 0x1000, storeLoop(1));
+        write(controller, 0x3000, storeLoop(2));
+        computer.getProcessor().reset();
+
+        computer.execute(1000);
+        Assert.assertEquals(1, controller.getMem32(0x4000));
+
+        //copied code replaces decoded and compiled instructions
+        startTransfer(controller, 0x3000, 0x1000, 19, DmaController.CONTROL_START);
+        computer.execute(1000);
+        Assert.assertEquals(2, controller.getMem32(0x4000));
+    }
+
+    @Test
+    public void testTransferToFramebuffer() {
+        final int[] byteWrites = new int[1];
+        Framebuffer framebuffer = new Framebuffer(0x100000, 16, 100) {
+            @Override
+            public void setMem8(int id, int address, int value) {
+                byteWrites[0]++;
+                super.setMem8(id, address, value);
+            }
+        };
+        DmaController dma = new DmaController(DMA_ADDRESS);
+        Computer computer = createComputer(dma);
+        computer.insertModule(framebuffer);
+        MemoryController controller = computer.getController();
+        write(controller, 0x1000, new byte[]{2, -5, -1, -1, -1});
+        computer.getProcessor().reset();
+        for (int i = 0; i < 50; i++) {
+            controller.setMem32(0x2000 + i * 4, i + 1);
+        }
+        framebuffer.takeDirtyLines(line -> {
+        });
+
+        //200 bytes from line 10 offset 8 end in line 13
+        startTransfer(controller, 0x2000, 0x100000 + 10 * 64 + 8, 200, DmaController.CONTROL_START);
+        computer.execute(100);
+        Assert.assertFalse(dma.isBusy());
+        Assert.assertEquals(0, byteWrites[0]);
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(i + 1, framebuffer.getPixels().getInt(10 * 64 + 8 + i * 4));
+        }
+        Assert.assertEquals(0, controller.getMem32(0x100000 + 10 * 64 + 4));
+        Assert.assertEquals(0, controller.getMem32(0x100000 + 10 * 64 + 208));
+        List<Integer> lines = new ArrayList<>();
+        framebuffer.takeDirtyLines(lines::add);
+        Assert.assertEquals(Arrays.asList(10, 11, 12, 13), lines);
+
+        //counters are part of the state
+        DmaController forked = dma.fork();
+        Assert.assertEquals(1, forked.getTransfersCount());
+        Assert.assertEquals(200, forked.getBytesCount());
+    }
+
+    @Test
+    public void testStartWhileBusyIsIgnored() {
+        DmaController dma = new DmaController(DMA_ADDRESS);
+        Computer computer = createComputer(dma);
+        MemoryController controller = computer.getController();
+        write(controller, 0x1000, new byte[]{2, -5, -1, -1, -1});
+        computer.getProcessor().reset();
+        controller.setMem32(0x2000, 0x11111111);
+        controller.setMem32(0x2004, 0x22222222);
+
+        startTransfer(controller, 0x2000, 0x3000, 4, DmaController.CONTROL_START);
+        startTransfer(controller, 0x2004, 0x3004, 4, DmaController.CONTROL_START);
+        computer.execute(100);
+        Assert.assertEquals(0x11111111, controller.getMem32(0x3000));
+        Assert.assertEquals(0, controller.getMem32(0x3004));
+        Assert.assertEquals(1, dma.getTransfersCount());
+    }
+}
@@ -0,0 +1,62 @@
+package com.lox01.modules.ram;
+
+import com.lox01.memmanager.MemoryController;
+import java.io.File;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class MappedRamModuleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDirectRam() {
+        DirectRamModule ram = new DirectRamModule(64);
+        MemoryController controller = new MemoryController();
+        controller.addMemoryMapping(ram, 0x10000, ram.getSize(), 0);
+        controller.setMem32(0x10002, 0x80FF7F01);
+        Assert.assertEquals(0x80FF7F01, ram.getMem32(0, 2));
+        Assert.assertEquals((short) 0x7F01, controller.getMem16(0x10002));
+        Assert.assertEquals((byte) 0x80, controller.getMem8(0x10005));
+    }
+
+    @Test
+    public void testPersistentImage() throws Exception {
+        File image = new File(folder.getRoot(), "ram.img");
+        try (MappedRamModule ram = new MappedRamModule(image.toPath(), 16, true)) {
+            Assert.assertEquals(16 * 1024, image.length());
+            ram.setMem32(0, 0x100, 0xCAFEBABE);
+        }
+
+        try (MappedRamModule ram = new MappedRamModule(image.toPath(), 16, true)) {
+            Assert.assertEquals(0xCAFEBABE, ram.getMem32(0, 0x100));
+        }
+    }
+
+    @Test
+    public void testPrivateImageIsNotModified() throws Exception {
+        File image = new File(folder.getRoot(), "base.img");
+        try (MappedRamModule ram = new MappedRamModule(image.toPath(), 4, true)) {
+            ram.setMem32(0, 0, 0x11223344);
+        }
+
+        try (MappedRamModule first = new MappedRamModule(image.toPath(), 4, false);
+                MappedRamModule second = new MappedRamModule(image.toPath(), 4, false)) {
+            Assert.assertEquals(0x11223344, first.getMem32(0, 0));
+            first.setMem32(0, 0, 0x55667788);
+            Assert.assertEquals(0x55667788, first.getMem32(0, 0));
+            Assert.assertEquals(0x11223344, second.getMem32(0, 0));
+        }
+
+        try (MappedRamModule ram = new MappedRamModule(image.toPath(), 4, false)) {
+            Assert.assertEquals(0x11223344, ram.getMem32(0, 0));
+        }
+    }
+}
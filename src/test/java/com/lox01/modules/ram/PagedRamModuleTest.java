@@ -0,0 +1,66 @@
+package com.lox01.modules.ram;
+
+import com.lox01.memmanager.MemoryController;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class PagedRamModuleTest {
+
+    private MemoryController map(PagedRamModule ram) {
+        MemoryController controller = new MemoryController();
+        Assert.assertTrue(controller.addMemoryMapping(ram, 0x10000, ram.getSize(), 0));
+        return controller;
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        PagedRamModule parent = new PagedRamModule(64, 0x10000);
+        MemoryController parentController = map(parent);
+        Assert.assertEquals(0, parentController.getMem32(0x10100));
+        Assert.assertEquals(0, parent.getPrivatePagesCount());
+
+        parentController.setMem32(0x10100, 0x11111111);
+        //crosses pages 1 and 2
+        parentController.setMem32(0x11FFE, 0x22334455);
+        Assert.assertEquals(3, parent.getPrivatePagesCount());
+
+        PagedRamModule child = parent.fork();
+        MemoryController childController = map(child);
+        Assert.assertEquals(0, parent.getPrivatePagesCount());
+        Assert.assertEquals(0, child.getPrivatePagesCount());
+        Assert.assertEquals(0x11111111, childController.getMem32(0x10100));
+        Assert.assertEquals(0x22334455, childController.getMem32(0x11FFE));
+        Assert.assertEquals(0x4455, childController.getMem16(0x11FFE));
+        Assert.assertTrue(child.getPageBuffer(0, 0x100).isReadOnly());
+
+        childController.setMem32(0x10104, 0x33333333);
+        parentController.setMem8(0x10100, 0x44);
+        Assert.assertEquals(1, child.getPrivatePagesCount());
+        Assert.assertEquals(1, parent.getPrivatePagesCount());
+        Assert.assertEquals(0x11111111, childController.getMem32(0x10100));
+        Assert.assertEquals(0x33333333, childController.getMem32(0x10104));
+        Assert.assertEquals(0x11111144, parentController.getMem32(0x10100));
+        Assert.assertEquals(0, parentController.getMem32(0x10104));
+    }
+
+    @Test
+    public void testBulkCopyBetweenPages() {
+        PagedRamModule ram = new PagedRamModule(64, 0x10000);
+        MemoryController controller = map(ram);
+        for (int i = 0; i < 3000; i++) {
+            controller.setMem32(0x10000 + i * 4, i);
+        }
+
+        PagedRamModule child = ram.fork();
+        MemoryController childController = map(child);
+        childController.copy(0x10000, 0x14002, 12000);
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertEquals(i, childController.getMem32(0x14002 + i * 4));
+        }
+        Assert.assertEquals(0, controller.getMem32(0x14002));
+    }
+}
@@ -0,0 +1,93 @@
+package com.lox01.modules.ram;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class RamModuleTest {
+
+    @Test
+    public void testMem8AllValues() {
+        RamModule ram = new RamModule(1);
+        for (int address = 0; address < 8; address++) {
+            for (int value = 0; value < 256; value++) {
+                ram.setMem8(0, address, value);
+                Assert.assertEquals((byte) value, ram.bank[address]);
+                Assert.assertEquals((byte) value, ram.getMem8(0, address));
+            }
+        }
+    }
+
+    @Test
+    public void testMem16AllValues() {
+        RamModule ram = new RamModule(1);
+        for (int address = 0; address < 8; address++) {
+            for (int value = 0; value < 0x10000; value++) {
+                ram.setMem16(0, address, value);
+                Assert.assertEquals((byte) value, ram.bank[address]);
+                Assert.assertEquals((byte) (value >> 8), ram.bank[address + 1]);
+                Assert.assertEquals((short) value, ram.getMem16(0, address));
+            }
+        }
+    }
+
+    @Test
+    public void testMem16FromBytes() {
+        RamModule ram = new RamModule(1);
+        for (int address = 0; address < 8; address++) {
+            for (int value = 0; value < 0x10000; value++) {
+                ram.bank[address] = (byte) value;
+                ram.bank[address + 1] = (byte) (value >> 8);
+                Assert.assertEquals((short) value, ram.getMem16(0, address));
+            }
+        }
+    }
+
+    @Test
+    public void testMem32AllBytePatterns() {
+        RamModule ram = new RamModule(1);
+        int[] fillers = new int[]{0x00, 0x7F, 0x80, 0xFF};
+        for (int address = 0; address < 8; address++) {
+            for (int bytePosition = 0; bytePosition < 4; bytePosition++) {
+                for (int filler : fillers) {
+                    for (int value = 0; value < 256; value++) {
+                        int word = 0;
+                        for (int i = 0; i < 4; i++) {
+                            word |= ((i == bytePosition) ? value : filler) << (i * 8);
+                        }
+
+                        ram.setMem32(0, address, word);
+                        for (int i = 0; i < 4; i++) {
+                            Assert.assertEquals((byte) (word >> (i * 8)), ram.bank[address + i]);
+                        }
+                        Assert.assertEquals(word, ram.getMem32(0, address));
+
+                        ram.setMem32(0, address, 0);
+                        for (int i = 0; i < 4; i++) {
+                            ram.bank[address + i] = (byte) (word >> (i * 8));
+                        }
+                        Assert.assertEquals(word, ram.getMem32(0, address));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNeighboursAreNotTouched() {
+        RamModule ram = new RamModule(1);
+        for (int address = 1; address < 8; address++) {
+            Arrays.fill(ram.bank, (byte) 0x5A);
+            ram.setMem32(0, address, 0xFFFFFFFF);
+            Assert.assertEquals(0x5A, ram.bank[address - 1]);
+            Assert.assertEquals(0x5A, ram.bank[address + 4]);
+            ram.setMem16(0, address, 0);
+            Assert.assertEquals(0x5A, ram.bank[address - 1]);
+            Assert.assertEquals((byte) 0xFF, ram.bank[address + 2]);
+        }
+    }
+}
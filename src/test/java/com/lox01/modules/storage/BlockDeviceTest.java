@@ -0,0 +1,113 @@
+package com.lox01.modules.storage;
+
+import com.lox01.Computer;
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.ram.FixedRamModule;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class BlockDeviceTest {
+
+    private static final int DEVICE_ADDRESS = 0x8000;
+
+    private Computer createComputer(BlockDevice device) {
+        Computer computer = new Computer();
+        computer.insertModule(new FixedRamModule(16, 0x1000));
+        computer.insertModule(device);
+        computer.getController().setMem8(0x1000, 2);//jmp 0x1000
+        computer.getController().setMem32(0x1001, -5);
+        computer.getProcessor().reset();
+        return computer;
+    }
+
+    private int register(int index) {
+        return DEVICE_ADDRESS + index * 4;
+    }
+
+    private void startCommand(MemoryController controller, int sector, int address, int count, int command) {
+        controller.setMem32(register(BlockDevice.REGISTER_SECTOR), sector);
+        controller.setMem32(register(BlockDevice.REGISTER_ADDRESS), address);
+        controller.setMem32(register(BlockDevice.REGISTER_COUNT), count);
+        controller.setMem32(register(BlockDevice.REGISTER_COMMAND), command);
+    }
+
+    @Test
+    public void testReadAndWrite() {
+        DiskImage base = DiskImage.create(16);
+        ByteBuffer data = ByteBuffer.allocate(2 * DiskImage.SECTOR_SIZE);
+        for (int i = 0; i < data.capacity(); i++) {
+            data.put(i, (byte) i);
+        }
+        base.write(5, data);
+
+        BlockDevice device = new BlockDevice(DEVICE_ADDRESS, base.createOverlay());
+        Computer computer = createComputer(device);
+        MemoryController controller = computer.getController();
+        Assert.assertEquals(16, controller.getMem32(register(BlockDevice.REGISTER_SECTORS)));
+
+        controller.setMem32(register(BlockDevice.REGISTER_INTERRUPT), 7);
+        startCommand(controller, 5, 0x2000, 2, BlockDevice.COMMAND_READ | BlockDevice.COMMAND_INTERRUPT);
+        Assert.assertEquals(BlockDevice.STATUS_BUSY, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        computer.execute(BlockDevice.getCommandCycles(2) - 1);
+        Assert.assertEquals(BlockDevice.STATUS_BUSY, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        Assert.assertEquals(0, controller.getMem32(0x2000));
+
+        computer.execute(1);
+        Assert.assertEquals(0, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        Assert.assertTrue(computer.getInterruptController().isPending(7));
+        Assert.assertEquals(0x03020100, controller.getMem32(0x2000));
+        Assert.assertEquals((byte) 0xFF, controller.getMem8(0x2000 + 2 * DiskImage.SECTOR_SIZE - 1));
+
+        //written sectors go to the overlay, base image is not modified
+        controller.setMem32(0x3000, 0x12345678);
+        startCommand(controller, 6, 0x3000, 1, BlockDevice.COMMAND_WRITE);
+        controller.setMem32(0x3000, 0);
+        computer.execute(BlockDevice.getCommandCycles(1));
+        Assert.assertEquals(0, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        Assert.assertEquals(1, device.getDisk().getModifiedSectorsCount());
+
+        ByteBuffer sector = ByteBuffer.allocate(DiskImage.SECTOR_SIZE);
+        device.getDisk().read(6, sector);
+        Assert.assertEquals(0x78, sector.get(0));
+        sector.clear();
+        base.read(6, sector);
+        Assert.assertEquals(0, sector.get(0));
+    }
+
+    @Test
+    public void testErrors() {
+        BlockDevice device = new BlockDevice(DEVICE_ADDRESS, DiskImage.create(4));
+        Computer computer = createComputer(device);
+        MemoryController controller = computer.getController();
+
+        startCommand(controller, 3, 0x2000, 2, BlockDevice.COMMAND_READ);
+        Assert.assertEquals(BlockDevice.STATUS_ERROR, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        startCommand(controller, 0, 0x2000, 1, 42);
+        Assert.assertEquals(BlockDevice.STATUS_ERROR, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+
+        startCommand(controller, 0, 0x2000, 1, BlockDevice.COMMAND_FLUSH);
+        computer.execute(BlockDevice.getCommandCycles(0));
+        Assert.assertEquals(0, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+    }
+
+    @Test
+    public void testTooManySectors() {
+        BlockDevice device = new BlockDevice(DEVICE_ADDRESS, DiskImage.create(BlockDevice.MAX_SECTORS + 1));
+        Computer computer = createComputer(device);
+        MemoryController controller = computer.getController();
+
+        startCommand(controller, 0, 0x2000, BlockDevice.MAX_SECTORS + 1, BlockDevice.COMMAND_READ);
+        Assert.assertEquals(BlockDevice.STATUS_ERROR, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+        startCommand(controller, 0, 0x2000, Integer.MAX_VALUE, BlockDevice.COMMAND_WRITE);
+        Assert.assertEquals(BlockDevice.STATUS_ERROR, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+
+        startCommand(controller, BlockDevice.MAX_SECTORS, 0x2000, 1, BlockDevice.COMMAND_READ);
+        computer.execute(BlockDevice.getCommandCycles(1));
+        Assert.assertEquals(0, controller.getMem32(register(BlockDevice.REGISTER_STATUS)));
+    }
+}
@@ -0,0 +1,78 @@
+package com.lox01.modules.storage;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class DiskImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer sectors(int count, int fill) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * DiskImage.SECTOR_SIZE);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (fill + i / DiskImage.SECTOR_SIZE));
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testOverlaysShareBaseImage() throws Exception {
+        File file = folder.newFile("disk.img");
+        Files.write(file.toPath(), sectors(8, 10).array());
+
+        DiskImage base = DiskImage.open(file.toPath(), false);
+        Assert.assertEquals(8, base.getSectorsCount());
+        Assert.assertTrue(base.isReadOnly());
+        try {
+            base.write(0, sectors(1, 0));
+            Assert.fail("Read only image is written");
+        } catch (IllegalStateException ex) {
+        }
+
+        DiskImage first = base.createOverlay();
+        DiskImage second = base.createOverlay();
+        first.write(2, sectors(2, 100));
+        Assert.assertEquals(2, first.getModifiedSectorsCount());
+        Assert.assertEquals(0, second.getModifiedSectorsCount());
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 * DiskImage.SECTOR_SIZE);
+        first.read(1, buffer);
+        Assert.assertEquals(11, buffer.get(0));
+        Assert.assertEquals(100, buffer.get(DiskImage.SECTOR_SIZE));
+        Assert.assertEquals(101, buffer.get(2 * DiskImage.SECTOR_SIZE + 5));
+        Assert.assertEquals(14, buffer.get(3 * DiskImage.SECTOR_SIZE));
+
+        buffer.clear();
+        second.read(1, buffer);
+        Assert.assertEquals(12, buffer.get(DiskImage.SECTOR_SIZE));
+        Assert.assertEquals(12, Files.readAllBytes(file.toPath())[2 * DiskImage.SECTOR_SIZE]);
+
+        try {
+            first.read(7, ByteBuffer.allocate(2 * DiskImage.SECTOR_SIZE));
+            Assert.fail("Read after the end of the disk");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testWritableImage() throws Exception {
+        File file = folder.newFile("disk.img");
+        Files.write(file.toPath(), new byte[4 * DiskImage.SECTOR_SIZE + 100]);
+
+        DiskImage disk = DiskImage.open(file.toPath(), true);
+        Assert.assertEquals(4, disk.getSectorsCount());
+        disk.write(3, sectors(1, 42));
+        disk.flush();
+        Assert.assertEquals(42, Files.readAllBytes(file.toPath())[3 * DiskImage.SECTOR_SIZE + 7]);
+    }
+}
@@ -0,0 +1,91 @@
+package com.lox01.modules.video;
+
+import com.lox01.Computer;
+import com.lox01.memmanager.MemoryController;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class FramebufferTest {
+
+    private static final int ADDRESS = 0x100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDirtyLines() {
+        Computer computer = new Computer();
+        Framebuffer framebuffer = new Framebuffer(ADDRESS, 16, 100);
+        computer.insertModule(framebuffer);
+        MemoryController controller = computer.getController();
+
+        //reset on insert makes the whole frame dirty
+        Assert.assertEquals(100, framebuffer.takeDirtyLines(line -> {
+        }));
+        Assert.assertFalse(framebuffer.hasDirtyLines());
+
+        controller.setMem32(ADDRESS + 70 * 64 + 8, 0xFF00FF);
+        controller.setMem8(ADDRESS + 3 * 64, 1);
+        //crosses lines 64 and 65
+        controller.setMem32(ADDRESS + 64 * 64 + 62, -1);
+        Assert.assertTrue(framebuffer.hasDirtyLines());
+
+        List<Integer> lines = new ArrayList<>();
+        Assert.assertEquals(4, framebuffer.takeDirtyLines(lines::add));
+        Assert.assertEquals(Arrays.asList(3, 64, 65, 70), lines);
+        Assert.assertFalse(framebuffer.hasDirtyLines());
+
+        Assert.assertEquals(0xFF00FF, controller.getMem32(ADDRESS + 70 * 64 + 8));
+        ByteBuffer pixels = framebuffer.getPixels();
+        Assert.assertTrue(pixels.isReadOnly());
+        Assert.assertEquals(0xFF00FF, pixels.getInt(70 * 64 + 8));
+    }
+
+    @Test
+    public void testImage() throws Exception {
+        Computer computer = new Computer();
+        Framebuffer framebuffer = new Framebuffer(ADDRESS, 8, 4);
+        computer.insertModule(framebuffer);
+        MemoryController controller = computer.getController();
+        FramebufferImage image = new FramebufferImage(framebuffer);
+        Assert.assertEquals(4, image.update());
+        Assert.assertEquals(0, image.update());
+
+        controller.setMem32(ADDRESS + (2 * 8 + 5) * 4, 0x123456);
+        Assert.assertEquals(1, image.update());
+        Assert.assertEquals(0x123456, image.getImage().getRGB(5, 2) & 0xFFFFFF);
+
+        controller.setMem32(ADDRESS, 0xABCDEF);
+        File file = folder.newFile("frame.png");
+        image.writePng(file);
+        BufferedImage saved = ImageIO.read(file);
+        Assert.assertEquals(8, saved.getWidth());
+        Assert.assertEquals(0xABCDEF, saved.getRGB(0, 0) & 0xFFFFFF);
+        Assert.assertEquals(0x123456, saved.getRGB(5, 2) & 0xFFFFFF);
+    }
+
+    @Test
+    public void testPanelFramesPerSecond() {
+        Framebuffer framebuffer = new Framebuffer(ADDRESS, 8, 4);
+        //delay of the timer is at least 1ms
+        new FramebufferPanel(framebuffer, 2, 5000);
+        try {
+            new FramebufferPanel(framebuffer, 2, 0);
+            Assert.fail("Panel is created with 0 frames per second");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.lox01.processor;
 
+import com.lox01.Computer;
+import com.lox01.Program;
+import com.lox01.module.AbstractModule;
+import java.util.List;
+import java.util.Random;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -9,6 +14,8 @@ import org.junit.Test;
  */
 public class LoxProcTest {
 
+    private static final int VECTOR_TABLE_ADDRESS = 0x1200;
+
     @Test
     public void testFlagSetGet() {
         LoxProcessor processor=new LoxProcessor();
@@ -31,4 +38,599 @@ public class LoxProcTest {
         Assert.assertEquals(0b1010, processor.getFlagByte());
     }
 
+    @Test
+    public void testExecuteBudget() {
+        Computer computer = new Program().jmp(0x1000).createComputer();
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(100));
+        Assert.assertEquals(100, computer.getProcessor().getInstructionsCount());
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(5000));
+        Assert.assertEquals(5100, computer.getProcessor().getInstructionsCount());
+    }
+
+    @Test
+    public void testExecuteBreakpointAndHalt() {
+        Computer computer = new Program().mov(0, 7).brk().mov(1, 8).brk().createComputer();
+        LoxProcessor processor = computer.getProcessor();
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(7, processor.getRegisters()[0]);
+        Assert.assertEquals(0x1007, processor.getRegisters()[6]);
+        Assert.assertEquals(2, processor.getInstructionsCount());
+
+        processor.stop();
+        Assert.assertEquals(ExitReason.Halted, computer.execute(100));
+        Assert.assertEquals(0, processor.getRegisters()[1]);
+
+        processor.reset();
+        Assert.assertFalse(processor.isHalted());
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(8, processor.getRegisters()[1]);
+    }
+
+    @Test
+    public void testInterruptDelivery() {
+        //device raises interrupt 5 on every write
+        final Computer computer = new Program()
+                .mov(5, 0x1800)//sp
+                .mov(0, 0x2000)//device address
+                .setf(4)//enable interrupts
+                .setf(1)//carry, so flags differ from the second byte of PC
+                .store32(0, 0)
+                .jmp(0x1010)
+                .at(0x1100)
+                .mov(1, 0x55)
+                .iret()
+                .at(0x1200 + 5 * 4)
+                .i32(0x1100)
+                .createComputer();
+        computer.getController().addMemoryMapping(new AbstractModule() {
+            @Override
+            public int getMem8(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem16(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem32(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public void setMem8(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem16(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem32(int id, int address, int value) {
+                computer.getInterruptController().raise(5);
+            }
+        }, 0x2000, 16, 0);
+        LoxProcessor processor = computer.getProcessor();
+        int[] registers = processor.getRegisters();
+        computer.getInterruptController().setVectorTableAddress(0x1200);
+
+        computer.getInterruptController().mask(5);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(10000));
+        Assert.assertEquals(0, registers[1]);
+
+        //pending interrupt is delivered at the start of execute
+        computer.getInterruptController().unmask(5);
+        int interruptedPc = registers[6];
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(2));
+        Assert.assertEquals(0x55, registers[1]);
+        Assert.assertEquals(interruptedPc, registers[6]);
+        Assert.assertEquals(0x1800, registers[5]);
+        Assert.assertEquals(0b10000, processor.getFlagByte() & 0b10000);
+
+        registers[1] = 0;
+        Assert.assertEquals(ExitReason.InterruptPending, computer.execute(100000));
+        Assert.assertEquals(0, registers[1]);
+        Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(2));
+        Assert.assertEquals(0x55, registers[1]);
+    }
+
+    @Test
+    public void testInterruptAndHaltLatency() {
+        //requests are seen at the end of the first slice of 1024 instructions
+        Assert.assertEquals(ExitReason.InterruptPending, runUntilRequest(false));
+        Assert.assertEquals(ExitReason.Halted, runUntilRequest(true));
+
+        //request that waits for the interrupt enable flag is seen after setf
+        Computer computer = new Program()
+                .mov(5, 0x1800)//sp
+                .setf(4)
+                .jmp(0x1008)
+                .createComputer();
+        computer.getInterruptController().raise(5);
+        Assert.assertEquals(ExitReason.InterruptPending, computer.execute(100000));
+        Assert.assertEquals(1024, computer.getProcessor().getInstructionsCount());
+    }
+
+    private static ExitReason runUntilRequest(final boolean halt) {
+        final Computer computer = new Program()
+                .mov(5, 0x1800)//sp
+                .mov(0, 0x2000)//device address
+                .setf(4)//enable interrupts
+                .store32(0, 0)
+                .jmp(0x100E)
+                .at(0x1100)
+                .iret()
+                .at(VECTOR_TABLE_ADDRESS + 5 * 4)
+                .i32(0x1100)
+                .createComputer();
+        computer.getController().addMemoryMapping(new AbstractModule() {
+            private int writes;
+
+            @Override
+            public int getMem8(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem16(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem32(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public void setMem8(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem16(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem32(int id, int address, int value) {
+                if (++writes == 100) {
+                    if (halt) {
+                        computer.getProcessor().stop();
+                    } else {
+                        computer.getInterruptController().raise(5);
+                    }
+                }
+            }
+        }, 0x2000, 16, 0);
+        computer.getInterruptController().setVectorTableAddress(VECTOR_TABLE_ADDRESS);
+        ExitReason reason = computer.execute(100000);
+        //request at the 100th write, 3 + 99 * 2 + 1 instructions, waits for the slice end
+        Assert.assertEquals(1024, computer.getProcessor().getInstructionsCount());
+        return reason;
+    }
+
+    @Test
+    public void testJitMatchesInterpreter() {
+        int loop = 0x1000 + 6 * 4;
+        int outerLoop = loop - 6;
+        LoxProcessor processor = assertJitMatchesInterpreter(new Program()
+                .mov(1, 1)//r2 = 1
+                .mov(4, 1)//rg = 1
+                .mov(3, -1)//r4 = outer counter
+                .mov(5, -1)//sp = inner counter
+                //inner loop rewrites immediate of its first instruction
+                .mov(2, 5)
+                .mov(0, loop + 2)
+                .alu(36, 4, 1)//rol rg, r2
+                .store32(4, 0)
+                .alu(33, 5, 1)//shr sp, r2
+                .jcc(4, loop)
+                .alu(33, 3, 1)//shr r4, r2
+                .jcc(4, outerLoop)
+                .brk());
+        Assert.assertEquals(0x80000000, processor.getRegisters()[2]);
+        Assert.assertEquals(1, processor.getRegisters()[4]);
+    }
+
+    @Test
+    public void testJitBlockLength() {
+        int loop = 0x1000 + 6 * 4;
+        int outerLoop = loop - 6;
+        Program program = new Program()
+                .mov(1, 1)//r2 = 1
+                .mov(0, 1)
+                .mov(3, -1)//r4 = outer counter
+                .mov(5, -1);//sp = inner counter
+        for (int i = 0; i < 50; i++) {
+            program.alu(32, 0, 5)//xor r1, sp
+                    .alu(36, 0, 1);//rol r1, r2
+        }
+        program.alu(33, 5, 1)//shr sp, r2
+                .jcc(4, loop)
+                .alu(33, 3, 1)//shr r4, r2
+                .jcc(4, outerLoop)
+                .brk();
+        assertJitMatchesInterpreter(program);
+
+        //blocks are cut at the maximal length, the rest of the body is the next block
+        LoxProcessor processor = runToBreakpoint(program, true).getProcessor();
+        int cut = loop + BlockCompiler.MAX_BLOCK_INSTRUCTIONS * 2;
+        Assert.assertEquals(BlockCompiler.MAX_BLOCK_INSTRUCTIONS, processor.getCompiledBlock(loop).getInstructionsCount());
+        Assert.assertEquals(100 - BlockCompiler.MAX_BLOCK_INSTRUCTIONS + 2, processor.getCompiledBlock(cut).getInstructionsCount());
+    }
+
+    @Test
+    public void testJitStoreIntoOwnBlock() {
+        int loop = 0x1000 + 6 * 5;
+        int outerLoop = loop - 6;
+        int target = loop + 6;
+        //the store rewrites immediate of the next instruction, the block returns right after it
+        LoxProcessor processor = assertJitMatchesInterpreter(new Program()
+                .mov(1, 1)//r2 = 1
+                .mov(4, 3)//rg = value
+                .mov(3, -1)//r4 = outer counter
+                .mov(0, target + 2)
+                .mov(5, -1)//sp = inner counter
+                .alu(32, 4, 5)//xor rg, sp
+                .alu(36, 4, 1)//rol rg, r2
+                .store32(4, 0)
+                .mov(2, 0)//r3 = rewritten immediate
+                .alu(33, 5, 1)//shr sp, r2
+                .jcc(4, loop)
+                .alu(33, 3, 1)//shr r4, r2
+                .jcc(4, outerLoop)
+                .brk());
+        Assert.assertEquals(processor.getRegisters()[4], processor.getRegisters()[2]);
+    }
+
+    @Test
+    public void testJitLongJumps() {
+        int loop = 0x1000 + 6 * 5;
+        int outerLoop = loop - 6;
+        int far = 0x1800;
+        int next = 0x1C00;
+        LoxProcessor processor = assertJitMatchesInterpreter(new Program()
+                .mov(1, 1)//r2 = 1
+                .mov(0, 1)
+                .mov(2, 1)
+                .mov(3, -1)//r4 = outer counter
+                .mov(5, -1)//sp = inner counter
+                .alu(36, 0, 1)//rol r1, r2
+                .alu(33, 5, 1)//shr sp, r2
+                .jcc(3, next)//forward over 3 kb
+                .jcc(4, far)
+                .at(far)
+                .alu(36, 2, 1)//rol r3, r2
+                .jcc(4, loop)//backward over 2 kb
+                .at(next)
+                .alu(33, 3, 1)//shr r4, r2
+                .jcc(4, outerLoop)//backward over 3 kb
+                .brk());
+        Assert.assertEquals(Integer.rotateLeft(1, 32 * 32), processor.getRegisters()[0]);
+        Assert.assertEquals(Integer.rotateLeft(1, 31 * 32), processor.getRegisters()[2]);
+    }
+
+    @Test
+    public void testJitInterpretsCallsStackAndInterrupts() {
+        int loop = 0x1000 + 6 * 5;
+        int outerLoop = loop - 6;
+        int function = 0x1100;
+        int handler = 0x1180;
+        LoxProcessor processor = assertJitMatchesInterpreter(new Program()
+                .mov(5, 0x1F00)//sp
+                .mov(1, 1)//r2 = 1
+                .mov(4, 1)
+                .mov(0, -1)//r1 = outer counter
+                .mov(3, -1)//r4 = inner counter
+                .call(function)
+                .pushf()
+                .alu(36, 2, 1)//rol r3, r2
+                .popf()
+                .push(3)
+                .interrupt(5)
+                .pop(2)//r3 = r4
+                .alu(33, 3, 1)//shr r4, r2
+                .jcc(4, loop)
+                .alu(33, 0, 1)//shr r1, r2
+                .jcc(4, outerLoop)
+                .brk()
+                .at(function)
+                .alu(36, 4, 1)//rol rg, r2
+                .ret()
+                .at(handler)
+                .alu(32, 4, 3)//xor rg, r4
+                .iret()
+                .at(VECTOR_TABLE_ADDRESS + 5 * 4)
+                .i32(handler));
+        Assert.assertEquals(1, processor.getRegisters()[2]);
+        Assert.assertEquals(0x1F00, processor.getRegisters()[5]);
+        Assert.assertEquals(32 * 32 * 13 + 32 * 3 + 5, processor.getInstructionsCount());
+    }
+
+    /**
+     * Runs the program to breakpoint with and without JIT, and compares
+     * registers, flags, memory and executed instructions
+     *
+     * @return processor that interpreted the program
+     */
+    private static LoxProcessor assertJitMatchesInterpreter(Program program) {
+        Computer interpreted = runToBreakpoint(program, false);
+        Computer compiled = runToBreakpoint(program, true);
+        LoxProcessor expected = interpreted.getProcessor();
+        LoxProcessor actual = compiled.getProcessor();
+        Assert.assertArrayEquals(expected.getRegisters(), actual.getRegisters());
+        Assert.assertEquals(expected.getFlagByte(), actual.getFlagByte());
+        Assert.assertEquals(expected.getInstructionsCount(), actual.getInstructionsCount());
+        Assert.assertEquals(interpreted.getController().findMapping(0x1000).getMemoryBuffer(),
+                compiled.getController().findMapping(0x1000).getMemoryBuffer());
+        return expected;
+    }
+
+    private static Computer runToBreakpoint(Program program, boolean jit) {
+        Computer computer = program.createComputer();
+        computer.getInterruptController().setVectorTableAddress(VECTOR_TABLE_ADDRESS);
+        computer.getProcessor().setJitEnabled(jit);
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(1000000));
+        return computer;
+    }
+
+    @Test
+    public void testProfiler() {
+        Computer computer = new Program()
+                .mov(5, 0x1800)//sp
+                .mov(0, 1 << 9)//r1 = counter
+                .mov(1, 1)//r2 = 1
+                .call(0x1100)//loop
+                .alu(33, 0, 1)//shr r1, r2
+                .jcc(4, 0x1012)
+                .brk()
+                .at(0x1100)
+                .mov(3, 7)
+                .ret()
+                .createComputer();
+        LoxProcessor processor = computer.getProcessor();
+        //compiled blocks are not used while profiling
+        processor.setJitEnabled(true);
+        Profiler profiler = new Profiler();
+        processor.setProfiler(profiler);
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(1000));
+
+        Assert.assertEquals(54, profiler.getInstructionsCount());
+        Assert.assertEquals(1, profiler.getHits(0x1000));
+        Assert.assertEquals(10, profiler.getHits(0x1012));
+        Assert.assertEquals(10, profiler.getHits(0x1106));
+        Assert.assertEquals(0, profiler.getHits(0x1013));
+        Assert.assertEquals(10, profiler.getOpcodeHits(47));
+        Assert.assertEquals(10, profiler.getOpcodeHits(49));
+        Assert.assertEquals(10, profiler.getHotAddresses(1).get(0).getCount());
+
+        List<Profiler.Counter> calls = profiler.getCallEdges(10);
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(Profiler.ROOT, calls.get(0).getFrom());
+        Assert.assertEquals(0x1100, calls.get(0).getTo());
+        Assert.assertEquals(10, calls.get(0).getCount());
+
+        List<Profiler.Counter> loops = profiler.getLoops(10);
+        Assert.assertEquals(1, loops.size());
+        Assert.assertEquals(0x1012, loops.get(0).getFrom());
+        Assert.assertEquals(0x1019, loops.get(0).getTo());
+        Assert.assertEquals(9, loops.get(0).getCount());
+        Assert.assertEquals(30, profiler.getRangeHits(0x1012, 0x1019));
+
+        String report = profiler.getReport(5, address -> address == 0x1100 ? "function" : null);
+        Assert.assertTrue(report, report.contains("00001012..00001019"));
+        Assert.assertTrue(report, report.contains("root     -> 00001100           10  function"));
+
+        processor.setProfiler(null);
+        processor.reset();
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(1000));
+        Assert.assertEquals(54, profiler.getInstructionsCount());
+    }
+
+    @Test
+    public void testCycleCosts() {
+        int loop = 0x1000 + 6 * 3;
+        Program program = new Program()
+                .mov(0, 0x1800)//r1 = address
+                .mov(1, 1)//r2 = value
+                .mov(2, 3)//r3 = 3
+                .store32(1, 0)//3 cycles
+                .alu(25, 1, 2)//mul r2, r3, 3 cycles
+                .jmp(loop);
+        for (boolean jit : new boolean[]{false, true}) {
+            Computer computer = program.createComputer();
+            LoxProcessor processor = computer.getProcessor();
+            processor.setJitEnabled(jit);
+            Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(3));
+            Assert.assertEquals(3, processor.getCyclesCount());
+
+            processor.setCycleCosts(CycleCosts.createWeighted());
+            Assert.assertEquals(3, processor.getCycleCosts().getCost(25));
+            Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(3 * 1000));
+            Assert.assertEquals(3 + 7 * 1000, processor.getCyclesCount());
+
+            //stops at the first instruction that reaches the limit, blocks are not split
+            Assert.assertEquals(ExitReason.BudgetExhausted, processor.execute(Long.MAX_VALUE, 8));
+            Assert.assertEquals(3 + 7 * 1000 + 10, processor.getCyclesCount());
+            Assert.assertEquals(3 + 3 * 1000 + 4, processor.getInstructionsCount());
+            Assert.assertEquals(ExitReason.BudgetExhausted, computer.execute(Long.MAX_VALUE, 6));
+            Assert.assertEquals(3 + 7 * 1001 + 10, processor.getCyclesCount());
+            Assert.assertEquals(3 + 3 * 1001 + 4, processor.getInstructionsCount());
+        }
+
+        try {
+            new CycleCosts().setCost(0, 0);
+            Assert.fail("Free opcode");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testSelfModifyingCode() {
+        int target = 0x1013;
+        Computer computer = new Program()
+                .mov(0, target + 2)//r1 = address of the immediate
+                .mov(1, 42)
+                .jmp(target)
+                .store32(1, 0)//rewrites the next instruction
+                .mov(2, 7)
+                .brk()
+                .jmp(0x1011)
+                .createComputer();
+        int[] registers = computer.getProcessor().getRegisters();
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(7, registers[2]);
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(42, registers[2]);
+    }
+
+    @Test
+    public void testSelfModifyingCodeAcrossPageBoundary() {
+        //mov r3 starts at the end of the first page, its immediate ends in the second one
+        int target = 0x1FFC;
+        Computer computer = new Program()
+                .mov(0, target)
+                .mov(1, 60 | 2 << 8 | 9 << 16)//mov r3, imm with low half of immediate 9
+                .jmp(target)
+                .at(target)
+                .mov(2, 7)
+                .brk()
+                .store32(1, 0)
+                .jmp(target)
+                .createComputer();
+        int[] registers = computer.getProcessor().getRegisters();
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(7, registers[2]);
+
+        //store from the second page into the previous one
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(9, registers[2]);
+
+        //store into the part of the instruction that is in the second page, keeps brk and store
+        registers[0] = 0x2000;
+        registers[1] = 5 | 92 << 24;
+        Assert.assertEquals(ExitReason.Breakpoint, computer.execute(100));
+        Assert.assertEquals(9 | 5 << 16, registers[2]);
+    }
+
+    @Test
+    public void testLazyFlagsMatchEagerFlags() {
+        LoxProcessor processor = new LoxProcessor();
+        processor.reset();
+        int[] registers = processor.getRegisters();
+        Random random = new Random(1);
+        int[] specialValues = new int[]{0, 1, -1, 2, 31, 32, 0x7FFFFFFF, 0x80000000, 0xFFFF, 0x10000};
+        for (int i = 0; i < 20000; i++) {
+            int x = i < 100 ? specialValues[i % 10] : random.nextInt();
+            int y = i < 100 ? specialValues[i / 10] : random.nextInt();
+            int carry = random.nextInt(2);
+            for (int operation = 0; operation < 19; operation++) {
+                if (y == 0 && operation >= 13 && operation <= 15) {
+                    //division by zero throws in both implementations
+                    continue;
+                }
+                processor.setFlagFromByte(carry << 1);
+                registers[0] = x;
+                registers[1] = y;
+                int expected = executeEager(operation, x, y, carry);
+                executeLazy(processor, operation);
+
+                //conditions are evaluated from pending flags, flag byte materializes them
+                for (int opcode = 3; opcode <= 14; opcode++) {
+                    Assert.assertEquals("operation " + operation + " x=" + x + " y=" + y + " opcode " + opcode,
+                            isConditionMet(opcode, expected), processor.isConditionMet(opcode));
+                }
+                Assert.assertEquals("operation " + operation + " x=" + x + " y=" + y, expected, processor.getFlagByte());
+            }
+        }
+    }
+
+    private static void executeLazy(LoxProcessor processor, int operation) {
+        switch (operation) {
+            case 0: processor.add(0, 1); break;
+            case 1: processor.addc(0, 1); break;
+            case 2: processor.sub(0, 1); break;
+            case 3: processor.subc(0, 1); break;
+            case 4: processor.cmp(0, 1); break;
+            case 5: processor.mul(0, 1); break;
+            case 6: processor.mulu(0, 1); break;
+            case 7: processor.and(0, 1); break;
+            case 8: processor.xor(0, 1); break;
+            case 9: processor.shr(0, 1); break;
+            case 10: processor.sar(0, 1); break;
+            case 11: processor.shl(0, 1); break;
+            case 12: processor.not(0); break;
+            case 13: processor.div(0, 1); break;
+            case 14: processor.divu(0, 1); break;
+            case 15: processor.rem(0, 1); break;
+            case 16: processor.or(0, 1); break;
+            case 17: processor.rol(0, 1); break;
+            case 18: processor.ror(0, 1); break;
+        }
+    }
+
+    /**
+     * Flags computed the way the processor computed them before lazy flags
+     *
+     * @return flag byte
+     */
+    private static int executeEager(int operation, int x, int y, int carryFlag) {
+        long result;
+        boolean arithmetic = true;
+        int c = 0;
+        switch (operation) {
+            case 0: result = (long) (x & (long) 0xFFFFFFFF + y & (long) 0xFFFFFFFF); break;
+            case 1: result = (long) (x & ((long) 0xFFFFFFFF) + y & (long) 0xFFFFFFFF) + carryFlag; break;
+            case 2:
+            case 4: result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF); break;
+            case 3: result = (long) (x & ((long) 0xFFFFFFFF) - y & (long) 0xFFFFFFFF) - ((carryFlag == 0) ? 1 : 0); break;
+            case 5: result = x * y; break;
+            case 6: result = (x & (long) 0xFFFFFFFF) * (y & (long) 0xFFFFFFFF); break;
+            default:
+                arithmetic = false;
+                switch (operation) {
+                    case 7: result = x & y; break;
+                    case 8: result = x ^ y; break;
+                    case 9: result = x >>> y; c = (x >> (y - 1)) & 0x1; break;
+                    case 10: result = x >> y; c = (x >> (y - 1)) & 0x1; break;
+                    case 11: result = x << y; c = (x >> (y + 1)) & 0x1; break;
+                    case 12: result = ~x; break;
+                    case 13: result = x / y; break;
+                    case 14: result = (long) (x & ((long) 0xFFFFFFFF) / y & (long) 0xFFFFFFFF); break;
+                    case 15: result = x % y; break;
+                    case 16: result = x | y; break;
+                    case 17: result = Integer.rotateLeft(x, y); break;
+                    default: result = Integer.rotateRight(x, y); break;
+                }
+        }
+        int n = (result & 0x80000000) == 0 ? 0 : 1;
+        int z = (result == 0) ? 1 : 0;
+        int o = 0;
+        if (arithmetic) {
+            c = (result > 0xFFFFFFFF) == false ? 0 : 1;
+            o = (~((long) x ^ (long) y) & ((long) x ^ result) & 0x80000000) == 0 ? 0 : 1;
+        }
+        return z | c << 1 | o << 2 | n << 3;
+    }
+
+    private static boolean isConditionMet(int opcode, int flags) {
+        boolean z = (flags & 0b1) != 0;
+        boolean c = (flags & 0b10) != 0;
+        boolean o = (flags & 0b100) != 0;
+        boolean n = (flags & 0b1000) != 0;
+        switch (opcode) {
+            case 3: return z;
+            case 4: return !z;
+            case 5: return !z && !n;
+            case 6: return !n;
+            case 7: return n;
+            case 8: return z || n;
+            case 9: return !c || !z;
+            case 10: return !c;
+            case 11: return c;
+            case 12: return c || z;
+            case 13: return o;
+            default: return !o;
+        }
+    }
 }
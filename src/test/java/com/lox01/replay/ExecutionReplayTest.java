@@ -0,0 +1,188 @@
+package com.lox01.replay;
+
+import com.lox01.Computer;
+import com.lox01.Program;
+import com.lox01.module.MmioDevice;
+import com.lox01.processor.ExitReason;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class ExecutionReplayTest {
+
+    private static final int SENSOR_ADDRESS = 0x200000;
+    private static final int SENSOR_INTERRUPT = 5;
+
+    private static final int LOOP = 0x101A;
+    private static final int HANDLER = 0x1100;
+    private static final int VECTOR_TABLE_ADDRESS = 0x1200;
+
+    /**
+     * Mixes sensor values into the word at 0x4000. The handler restarts the
+     * loop
+     */
+    private static final Program PROGRAM = new Program()
+            .mov(5, 0x1800)//sp
+            .mov(0, 0x4000)
+            .mov(2, SENSOR_ADDRESS)//r3 = sensor
+            .mov(4, 3)//rg = 3
+            .setf(4)
+            .load32(1, 2)//loop: mov32 r2, [r3]
+            .load32(3, 0)//mov32 r4, [r1]
+            .alu(32, 3, 1)//xor r4, r2
+            .alu(25, 3, 4)//mul r4, rg
+            .store32(3, 0)
+            .jmp(LOOP)
+            .at(HANDLER)
+            .load32(1, 2)
+            .alu(32, 3, 1)
+            .store32(3, 0)
+            .mov(5, 0x1800)
+            .setf(4)
+            .jmp(LOOP)
+            .at(VECTOR_TABLE_ADDRESS + SENSOR_INTERRUPT * 4)
+            .i32(HANDLER);
+
+    /**
+     * Returns random values and raises interrupts at random cycles
+     */
+    private static class Sensor extends MmioDevice {
+
+        private final Random random = new Random();
+        private int readsCount;
+
+        public Sensor() {
+            super(SENSOR_ADDRESS, 1);
+            defineRegister(0, () -> {
+                readsCount++;
+                return random.nextInt();
+            }, null);
+        }
+
+        @Override
+        public void reset() {
+            requestTick(1 + random.nextInt(500));
+        }
+
+        @Override
+        public void tick(long cycle) {
+            raiseInterrupt(SENSOR_INTERRUPT);
+            requestTick(1 + random.nextInt(500));
+        }
+    }
+
+    private static Computer createComputer(boolean jit) {
+        Computer computer = PROGRAM.createComputer(64, new Sensor());
+        computer.getProcessor().setJitEnabled(jit);
+        computer.getInterruptController().setVectorTableAddress(VECTOR_TABLE_ADDRESS);
+        return computer;
+    }
+
+    private static Sensor getSensor(Computer computer) {
+        return (Sensor) computer.getModulesController().getModules().get(1);
+    }
+
+    /**
+     * Raises interrupts from another thread while the computer executes
+     */
+    private static Thread startInterruptsThread(Computer computer, AtomicBoolean stop) {
+        Thread thread = new Thread(() -> {
+            while (!stop.get()) {
+                computer.getInterruptController().raise(SENSOR_INTERRUPT);
+                LockSupport.parkNanos(20000);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static byte[] record(Computer computer) throws InterruptedException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ExecutionRecorder recorder = computer.startRecording(log);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread thread = startInterruptsThread(computer, stop);
+        Random random = new Random();
+        while (computer.getProcessor().getInstructionsCount() < 500000) {
+            computer.execute(1 + random.nextInt(5000));
+        }
+        stop.set(true);
+        thread.join();
+        computer.stopRecording();
+        Assert.assertTrue(recorder.getEventsCount() > 1000);
+        Assert.assertEquals(log.size(), recorder.getBytesCount());
+        return log.toByteArray();
+    }
+
+    @Test
+    public void testReplayRepeatsExecution() throws InterruptedException {
+        for (boolean jit : new boolean[]{false, true}) {
+            Computer recorded = createComputer(jit);
+            byte[] log = record(recorded);
+
+            //stops are exact, so the record of one mode is replayed by the other
+            Computer replayed = createComputer(!jit);
+            ExecutionReplayer replayer = replayed.startReplay(new ByteArrayInputStream(log));
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread thread = startInterruptsThread(replayed, stop);
+            Assert.assertEquals(ExitReason.BudgetExhausted, replayed.execute(Long.MAX_VALUE));
+            stop.set(true);
+            thread.join();
+
+            Assert.assertFalse(replayed.isReplaying());
+            Assert.assertTrue(replayer.isFinished());
+            Assert.assertEquals(0, getSensor(replayed).readsCount);
+            Assert.assertEquals(recorded.getProcessor().getInstructionsCount(), replayed.getProcessor().getInstructionsCount());
+            Assert.assertEquals(recorded.getController().getMem32(0x4000), replayed.getController().getMem32(0x4000));
+
+            //after the end of the log the computer runs normally
+            replayed.execute(1000);
+            Assert.assertTrue(getSensor(replayed).readsCount > 0);
+        }
+    }
+
+    @Test
+    public void testDivergence() throws InterruptedException {
+        byte[] log = record(createComputer(false));
+
+        Computer replayed = createComputer(false);
+        //the guest reads unmapped address instead of the sensor
+        replayed.getController().setMem8(0x1000 + 14, 0x24);
+        replayed.startReplay(new ByteArrayInputStream(log));
+        try {
+            replayed.execute(Long.MAX_VALUE);
+            Assert.fail("Replay of other program");
+        } catch (IllegalStateException ex) {
+        }
+
+        try {
+            createComputer(false).startReplay(new ByteArrayInputStream(Arrays.copyOf(log, 2)));
+            Assert.fail("Truncated header");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testTruncatedLog() throws InterruptedException {
+        Computer recorded = createComputer(false);
+        byte[] log = record(recorded);
+
+        Computer replayed = createComputer(false);
+        replayed.startReplay(new ByteArrayInputStream(Arrays.copyOf(log, log.length / 2)));
+        try {
+            replayed.execute(Long.MAX_VALUE);
+            Assert.fail("Replay after the end of the log");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().startsWith("Execution log ended"));
+        }
+        Assert.assertTrue(replayed.getProcessor().getInstructionsCount() < recorded.getProcessor().getInstructionsCount());
+    }
+}
@@ -0,0 +1,136 @@
+package com.lox01.scheduler;
+
+import com.lox01.ClockThrottle;
+import com.lox01.Computer;
+import com.lox01.FakeClock;
+import com.lox01.Program;
+import com.lox01.module.AbstractModule;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class ComputerSchedulerTest {
+
+    private static final Program LOOP = new Program().jmp(0x1000);
+    private static final Program BREAKPOINT = new Program().brk().jmp(0x1001);
+
+    @Test
+    public void testAllComputersProgress() throws InterruptedException {
+        ComputerScheduler scheduler = new ComputerScheduler(4, 10_000);
+        for (int i = 0; i < 200; i++) {
+            scheduler.submit(LOOP.createComputer());
+        }
+        waitUntilAllExecuted(scheduler, 50_000);
+
+        for (ScheduledComputer computer : scheduler.getComputers()) {
+            Assert.assertEquals(ScheduledComputer.State.Running, computer.getState());
+            Assert.assertTrue(computer.getInstructionsPerSecond() > 0);
+            Assert.assertTrue(computer.getExecutionInstructionsPerSecond() > 0);
+            computer.stop();
+        }
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBreakpointAndStop() throws InterruptedException {
+        ComputerScheduler scheduler = new ComputerScheduler(2, 10_000);
+        ScheduledComputer computer = scheduler.submit(BREAKPOINT.createComputer());
+        waitForState(computer, ScheduledComputer.State.Paused);
+        Assert.assertEquals(1, computer.getInstructionsCount());
+
+        computer.resume();
+        waitUntilAllExecuted(scheduler, 20_000);
+        computer.stop();
+        waitForState(computer, ScheduledComputer.State.Halted);
+        long instructions = computer.getInstructionsCount();
+        Thread.sleep(20);
+        Assert.assertEquals(instructions, computer.getInstructionsCount());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testFailedComputer() throws InterruptedException {
+        ComputerScheduler scheduler = new ComputerScheduler(1, 10_000);
+        Computer computer = new Program().mov(0, 0x2000).store32(0, 0).createComputer();
+        computer.getController().addMemoryMapping(new AbstractModule() {
+            @Override
+            public int getMem8(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem16(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public int getMem32(int id, int address) {
+                return 0;
+            }
+
+            @Override
+            public void setMem8(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem16(int id, int address, int value) {
+            }
+
+            @Override
+            public void setMem32(int id, int address, int value) {
+                throw new IllegalStateException("Device failure");
+            }
+        }, 0x2000, 16, 0);
+        ScheduledComputer scheduledComputer = scheduler.submit(computer);
+        waitForState(scheduledComputer, ScheduledComputer.State.Failed);
+        Assert.assertEquals("Device failure", scheduledComputer.getFailure().getMessage());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testThrottledComputers() throws InterruptedException {
+        ComputerScheduler scheduler = new ComputerScheduler(1, 10_000);
+        //the clock does not move, so every computer may run only a millisecond ahead of it
+        FakeClock clock = new FakeClock();
+        for (int i = 0; i < 50; i++) {
+            Computer computer = LOOP.createComputer();
+            computer.setClockThrottle(new ClockThrottle(100_000, computer.getProcessor().getCyclesCount(), clock));
+            scheduler.submit(computer);
+        }
+        //the worker does not sleep while a computer is ahead of the clock, so others keep up
+        waitUntilAllExecuted(scheduler, 100);
+        Thread.sleep(50);
+
+        for (ScheduledComputer computer : scheduler.getComputers()) {
+            Assert.assertEquals(ScheduledComputer.State.Running, computer.getState());
+            Assert.assertEquals(100, computer.getComputer().getProcessor().getCyclesCount());
+        }
+        //the scheduler waits in its queue, the throttle never sleeps
+        Assert.assertTrue(clock.getSleeps().isEmpty());
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static void waitUntilAllExecuted(ComputerScheduler scheduler, long instructions) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        for (ScheduledComputer computer : scheduler.getComputers()) {
+            while (computer.getInstructionsCount() < instructions) {
+                Assert.assertTrue("Computer does not progress", System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static void waitForState(ScheduledComputer computer, ScheduledComputer.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (computer.getState() != state) {
+            Assert.assertTrue("Computer is in state " + computer.getState(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.lox01.snapshot;
+
+import com.lox01.Computer;
+import com.lox01.memmanager.MemoryController;
+import com.lox01.modules.dma.DmaController;
+import com.lox01.modules.ram.FixedRamModule;
+import com.lox01.modules.ram.PagedRamModule;
+import com.lox01.modules.ram.RamModule;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Dmitry
+ */
+public class ComputerSnapshotTest {
+
+    private static final int DMA_ADDRESS = 0x200000;
+
+    /**
+     * mov r1, 0x4000; mov r3, 3; loop: mov32 r2, [r1]; mul r2, r3; mov32
+     * [r1], r2; jmp loop
+     */
+    private static final byte[] COUNTER_LOOP = new byte[]{
+        60, 0, 0, 0x40, 0, 0,
+        60, 2, 3, 0, 0, 0,
+        86, 1 | 7 << 3,
+        25, 1 | 2 << 3,
+        92, 1 | 7 << 3,
+        2, -11, -1, -1, -1
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class TestComputer {
+
+        final Computer computer = new Computer();
+        final RamModule ram = new FixedRamModule(1024, 0x1000);
+        final DmaController dma = new DmaController(DMA_ADDRESS);
+
+        TestComputer() {
+            computer.insertModule(ram);
+            computer.insertModule(dma);
+        }
+    }
+
+    private TestComputer createRunningComputer() {
+        TestComputer test = new TestComputer();
+        MemoryController controller = test.computer.getController();
+        for (int i = 0; i < COUNTER_LOOP.length; i++) {
+            controller.setMem8(0x1000 + i, COUNTER_LOOP[i]);
+        }
+        controller.setMem32(0x4000, 1);
+        for (int i = 0; i < 1024; i++) {
+            controller.setMem32(0x8000 + i * 4, i * 31);
+        }
+        test.computer.getProcessor().reset();
+        test.computer.execute(1002);
+
+        //transfer is pending in the snapshot
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_SOURCE * 4, 0x8000);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_DESTINATION * 4, 0x20000);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_LENGTH * 4, 4096);
+        controller.setMem32(DMA_ADDRESS + DmaController.REGISTER_CONTROL * 4, DmaController.CONTROL_START);
+        return test;
+    }
+
+    @Test
+    public void testRestoredComputerContinuesExecution() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            TestComputer original = createRunningComputer();
+            File file = folder.newFile("computer" + compress + ".snapshot");
+            ComputerSnapshot.save(original.computer, file.toPath(), compress);
+
+            TestComputer restored = new TestComputer();
+            ComputerSnapshot.restore(restored.computer, file.toPath());
+            Assert.assertEquals(1002, restored.computer.getProcessor().getInstructionsCount());
+            Assert.assertTrue(restored.dma.isBusy());
+
+            original.computer.execute(1000);
+            restored.computer.execute(1000);
+            Assert.assertFalse(restored.dma.isBusy());
+            Assert.assertEquals(31 * 1023, restored.computer.getController().getMem32(0x20000 + 1023 * 4));
+            int expected = 1;
+            for (int i = 0; i < 500; i++) {
+                expected *= 3;
+            }
+            Assert.assertEquals(expected, restored.computer.getController().getMem32(0x4000));
+            Assert.assertArrayEquals(original.ram.bank, restored.ram.bank);
+            Assert.assertEquals(original.computer.getProcessor().getInstructionsCount(), restored.computer.getProcessor().getInstructionsCount());
+        }
+    }
+
+    @Test
+    public void testPagedRamRoundTrip() throws Exception {
+        for (boolean jit : new boolean[]{false, true}) {
+            Computer original = createPagedRamComputer(jit);
+            original.execute(1);
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            ComputerSnapshot.save(original, snapshot, false);
+
+            //fresh computer fetches from its zero pages, warm one from its own code
+            Computer fresh = new Computer();
+            fresh.getProcessor().setJitEnabled(jit);
+            fresh.insertModule(new PagedRamModule(1024, 0x1000));
+            Computer warm = createPagedRamComputer(jit);
+            warm.execute(1001);
+            for (Computer restored : new Computer[]{fresh, warm}) {
+                ComputerSnapshot.restore(restored, ByteBuffer.wrap(snapshot.toByteArray()));
+                restored.execute(1001);
+                Assert.assertEquals(1002, restored.getProcessor().getInstructionsCount());
+                Assert.assertEquals(power3(250), restored.getController().getMem32(0x4000));
+            }
+        }
+    }
+
+    private static Computer createPagedRamComputer(boolean jit) {
+        Computer computer = new Computer();
+        computer.getProcessor().setJitEnabled(jit);
+        computer.insertModule(new PagedRamModule(1024, 0x1000));
+        MemoryController controller = computer.getController();
+        for (int i = 0; i < COUNTER_LOOP.length; i++) {
+            controller.setMem8(0x1000 + i, COUNTER_LOOP[i]);
+        }
+        controller.setMem32(0x4000, 1);
+        computer.getProcessor().reset();
+        return computer;
+    }
+
+    private static int power3(int count) {
+        int value = 1;
+        for (int i = 0; i < count; i++) {
+            value *= 3;
+        }
+        return value;
+    }
+
+    @Test
+    public void testSparseAndCompressedPages() throws Exception {
+        TestComputer test = createRunningComputer();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ComputerSnapshot.save(test.computer, raw, false);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ComputerSnapshot.save(test.computer, compressed, true);
+
+        //1mb of RAM, but only pages with code, counter and DMA source are written
+        Assert.assertTrue(raw.size() < 4 * 4096);
+        Assert.assertTrue(compressed.size() < raw.size());
+
+        //restored pages replace the whole memory, including pages that were not zero
+        TestComputer restored = new TestComputer();
+        restored.ram.bank[0x50000] = 1;
+        ComputerSnapshot.restore(restored.computer, ByteBuffer.wrap(compressed.toByteArray()));
+        Assert.assertArrayEquals(test.ram.bank, restored.ram.bank);
+    }
+
+    @Test
+    public void testConfigurationMismatch() throws Exception {
+        TestComputer test = createRunningComputer();
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        ComputerSnapshot.save(test.computer, snapshot, false);
+
+        Computer other = new Computer();
+        other.insertModule(new FixedRamModule(1024, 0x1000));
+        try {
+            ComputerSnapshot.restore(other, ByteBuffer.wrap(snapshot.toByteArray()));
+            Assert.fail("Snapshot is restored to other configuration");
+        } catch (IllegalArgumentException ex) {
+        }
+
+        byte[] truncated = new byte[snapshot.size() / 2];
+        System.arraycopy(snapshot.toByteArray(), 0, truncated, 0, truncated.length);
+        try {
+            ComputerSnapshot.restore(new TestComputer().computer, ByteBuffer.wrap(truncated));
+            Assert.fail("Truncated snapshot is restored");
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -1,13 +1,30 @@
 package com.loxassembler;
 
+import com.loxassembler.parser.Lexer;
+import com.loxassembler.parser.MatchedToken;
+import com.loxassembler.parser.StringMatcher;
 import com.loxassembler.parser.StringParser;
+import com.loxassembler.parser.Token;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import static org.hamcrest.CoreMatchers.is;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 /**
@@ -16,6 +33,9 @@ import static org.junit.Assert.*;
  */
 public class LoxAssemblerTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testPatterns() throws Exception {
         //Number patterns
@@ -30,11 +50,31 @@ public class LoxAssemblerTest {
         assertThat(parseString(LoxAssembler.twoRegsPattern, "r1,r4"), is(createMap("arg1", "r1", "arg2", "r4")));
     }
 
+    @Test
+    public void testNamedGroups() throws Exception {
+        assertEquals(Arrays.asList("hex", "bin", "dec"), StringParser.getNamedGroupsFromPattern(Pattern.compile(LoxAssembler.numberPattern)));
+        assertEquals(Arrays.asList("a", "b", "c"), StringParser.getNamedGroupsFromPattern(
+                Pattern.compile("(?<a>x)(?:y)(?<=y)(?<!z)\\((?<b>[(?<q>]\\Q(?<r>\\E)(?i)(?<c>[a[b]])")));
+
+        StringParser parser = new StringParser();
+        parser.addMatcher("twoRegs", new StringMatcher(LoxAssembler.twoRegsPattern));
+        parser.reset("r1, r4");
+        MatchedToken token = new MatchedToken();
+        assertTrue(parser.match("twoRegs", token));
+        assertEquals("r4", token.getGroup("arg2").getString());
+        assertEquals(4, token.getGroup("arg2").getStart());
+        assertNull(token.getGroup("unknown"));
+        parser.reset("r5");
+        assertFalse(parser.match("twoRegs", token));
+        assertFalse(token.hasGroup("arg1"));
+    }
+
     @Test
     public void testAssemblingOneRegArg() throws Exception {
         LoxAssembler assembler = new LoxAssembler();
         assertArrayEquals(byteArray("00"), assembler.assemble("\tbrk "));
         assertArrayEquals(byteArray("32"), assembler.assemble("ret"));
+        assertArrayEquals(byteArray("39"), assembler.assemble("iret"));
         assertArrayEquals(byteArray("01 01"), assembler.assemble("jmp r1"));
         assertArrayEquals(byteArray("01 02"), assembler.assemble("jmp r2"));
         assertArrayEquals(byteArray("01 03"), assembler.assemble("jmp r3"));
@@ -113,6 +153,174 @@ public class LoxAssemblerTest {
         assertArrayEquals(byteArray("2E 50 00 00 00"), assembler.assemble("call 0x50"));
     }
 
+    @Test
+    public void testSourceMap() throws Exception {
+        LoxAssembler assembler = new LoxAssembler();
+        assembler.assemble("start:\n  mov r1, 5\n\n  //comment\nloop: nop\n  jmp loop");
+        SourceMap sourceMap = assembler.getSourceMap();
+        assertEquals(1, sourceMap.getLineIndex(0));
+        assertEquals(1, sourceMap.getLineIndex(5));
+        assertEquals(4, sourceMap.getLineIndex(6));
+        assertEquals(5, sourceMap.getLineIndex(7));
+        assertEquals(5, sourceMap.getLineIndex(11));
+        assertEquals(-1, sourceMap.getLineIndex(12));
+        assertEquals(-1, sourceMap.getLineIndex(-1));
+        assertEquals("5: loop: nop", sourceMap.describe(6));
+        assertNull(sourceMap.describe(12));
+    }
+
+    @Test
+    public void testLexer() throws Exception {
+        Lexer lexer = new Lexer();
+        Token token = new Token();
+        lexer.reset("loop: mov8 r1 ,r4:[r2*2+0x9_8] 12 0b101 0x 12ab - //comment");
+        List<String> tokens = new ArrayList<>();
+        while (lexer.next(token)) {
+            tokens.add(token.toString());
+        }
+        assertEquals(Arrays.asList("Identifier [loop]", "Symbol [:]", "Identifier [mov8]", "Identifier [r1]",
+                "Symbol [,]", "Identifier [r4]", "Symbol [:]", "Symbol [[]", "Identifier [r2]", "Symbol [*]",
+                "Number [2]", "Symbol [+]", "Number [0x9_8]", "Symbol []]", "Number [12]", "Number [0b101]",
+                "Invalid [0x]", "Invalid [12ab]", "Invalid [-]"), tokens);
+        assertEquals(Token.Type.End, token.getType());
+
+        lexer.reset("0x98 0xFFFFFFFF 0x100000000");
+        lexer.next(token);
+        assertEquals(0x98, token.getValue());
+        lexer.next(token);
+        assertEquals(-1, token.getValue());
+        lexer.next(token);
+        assertEquals(Token.Type.Invalid, token.getType());
+    }
+
+    @Test
+    public void testLexerMatchesRegularExpressions() throws Exception {
+        String[] lines = {
+            "nop", "brk // stop", "ret 5", "push r1", "pop sp", "jmp r1", "jmp r1x", "jmp rg_loop", "jmp 0x50",
+            "jmp _x", "jz 0x7FFF", "jz 0x7FFE", "jz 0x8000", "jz [r1]", "jz r1:[r2]", "int 5", "int 300", "int _5",
+            "int 0xFFFFFFFF", "int r1", "setf z", "clearf Z", "clearf zc", "setf x", "mov r1, 5", "mov r1, _5",
+            "mov r1, -5", "mov r1,0xAABBCCDD", "mov r1, 0x", "mov r1, 12ab", "mov r1, 0x100000000", "mov r1,pc",
+            "mov r1, r2, r3", "mov r1,", "mov r1 r2", "add r1,r2x", "add r1x,r2", "mov8 r1, r4:[r2]",
+            "mov8 r1 , r4 : [ r2 * 1 ]", "mov8 r1,r4:[r2*2]", "mov8 r1,[r2*10]", "mov8 r1,[r2*15]",
+            "mov8 r1,[r2 5]", "mov8 r1,[*2]", "mov8 r1,[+5]", "mov8 r1,[r4]", "mov8 r1,[sp*2]", "mov8 r1,[]",
+            "mov8 r1,[0x9878]", "mov8 r1,r4:[r2 * 4 + 0x9878 ]", "mov8 r1,[r2+_5]", "mov8 r1,[r2+-5]",
+            "mov16 r4:[r2*2],r1", "mov16 r2, rg:[r3*4+8]", "mov32 sp:[r1*2+0b10], r4", "jmp rg:[r1]", "setf c",
+            "mov32 [r1],r1", "mov32 [r1],r1x", "mov32 [r1]", "mov32 [r1],r1,r2",
+            "call [r1]", "call [0x85]", "call 0x50", "call r1:[r2+4]", "call [r1], r2", "unknown r1",
+            "mov8.r1", "nop ,", "nop // a\r nop", "mov r1, 5 // comment", "mov r1, // 5",
+            "loop: jmp loop", "loop: jz loop", "loop:", "loop: loop:", "loop: int 300", "loop: unknown",
+            "a: b: nop", "_a: jmp _a", "x: mov r1, 5\nx: nop", "jmp later\njz later\nlater: nop",
+            "start: nop\njz start\njmp start\ncall start"
+        };
+        LoxAssembler lexerAssembler = new LoxAssembler();
+        LoxAssembler regexAssembler = new LoxAssembler();
+        regexAssembler.setLexerEnabled(false);
+        for (String line : lines) {
+            assertEquals(line, assembleOrDescribeError(regexAssembler, line), assembleOrDescribeError(lexerAssembler, line));
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        StringBuilder source = new StringBuilder("jmp end\r\n");
+        for (int i = 0; i < 10000; i++) {
+            source.append("block").append(i).append(": mov r1, ").append(i).append("\n");
+            source.append("  mov32 r2, [r1*4+0x100] // load\n\n");
+            source.append("  jz block").append(i + 1).append("\n");
+            source.append("  jnz block").append(i).append("\n");
+        }
+        source.append("block10000: call block0\nend: nop");
+        LoxAssembler assembler = new LoxAssembler();
+        byte[] expected = assembler.assemble(source.toString());
+        assertTrue(expected.length > 150_000);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assembler.assemble(new StringReader(source.toString()), stream);
+        assertArrayEquals(expected, stream.toByteArray());
+
+        Path sourceFile = folder.newFile("source.asm").toPath();
+        Path codeFile = folder.newFile("code.bin").toPath();
+        Files.write(sourceFile, source.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(codeFile, new byte[300_000]);
+        assembler.assemble(sourceFile, codeFile);
+        assertArrayEquals(expected, Files.readAllBytes(codeFile));
+
+        assertArrayEquals(assembler.assemble("nop\r\n\r\n  jmp 5 \r\nnop\n"), streamToBytes(assembler, "nop\r\n\r\n  jmp 5 \r\nnop\n"));
+        try {
+            streamToBytes(assembler, "nop\njmp later\njz missing\nlater: nop");
+            fail();
+        } catch (CompilationException ex) {
+            assertEquals(2, ex.getLine());
+            assertEquals("Cannot find label [missing]", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamFlushing() throws Exception {
+        StringBuilder blocks = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            blocks.append("block").append(i).append(": mov r1, ").append(i).append("\n");
+            blocks.append("  jz block").append(i + 1).append("\n");
+        }
+        blocks.append("block20000: nop\nend: nop");
+
+        //jumps that are resolved on the next line let the code be flushed while the source is read
+        List<Boolean> writes = writeToStream("nop\n" + blocks);
+        assertTrue(writes.size() > 1);
+        assertFalse(writes.get(0));
+
+        //jump to the end keeps the code from the jump in the buffer until the end
+        writes = writeToStream("nop\njmp end\n" + blocks);
+        assertEquals(Arrays.asList(false, true), writes.subList(0, 2));
+        for (boolean sourceEnded : writes.subList(1, writes.size())) {
+            assertTrue(sourceEnded);
+        }
+    }
+
+    /**
+     * @return for every write to the stream, whether the whole source was
+     * read before it
+     */
+    private List<Boolean> writeToStream(String source) throws Exception {
+        final boolean[] sourceEnded = new boolean[1];
+        Reader reader = new FilterReader(new StringReader(source)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                sourceEnded[0] |= count < 0;
+                return count;
+            }
+        };
+        final List<Boolean> writes = new ArrayList<>();
+        OutputStream stream = new OutputStream() {
+            @Override
+            public void write(int value) {
+                writes.add(sourceEnded[0]);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                writes.add(sourceEnded[0]);
+            }
+        };
+        new LoxAssembler().assemble(reader, stream);
+        return writes;
+    }
+
+    private byte[] streamToBytes(LoxAssembler assembler, String source) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        assembler.assemble(new StringReader(source), stream);
+        return stream.toByteArray();
+    }
+
+    private String assembleOrDescribeError(LoxAssembler assembler, String source) {
+        try {
+            return Arrays.toString(assembler.assemble(source));
+        } catch (Exception ex) {
+            return ex.getClass().getName() + ": " + ex.getMessage();
+        }
+    }
+
     private byte[] byteArray(String hexString) {
         String[] parts = hexString.split("\\s+");
         byte[] result = new byte[parts.length];
@@ -0,0 +1,133 @@
+package com.loxassembler;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * @author Dmitry
+ */
+public class ParallelAssemblerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLinkedFilesMatchOneSource() throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        StringBuilder allSources = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            String source = "func" + i + ":\n"
+                    + "  mov r1, " + i + "\n"
+                    + "  mov32 r2, [r1*4+0x100]\n"
+                    + "loop" + i + ": add r1, r2\n"
+                    + "  jnz loop" + i + "\n"
+                    + "  jz func" + ((i + 1) % 50) + "\n"
+                    + "  call func" + ((i + 49) % 50) + "\n"
+                    + "  ret\n";
+            sources.put("file" + i + ".asm", source);
+            allSources.append(source);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            ParallelAssembler assembler = new ParallelAssembler(pool);
+            byte[] expected = new LoxAssembler().assemble(allSources.toString());
+            assertArrayEquals(expected, assembler.assemble(sources));
+
+            List<RelocatableObject> objects = assembler.assembleObjects(sources);
+            assertEquals(50, objects.size());
+            assertEquals("file7.asm", objects.get(7).getName());
+            assertEquals(Arrays.asList("func7", "loop7"), new ArrayList<>(objects.get(7).getExports().keySet()));
+            //jz and call go to other files, jnz is resolved in the file
+            assertEquals(2, objects.get(7).getImports().size());
+            assertEquals(expected.length / 50 * 7, assembler.getLinker().getObjectAddress("file7.asm"));
+            assertEquals(expected.length / 50 * 7, assembler.getLinker().getLabelAddress("func7"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAlignment() throws Exception {
+        LoxAssembler assembler = new LoxAssembler();
+        List<RelocatableObject> objects = Arrays.asList(
+                assembler.assembleObject("a", "start: nop\njmp next"),
+                assembler.assembleObject("b", "next: jmp start"));
+        LoxLinker linker = new LoxLinker();
+        linker.setAlignment(16);
+        byte[] program = linker.link(objects);
+        assertEquals(21, program.length);
+        assertEquals(16, linker.getObjectAddress("b"));
+        assertEquals(-1, linker.getObjectAddress("c"));
+        //jmp at 1 to 16 and jmp at 16 to 0, offsets are from the end of the jump
+        assertArrayEquals(new byte[]{0x02, 10, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}, Arrays.copyOfRange(program, 1, 16));
+        assertArrayEquals(new byte[]{0x02, -21, -1, -1, -1}, Arrays.copyOfRange(program, 16, 21));
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        ParallelAssembler assembler = new ParallelAssembler();
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("a", "start: nop\njmp missing");
+        sources.put("b", "nop\nnop\nstart: nop");
+        assertError(assembler, sources, "b", 2, "Label [start] is already defined in [a]");
+
+        sources.remove("b");
+        assertError(assembler, sources, "a", 1, "Cannot find label [missing]");
+
+        sources.put("b", "nop\nmov r1,");
+        sources.put("c", "unknown");
+        assertError(assembler, sources, "b", 1, "Cannot parse arguments of command mov");
+
+        sources.clear();
+        sources.put("a", "jz far");
+        sources.put("b", "mov32 r1, [0x10]" + repeat("\nnop", 40000) + "\nfar: nop");
+        assertError(assembler, sources, "a", 0, "Cannot reference label beyond than 32767 but requested jump offset is 40006");
+    }
+
+    @Test
+    public void testFiles() throws Exception {
+        Path main = folder.newFile("main.asm").toPath();
+        Path library = folder.newFile("library.asm").toPath();
+        Files.write(main, "call print\nbrk".getBytes(StandardCharsets.UTF_8));
+        Files.write(library, "print: push r1\npop r1\nret".getBytes(StandardCharsets.UTF_8));
+        ParallelAssembler assembler = new ParallelAssembler();
+        assertArrayEquals(new LoxAssembler().assemble("call print\nbrk\nprint: push r1\npop r1\nret"), assembler.assembleFiles(Arrays.asList(main, library)));
+
+        try {
+            assembler.assembleFiles(Arrays.asList(main, folder.getRoot().toPath().resolve("missing.asm")));
+            fail();
+        } catch (java.nio.file.NoSuchFileException ex) {
+        }
+    }
+
+    private void assertError(ParallelAssembler assembler, Map<String, String> sources, String fileName, int line, String message) {
+        try {
+            assembler.assemble(sources);
+            fail();
+        } catch (CompilationException ex) {
+            assertEquals(fileName, ex.getFileName());
+            assertEquals(line, ex.getLine());
+            assertEquals(message, ex.getMessage());
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+}